@@ -88,7 +88,10 @@ def send_shipment():
 # Handle truck arrival notification from UPS
 @app.route('/api/ups/notifications/truck-arrived', methods=['POST'])
 def truck_arrived():
-    data = request.json
+    handle_truck_arrived(request.json)
+    return jsonify({"success": True})
+
+def handle_truck_arrived(data):
     logger.info(f"Received truck arrival notification: {data}")
     
     package_id = data.get('package_id')
@@ -102,8 +105,6 @@ def truck_arrived():
         # Simulate loading the package
         threading.Thread(target=simulate_package_loading, 
                          args=(package_id, truck_id)).start()
-    
-    return jsonify({"success": True})
 
 # Simulate package loading and sending notification to UPS
 def simulate_package_loading(package_id, truck_id):
@@ -140,7 +141,10 @@ def simulate_package_loading(package_id, truck_id):
 # Handle delivery complete notification from UPS
 @app.route('/api/ups/notifications/delivery-complete', methods=['POST'])
 def delivery_complete():
-    data = request.json
+    handle_delivery_complete(request.json)
+    return jsonify({"success": True})
+
+def handle_delivery_complete(data):
     logger.info(f"Received delivery complete notification: {data}")
     
     package_id = data.get('package_id')
@@ -149,13 +153,14 @@ def delivery_complete():
         shipments[package_id]["status"] = "DELIVERED"
         shipments[package_id]["lifecycle_stage"] = 4
         shipments[package_id]["delivered_at"] = time.time()
-    
-    return jsonify({"success": True})
 
 # Handle status update notification from UPS
 @app.route('/api/ups/notifications/status-update', methods=['POST'])
 def status_update():
-    data = request.json
+    handle_status_update(request.json)
+    return jsonify({"success": True})
+
+def handle_status_update(data):
     logger.info(f"Received status update notification: {data}")
     
     package_id = data.get('package_id')
@@ -163,8 +168,26 @@ def status_update():
     
     if package_id in shipments:
         shipments[package_id]["ups_status"] = status
+
+# Batched notifications from UPS: a JSON array of the single notifications, in order
+BATCH_HANDLERS = {
+    "truck-arrived": handle_truck_arrived,
+    "delivery-complete": handle_delivery_complete,
+    "status-update": handle_status_update,
+}
+
+@app.route('/api/ups/notifications/<kind>/batch', methods=['POST'])
+def notification_batch(kind):
+    handler = BATCH_HANDLERS.get(kind)
+    data = request.json
+    if handler is None or not isinstance(data, list):
+        return jsonify({"success": False, "error": "Expected a JSON array"}), 400
     
-    return jsonify({"success": True})
+    logger.info(f"Received batch of {len(data)} {kind} notifications")
+    for notification in data:
+        handler(notification)
+    
+    return jsonify({"success": True, "count": len(data)})
 
 # Get all shipments (for testing)
 @app.route('/api/test/shipments', methods=['GET'])
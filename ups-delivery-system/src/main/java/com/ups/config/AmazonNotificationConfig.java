@@ -1,13 +1,16 @@
 package com.ups.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.ClientHttpRequestFactory;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.net.http.HttpClient;
 import java.time.Duration;
 
 /**
@@ -16,6 +19,8 @@ import java.time.Duration;
 @Configuration
 public class AmazonNotificationConfig {
     
+    private static final Logger logger = LoggerFactory.getLogger(AmazonNotificationConfig.class);
+    
     private final String amazonServiceUrl;
     
     @Autowired
@@ -24,15 +29,35 @@ public class AmazonNotificationConfig {
     }
     
     /**
-     * Create a RestTemplate with appropriate timeout settings
+     * Create a RestTemplate on a pooled, keep-alive HTTP client
      * @return The configured RestTemplate
      */
     @Bean
-    public RestTemplate restTemplate() {
+    public RestTemplate restTemplate(
+            MeterRegistry meterRegistry,
+            @Value("${amazon.http.version:HTTP_1_1}") HttpClient.Version version,
+            @Value("${amazon.http.connect-timeout-ms:10000}") long connectTimeoutMillis,
+            @Value("${amazon.http.read-timeout-ms:30000}") long readTimeoutMillis,
+            @Value("${amazon.http.max-per-route:20}") int maxPerRoute,
+            @Value("${amazon.http.acquire-timeout-ms:5000}") long acquireTimeoutMillis,
+            @Value("${amazon.http.max-idle-connections:50}") int maxIdleConnections,
+            @Value("${amazon.http.keep-alive-seconds:30}") long keepAliveSeconds) {
+        // The JDK client reads its pool settings from system properties once, when the first client is built;
+        // explicit -D settings win
+        setIfAbsent("jdk.httpclient.connectionPoolSize", String.valueOf(maxIdleConnections));
+        setIfAbsent("jdk.httpclient.keepalive.timeout", String.valueOf(keepAliveSeconds));
+        
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        logger.info("Amazon HTTP client: {}, {} requests per route, keep-alive {}s",
+                version, maxPerRoute, keepAliveSeconds);
+        
         return new RestTemplateBuilder()
-                .setConnectTimeout(Duration.ofSeconds(10))
-                .setReadTimeout(Duration.ofSeconds(30))
-                .requestFactory(this::clientHttpRequestFactory)
+                .requestFactory(() -> new PooledJdkHttpRequestFactory(httpClient,
+                        Duration.ofMillis(readTimeoutMillis), maxPerRoute, acquireTimeoutMillis, meterRegistry))
                 .build();
     }
     
@@ -45,14 +70,9 @@ public class AmazonNotificationConfig {
         return amazonServiceUrl;
     }
     
-    /**
-     * Create a ClientHttpRequestFactory with appropriate buffer sizes
-     * @return The configured ClientHttpRequestFactory
-     */
-    private ClientHttpRequestFactory clientHttpRequestFactory() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setOutputStreaming(false);
-        factory.setBufferRequestBody(false);
-        return factory;
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.ups.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RestTemplate request factory on one shared JDK HttpClient, so connections are kept alive and reused
+ * instead of opened for every request, and HTTP/2 can be used where the server offers it.
+ * Requests to one route (scheme, host and port) are limited to a fixed number in flight; callers over
+ * the limit wait up to the acquire timeout. Leased, pending and maximum per route are Micrometer gauges.
+ */
+public class PooledJdkHttpRequestFactory implements ClientHttpRequestFactory {
+
+    // Headers the JDK client sets itself and refuses from callers
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient httpClient;
+    private final Duration readTimeout;
+    private final int maxPerRoute;
+    private final long acquireTimeoutMillis;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * In-flight limit and counters for one route
+     */
+    private static final class Route {
+        private final Semaphore permits;
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Route(int maxPerRoute) {
+            this.permits = new Semaphore(maxPerRoute, true);
+        }
+    }
+
+    public PooledJdkHttpRequestFactory(HttpClient httpClient, Duration readTimeout, int maxPerRoute,
+                                       long acquireTimeoutMillis, MeterRegistry meterRegistry) {
+        this.httpClient = httpClient;
+        this.readTimeout = readTimeout;
+        this.maxPerRoute = Math.max(1, maxPerRoute);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new JdkRequest(uri, httpMethod);
+    }
+
+    private Route route(URI uri) {
+        String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+        return routes.computeIfAbsent(key, name -> {
+            Route route = new Route(maxPerRoute);
+            Gauge.builder("amazon.http.pool.leased", route.leased, AtomicInteger::get)
+                    .description("Requests in flight on the route")
+                    .tag("route", name)
+                    .register(meterRegistry);
+            Gauge.builder("amazon.http.pool.pending", route.pending, AtomicInteger::get)
+                    .description("Requests waiting for a free slot on the route")
+                    .tag("route", name)
+                    .register(meterRegistry);
+            Gauge.builder("amazon.http.pool.max", () -> maxPerRoute)
+                    .description("Requests allowed in flight on the route")
+                    .tag("route", name)
+                    .register(meterRegistry);
+            return route;
+        });
+    }
+
+    /**
+     * A request with its body buffered, sent when the RestTemplate executes it
+     */
+    private final class JdkRequest extends AbstractClientHttpRequest {
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        JdkRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(readTimeout);
+            headers.forEach((name, values) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                    values.forEach(value -> builder.header(name, value));
+                }
+            });
+            byte[] bytes = body.toByteArray();
+            builder.method(method.name(), bytes.length == 0
+                    ? HttpRequest.BodyPublishers.noBody()
+                    : HttpRequest.BodyPublishers.ofByteArray(bytes));
+
+            Route route = route(uri);
+            route.pending.incrementAndGet();
+            try {
+                if (!route.permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("No free connection to " + uri.getHost() + ":" + uri.getPort()
+                            + " within " + acquireTimeoutMillis + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a connection to " + uri.getHost());
+            } finally {
+                route.pending.decrementAndGet();
+            }
+
+            route.leased.incrementAndGet();
+            try {
+                // Read the whole body so the slot and the connection are free when this returns
+                HttpResponse<byte[]> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+                return new JdkResponse(response);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted sending to " + uri.getHost());
+            } finally {
+                route.leased.decrementAndGet();
+                route.permits.release();
+            }
+        }
+    }
+
+    /**
+     * A fully read response
+     */
+    private static final class JdkResponse implements ClientHttpResponse {
+        private final HttpResponse<byte[]> response;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        JdkResponse(HttpResponse<byte[]> response) {
+            this.response = response;
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                headers.addAll(header.getKey(), header.getValue());
+            }
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.statusCode());
+        }
+
+        @Override
+        @Deprecated
+        public int getRawStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getStatusText() {
+            HttpStatus status = HttpStatus.resolve(response.statusCode());
+            return status != null ? status.getReasonPhrase() : "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(response.body() == null ? new byte[0] : response.body());
+        }
+
+        @Override
+        public void close() {
+            // Nothing held; the body was read in full
+        }
+    }
+}
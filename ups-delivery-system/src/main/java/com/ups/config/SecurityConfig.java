@@ -25,6 +25,8 @@ public class SecurityConfig {
                 .requestMatchers(mvcMatcherBuilder.pattern("/login")).permitAll()
                 .requestMatchers(mvcMatcherBuilder.pattern("/tracking")).permitAll()
                 .requestMatchers(new AntPathRequestMatcher("/h2-console/**")).permitAll()
+                // Only health is public; metrics and the other actuator endpoints need a login
+                .requestMatchers(new AntPathRequestMatcher("/actuator/health")).permitAll()
                 .anyRequest().authenticated()
             )
             .formLogin(form -> form
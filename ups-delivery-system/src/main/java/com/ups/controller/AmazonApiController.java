@@ -17,6 +17,7 @@ import com.ups.model.entity.Truck;
 import com.ups.model.entity.TruckStatus;
 import com.ups.repository.PackageRepository;
 import com.ups.repository.TruckRepository;
+import com.ups.service.IdempotencyCache;
 import com.ups.service.ShipmentService;
 import com.ups.service.MessageTrackingService;
 import com.ups.service.world.Ups;
@@ -25,40 +26,44 @@ import com.ups.model.amazon.PackageLoadedRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import java.time.Instant;
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 @RequestMapping("/api")
 public class AmazonApiController {
     
     private static final Logger logger = LoggerFactory.getLogger(AmazonApiController.class);
+    // Sends of a redirected truck that lose a race with the fleet's write-behind are tried this many times
+    private static final int REDIRECT_ATTEMPTS = 3;
     private final ShipmentService shipmentService;
     private final MessageTrackingService messageTrackingService;
     private final PackageRepository packageRepository;
     private final TruckRepository truckRepository;
     private final Ups ups;
     
-    private final Map<Long, Object> responseCache = new ConcurrentHashMap<>();
+    // Responses already given, to answer replayed requests
+    private final IdempotencyCache responseCache;
     
     @Autowired
     public AmazonApiController(ShipmentService shipmentService, 
                               MessageTrackingService messageTrackingService,
                               PackageRepository packageRepository,
                               TruckRepository truckRepository,
-                              Ups ups) {
+                              Ups ups,
+                              IdempotencyCache responseCache) {
         this.shipmentService = shipmentService;
         this.messageTrackingService = messageTrackingService;
         this.packageRepository = packageRepository;
         this.truckRepository = truckRepository;
         this.ups = ups;
+        this.responseCache = responseCache;
     }
     
     
@@ -76,10 +81,10 @@ public class AmazonApiController {
         if (messageTrackingService.isMessageProcessed(request.getSeqNum())) {
             logger.info("Duplicate message received with seq_num: {}", request.getSeqNum());
             // Return the cached response
-            Object cachedResponse = responseCache.get(request.getSeqNum());
-            if (cachedResponse != null && cachedResponse instanceof CreateShipmentResponse) {
+            CreateShipmentResponse cachedResponse = responseCache.get(request.getSeqNum(), CreateShipmentResponse.class);
+            if (cachedResponse != null) {
                 logger.info("Returning cached response for message with seq_num: {}", request.getSeqNum());
-                return ResponseEntity.ok((CreateShipmentResponse) cachedResponse);
+                return ResponseEntity.ok(cachedResponse);
             }
             return ResponseEntity.ok().build();
         }
@@ -115,10 +120,10 @@ public class AmazonApiController {
         if (messageTrackingService.isMessageProcessed(request.getSeqNum())) {
             logger.info("Duplicate message received with seq_num: {}", request.getSeqNum());
             // Return the cached response
-            Object cachedResponse = responseCache.get(request.getSeqNum());
-            if (cachedResponse != null && cachedResponse instanceof ChangeDestinationResponse) {
+            ChangeDestinationResponse cachedResponse = responseCache.get(request.getSeqNum(), ChangeDestinationResponse.class);
+            if (cachedResponse != null) {
                 logger.info("Returning cached response for message with seq_num: {}", request.getSeqNum());
-                return ResponseEntity.ok((ChangeDestinationResponse) cachedResponse);
+                return ResponseEntity.ok(cachedResponse);
             }
             return ResponseEntity.ok().build();
         }
@@ -156,7 +161,7 @@ public class AmazonApiController {
                         Location newLocation = new Location(
                                 request.getNewDestination().getX(), 
                                 request.getNewDestination().getY());
-                        ups.sendTruckToDeliver(pkg.getTruck().getId(), pkg.getId(), newLocation);
+                        sendTruckToDeliver(pkg.getTruck().getId(), pkg.getId(), newLocation);
                         
                         logger.info("Updated delivery instructions for package {} to new destination ({},{})",
                                 pkg.getId(), newLocation.getX(), newLocation.getY());
@@ -171,6 +176,11 @@ public class AmazonApiController {
                 response.setError("Package not found with ID: " + request.getPackageId());
                 logger.warn("Destination change request for non-existent package: {}", request.getPackageId());
             }
+        } catch (OptimisticLockingFailureException e) {
+            response.setStatus("FAILED");
+            response.setError("Truck for package " + request.getPackageId() + " kept changing while it was redirected; please retry");
+            logger.warn("Gave up redirecting package {} after {} conflicting truck updates",
+                    request.getPackageId(), REDIRECT_ATTEMPTS);
         } catch (Exception e) {
             response.setStatus("FAILED");
             response.setError("Error processing destination change: " + e.getMessage());
@@ -198,10 +208,10 @@ public class AmazonApiController {
         if (messageTrackingService.isMessageProcessed(request.getSeqNum())) {
             logger.info("Duplicate message received with seq_num: {}", request.getSeqNum());
             // Return cached response if available
-            Object cachedResponse = responseCache.get(request.getSeqNum());
-            if (cachedResponse != null && cachedResponse instanceof QueryShipmentStatusResponse) {
+            QueryShipmentStatusResponse cachedResponse = responseCache.get(request.getSeqNum(), QueryShipmentStatusResponse.class);
+            if (cachedResponse != null) {
                 logger.info("Returning cached response for message with seq_num: {}", request.getSeqNum());
-                return ResponseEntity.ok((QueryShipmentStatusResponse) cachedResponse);
+                return ResponseEntity.ok(cachedResponse);
             }
             return ResponseEntity.ok().build();
         }
@@ -440,7 +450,22 @@ public class AmazonApiController {
         
         return ResponseEntity.ok().build();
     }
-    
+
+    // Each attempt is its own transaction, so a retry reads the truck row the write-behind just saved
+    private void sendTruckToDeliver(int truckId, long packageId, Location destination) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ups.sendTruckToDeliver(truckId, packageId, destination);
+                return;
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= REDIRECT_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("Truck {} changed while package {} was redirected, trying again", truckId, packageId);
+            }
+        }
+    }
+
     // Helper method to generate a general error response
     private UPSGeneralError createErrorResponse(long seqNum, int errorCode, String errorMsg) {
         UPSGeneralError error = new UPSGeneralError();
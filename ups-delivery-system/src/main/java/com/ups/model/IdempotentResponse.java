@@ -0,0 +1,77 @@
+package com.ups.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Entity for the response UPS gave to an Amazon request, kept so a replayed request gets the same answer
+ * after the in-memory copy has expired or been evicted, or the service has restarted
+ */
+@Entity
+@Table(name = "idempotent_responses", indexes = {
+    @Index(name = "idx_idempotent_response_created_at", columnList = "createdAt")
+})
+public class IdempotentResponse {
+
+    // Sequence number of the Amazon request that was answered
+    @Id
+    private Long seqNum;
+    
+    // Simple class name of the response, e.g. CreateShipmentResponse
+    private String responseType;
+    
+    // The response as JSON, exactly as it was returned.
+    // Plain text rather than @Lob, which PostgreSQL would store as a large object behind an oid
+    @Column(columnDefinition = "text")
+    private String body;
+    
+    private Instant createdAt;
+    
+    // Default constructor
+    public IdempotentResponse() {
+    }
+    
+    public IdempotentResponse(Long seqNum, String responseType, String body, Instant createdAt) {
+        this.seqNum = seqNum;
+        this.responseType = responseType;
+        this.body = body;
+        this.createdAt = createdAt;
+    }
+    
+    // Getters and setters
+    public Long getSeqNum() {
+        return seqNum;
+    }
+    
+    public void setSeqNum(Long seqNum) {
+        this.seqNum = seqNum;
+    }
+    
+    public String getResponseType() {
+        return responseType;
+    }
+    
+    public void setResponseType(String responseType) {
+        this.responseType = responseType;
+    }
+    
+    public String getBody() {
+        return body;
+    }
+    
+    public void setBody(String body) {
+        this.body = body;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
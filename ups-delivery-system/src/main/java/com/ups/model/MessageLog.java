@@ -15,7 +15,8 @@ import java.time.Instant;
 @Table(name = "message_logs", indexes = {
     @Index(name = "idx_message_log_seq_num", columnList = "seqNum"),
     @Index(name = "idx_message_log_timestamp", columnList = "timestamp"),
-    @Index(name = "idx_message_log_direction", columnList = "direction")
+    // Unacknowledged messages by age, for the retry scan
+    @Index(name = "idx_message_log_unacked", columnList = "direction, acknowledged, timestamp")
 })
 public class MessageLog {
 
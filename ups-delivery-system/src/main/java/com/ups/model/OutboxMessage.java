@@ -0,0 +1,154 @@
+package com.ups.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Entity for a notification to Amazon waiting in the outbox.
+ * Written in the same transaction as the change it reports, and marked delivered once Amazon accepts it.
+ */
+@Entity
+@Table(name = "notification_outbox", indexes = {
+    @Index(name = "idx_outbox_delivered_id", columnList = "deliveredAt, id"),
+    @Index(name = "idx_outbox_seq_num", columnList = "seqNum")
+})
+public class OutboxMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    private Long seqNum;
+    private String messageType;
+    
+    // Path on the Amazon service, e.g. /api/ups/notifications/status-update
+    private String endpoint;
+    
+    // The notification as JSON, exactly as it will be POSTed.
+    // Plain text rather than @Lob, which PostgreSQL would store as a large object behind an oid
+    @Column(columnDefinition = "text")
+    private String payload;
+    
+    private Instant createdAt;
+    
+    // Failed delivery attempts so far, and when the next one is allowed
+    private int attempts;
+    private Instant nextAttemptAt;
+    
+    @Column(length = 500)
+    private String lastError;
+    
+    // When Amazon accepted the notification; null while it is still to be sent
+    private Instant deliveredAt;
+    
+    // When the relay gave up on the notification; a dead row is no longer sent and holds nothing back
+    private Instant deadAt;
+    
+    // Default constructor
+    public OutboxMessage() {
+    }
+    
+    public OutboxMessage(Long seqNum, String messageType, String endpoint, String payload, Instant createdAt) {
+        this.seqNum = seqNum;
+        this.messageType = messageType;
+        this.endpoint = endpoint;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+    
+    // Getters and Setters
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public Long getSeqNum() {
+        return seqNum;
+    }
+    
+    public void setSeqNum(Long seqNum) {
+        this.seqNum = seqNum;
+    }
+    
+    public String getMessageType() {
+        return messageType;
+    }
+    
+    public void setMessageType(String messageType) {
+        this.messageType = messageType;
+    }
+    
+    public String getEndpoint() {
+        return endpoint;
+    }
+    
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+    
+    public String getPayload() {
+        return payload;
+    }
+    
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+    
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+    
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+    
+    public String getLastError() {
+        return lastError;
+    }
+    
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+    
+    public Instant getDeliveredAt() {
+        return deliveredAt;
+    }
+    
+    public void setDeliveredAt(Instant deliveredAt) {
+        this.deliveredAt = deliveredAt;
+    }
+    
+    public Instant getDeadAt() {
+        return deadAt;
+    }
+    
+    public void setDeadAt(Instant deadAt) {
+        this.deadAt = deadAt;
+    }
+}
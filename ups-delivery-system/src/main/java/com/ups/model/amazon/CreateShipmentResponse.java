@@ -24,6 +24,10 @@ public class CreateShipmentResponse {
     
     private String error;
     
+    // 1-based place in the pending queue when status is QUEUED
+    @JsonProperty("queue_position")
+    private Long queuePosition;
+    
     // Getters and setters
     public String getMessageType() {
         return messageType;
@@ -80,4 +84,12 @@ public class CreateShipmentResponse {
     public void setError(String error) {
         this.error = error;
     }
+    
+    public Long getQueuePosition() {
+        return queuePosition;
+    }
+    
+    public void setQueuePosition(Long queuePosition) {
+        this.queuePosition = queuePosition;
+    }
 }
\ No newline at end of file
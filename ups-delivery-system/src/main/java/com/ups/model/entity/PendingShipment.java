@@ -0,0 +1,81 @@
+package com.ups.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * A shipment request waiting for a truck. The row ID gives the queue order.
+ */
+@Entity
+@Table(name = "pending_shipments", indexes = {
+    @Index(name = "idx_pending_shipment_warehouse", columnList = "warehouseId")
+})
+public class PendingShipment {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(unique = true, nullable = false)
+    private Long packageId;
+    
+    private Integer warehouseId;
+    
+    // The original CreateShipmentRequest as JSON, replayed when a truck is free.
+    // Plain text rather than @Lob, which PostgreSQL would store as a large object behind an oid
+    @Column(columnDefinition = "text")
+    private String request;
+    
+    private Instant enqueuedAt;
+    
+    // Constructors
+    public PendingShipment() {}
+    
+    public PendingShipment(Long packageId, Integer warehouseId, String request, Instant enqueuedAt) {
+        this.packageId = packageId;
+        this.warehouseId = warehouseId;
+        this.request = request;
+        this.enqueuedAt = enqueuedAt;
+    }
+    
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public Long getPackageId() {
+        return packageId;
+    }
+    
+    public void setPackageId(Long packageId) {
+        this.packageId = packageId;
+    }
+    
+    public Integer getWarehouseId() {
+        return warehouseId;
+    }
+    
+    public void setWarehouseId(Integer warehouseId) {
+        this.warehouseId = warehouseId;
+    }
+    
+    public String getRequest() {
+        return request;
+    }
+    
+    public void setRequest(String request) {
+        this.request = request;
+    }
+    
+    public Instant getEnqueuedAt() {
+        return enqueuedAt;
+    }
+    
+    public void setEnqueuedAt(Instant enqueuedAt) {
+        this.enqueuedAt = enqueuedAt;
+    }
+}
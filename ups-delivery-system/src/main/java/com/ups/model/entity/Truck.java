@@ -21,6 +21,11 @@ public class Truck {
     @OneToMany(mappedBy = "truck")
     private Set<Package> packages = new HashSet<>();
     
+    // Guards against the fleet write-behind overwriting a newer save; existing rows start at 0
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private Long version;
+    
     // Constructors
     public Truck() {
         this.status = TruckStatus.IDLE;
@@ -80,6 +85,10 @@ public class Truck {
         this.status = status;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
     public Set<Package> getPackages() {
         return packages;
     }
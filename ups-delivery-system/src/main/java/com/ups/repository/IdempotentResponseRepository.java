@@ -0,0 +1,10 @@
+package com.ups.repository;
+
+import com.ups.model.IdempotentResponse;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+/**
+ * Repository for responses kept to answer replayed Amazon requests
+ */
+public interface IdempotentResponseRepository extends JpaRepository<IdempotentResponse, Long> {
+}
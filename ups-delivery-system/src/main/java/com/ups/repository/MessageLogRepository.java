@@ -1,6 +1,7 @@
 package com.ups.repository;
 
 import com.ups.model.MessageLog;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -42,10 +43,31 @@ public interface MessageLogRepository extends JpaRepository<MessageLog, Long> {
     List<MessageLog> findByTimestampBefore(Instant timestamp);
     
     /**
-     * Find IDs of unacknowledged messages in the specified direction
+     * Find the highest sequence number logged in a direction
      * @param direction The message direction ("INCOMING" or "OUTGOING")
-     * @return A list of message IDs
+     * @return The highest sequence number, or null if there are none
      */
-    @Query("SELECT m.id FROM MessageLog m WHERE m.acknowledged IS NULL AND m.direction = :direction")
-    List<String> findUnacknowledgedMessageIds(@Param("direction") String direction);
-}
\ No newline at end of file
+    @Query("SELECT MAX(m.seqNum) FROM MessageLog m WHERE m.direction = :direction")
+    Long findMaxSeqNum(@Param("direction") String direction);
+    
+    /**
+     * Find the next page of unacknowledged messages sent within a time window, oldest first.
+     * Served by the (direction, acknowledged, timestamp) index in index order, so each page stops after
+     * the page size without sorting; pass the timestamp and ID of the last row seen to get the next one.
+     * @param direction The message direction ("INCOMING" or "OUTGOING")
+     * @param afterTimestamp Timestamp of the last row seen, or the start of the window for the first page
+     * @param afterId ID of the last row seen, or 0 for the first page
+     * @param before The end of the window, exclusive
+     * @param page The page size
+     * @return A page of message logs
+     */
+    @Query("SELECT m FROM MessageLog m WHERE m.direction = :direction AND m.acknowledged IS NULL "
+            + "AND m.timestamp < :before "
+            + "AND (m.timestamp > :afterTimestamp OR (m.timestamp = :afterTimestamp AND m.id > :afterId)) "
+            + "ORDER BY m.timestamp, m.id")
+    List<MessageLog> findUnacknowledgedPage(@Param("direction") String direction,
+                                            @Param("afterTimestamp") Instant afterTimestamp,
+                                            @Param("afterId") long afterId,
+                                            @Param("before") Instant before,
+                                            Pageable page);
+}
@@ -0,0 +1,72 @@
+package com.ups.repository;
+
+import com.ups.model.OutboxMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository for the Amazon notification outbox
+ */
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+    
+    /**
+     * Find the next undelivered notifications after an ID, oldest first, leaving out dead ones
+     * @param afterId Only rows with a larger ID, for paging through the outbox
+     * @param page The batch size
+     * @return A batch of undelivered notifications
+     */
+    @Query("SELECT o FROM OutboxMessage o WHERE o.deliveredAt IS NULL AND o.deadAt IS NULL AND o.id > :afterId "
+            + "ORDER BY o.id")
+    List<OutboxMessage> findUndeliveredAfter(@Param("afterId") long afterId, Pageable page);
+    
+    /**
+     * Find the outbox entries for a set of notification sequence numbers in one query
+     */
+    List<OutboxMessage> findBySeqNumIn(Collection<Long> seqNums);
+    
+    /**
+     * Find the highest notification sequence number in the outbox
+     * @return The highest sequence number, or null if the outbox is empty
+     */
+    @Query("SELECT MAX(o.seqNum) FROM OutboxMessage o")
+    Long findMaxSeqNum();
+    
+    /**
+     * Mark notifications delivered in one statement
+     * @param ids The outbox IDs
+     * @param deliveredAt The delivery time
+     * @return The number of rows updated
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxMessage o SET o.deliveredAt = :deliveredAt WHERE o.id IN :ids")
+    int markDelivered(@Param("ids") Collection<Long> ids, @Param("deliveredAt") Instant deliveredAt);
+    
+    /**
+     * Record a failed delivery attempt and when to try again
+     * @return The number of rows updated
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxMessage o SET o.attempts = o.attempts + 1, o.nextAttemptAt = :nextAttemptAt, "
+            + "o.lastError = :error WHERE o.id = :id")
+    int markFailed(@Param("id") Long id, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("error") String error);
+    
+    /**
+     * Record a failed attempt after which the notification is given up on
+     * @return The number of rows updated
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxMessage o SET o.attempts = o.attempts + 1, o.deadAt = :deadAt, o.lastError = :error "
+            + "WHERE o.id = :id")
+    int markDead(@Param("id") Long id, @Param("deadAt") Instant deadAt, @Param("error") String error);
+}
@@ -0,0 +1,14 @@
+package com.ups.repository;
+
+import com.ups.model.entity.PendingShipment;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface PendingShipmentRepository extends JpaRepository<PendingShipment, Long> {
+    Optional<PendingShipment> findByPackageId(Long packageId);
+    Optional<PendingShipment> findFirstByOrderByIdAsc();
+    List<PendingShipment> findByWarehouseIdOrderByIdAsc(Integer warehouseId);
+    long countByIdLessThan(Long id);
+}
@@ -1,12 +1,11 @@
 package com.ups.service;
 
-import com.ups.model.Location;
 import com.ups.model.entity.Package;
 import com.ups.model.entity.PackageStatus;
 import com.ups.model.entity.Truck;
 import com.ups.repository.PackageRepository;
 import com.ups.repository.TruckRepository;
-import com.ups.service.world.Ups;
+import com.ups.service.fleet.DeliveryPlanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,19 +24,19 @@ public class AmazonIntegrationService {
     
     private final PackageRepository packageRepository;
     private final TruckRepository truckRepository;
-    private final Ups ups;
     private final AmazonNotificationService amazonNotificationService;
+    private final DeliveryPlanner deliveryPlanner;
     
     @Autowired
     public AmazonIntegrationService(
             PackageRepository packageRepository,
             TruckRepository truckRepository,
-            Ups ups,
-            AmazonNotificationService amazonNotificationService) {
+            AmazonNotificationService amazonNotificationService,
+            DeliveryPlanner deliveryPlanner) {
         this.packageRepository = packageRepository;
         this.truckRepository = truckRepository;
-        this.ups = ups;
         this.amazonNotificationService = amazonNotificationService;
+        this.deliveryPlanner = deliveryPlanner;
     }
     
     /**
@@ -65,12 +64,10 @@ public class AmazonIntegrationService {
         pkg.setStatus(PackageStatus.LOADED);
         packageRepository.save(pkg);
         
-        // Send truck to deliver the package
-        Location destination = new Location(pkg.getDestinationX(), pkg.getDestinationY());
-        ups.sendTruckToDeliver(truck.getId(), packageId, destination);
+        // Checked once this commits: the truck leaves with every loaded package in one trip once the rest are on board
+        deliveryPlanner.packageLoaded(truck.getId());
         
-        logger.info("Package {} loaded on truck {} and sent for delivery to ({},{})", 
-                packageId, truck.getId(), destination.getX(), destination.getY());
+        logger.info("Package {} loaded on truck {}", packageId, truck.getId());
     }
     
     /**
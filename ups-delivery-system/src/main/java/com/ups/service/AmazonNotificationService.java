@@ -1,7 +1,9 @@
 package com.ups.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ups.model.MessageLog;
+import com.ups.model.OutboxMessage;
 import com.ups.model.amazon.NotifyTruckArrived;
 import com.ups.model.amazon.NotifyDeliveryComplete;
 import com.ups.model.amazon.UpdateShipmentStatus;
@@ -13,22 +15,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 
-import jakarta.annotation.PostConstruct;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service for sending notifications to Amazon about package and truck status
@@ -40,43 +37,32 @@ public class AmazonNotificationService {
     
     private final MessageTrackingService messageTrackingService;
     private final MessageLogRepository messageLogRepository;
-    private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final NotificationOutboxRelay outboxRelay;
     
-    // Cache for tracking responses to avoid duplicate processing
-    private final Map<Long, Object> responseCache = new ConcurrentHashMap<>();
+    // Unacknowledged messages are read this many at a time by the retry scan
+    private final int retryBatchSize;
     
-    // Maximum retry attempts for failed notifications
-    private static final int MAX_RETRY_ATTEMPTS = 3;
-    
-    // Retry delay in milliseconds
-    private static final long RETRY_DELAY_MS = 5000; // 5 seconds
-    
-    @Value("${amazon.service.url:http://amazon:8080}")
-    private String amazonServiceUrl;
+    public AmazonNotificationService(
+            MessageTrackingService messageTrackingService,
+            MessageLogRepository messageLogRepository,
+            ObjectMapper objectMapper,
+            NotificationOutboxRelay outboxRelay) {
+        this(messageTrackingService, messageLogRepository, objectMapper, outboxRelay, 500);
+    }
     
     @Autowired
     public AmazonNotificationService(
             MessageTrackingService messageTrackingService,
             MessageLogRepository messageLogRepository,
-            RestTemplate restTemplate,
-            ObjectMapper objectMapper) {
+            ObjectMapper objectMapper,
+            NotificationOutboxRelay outboxRelay,
+            @Value("${amazon.notification.retry.batch-size:500}") int retryBatchSize) {
         this.messageTrackingService = messageTrackingService;
         this.messageLogRepository = messageLogRepository;
-        this.restTemplate = restTemplate;
         this.objectMapper = objectMapper;
-    }
-    
-    @PostConstruct
-    public void init() {
-        logger.info("Initializing Amazon Notification Service with URL: {}", amazonServiceUrl);
-        
-        // Check if we have an environment variable that overrides the property
-        String envUrl = System.getenv("AMAZON_SERVICE_URL");
-        if (envUrl != null && !envUrl.trim().isEmpty()) {
-            logger.info("Using Amazon service URL from environment: {}", envUrl);
-            this.amazonServiceUrl = envUrl;
-        }
+        this.outboxRelay = outboxRelay;
+        this.retryBatchSize = Math.max(1, retryBatchSize);
     }
     
     /**
@@ -84,9 +70,9 @@ public class AmazonNotificationService {
      * @param pkg The package to pick up
      * @param truck The truck that arrived
      * @param warehouse The warehouse where the truck arrived
-     * @return The response from Amazon
+     * @return A future for the response from Amazon, completed once the outbox relay delivers it
      */
-    public ResponseEntity<?> notifyTruckArrival(Package pkg, Truck truck, Warehouse warehouse) {
+    public CompletableFuture<ResponseEntity<?>> notifyTruckArrival(Package pkg, Truck truck, Warehouse warehouse) {
         logger.info("Notifying Amazon about truck {} arrival at warehouse {} for package {}",
                 truck.getId(), warehouse.getId(), pkg.getId());
         
@@ -111,9 +97,9 @@ public class AmazonNotificationService {
      * Notify Amazon that a package has been delivered
      * @param pkg The delivered package
      * @param truck The truck that delivered the package
-     * @return The response from Amazon
+     * @return A future for the response from Amazon, completed once the outbox relay delivers it
      */
-    public ResponseEntity<?> notifyDeliveryComplete(Package pkg, Truck truck) {
+    public CompletableFuture<ResponseEntity<?>> notifyDeliveryComplete(Package pkg, Truck truck) {
         logger.info("Notifying Amazon about delivery completion for package {} by truck {}",
                 pkg.getId(), truck.getId());
         
@@ -145,9 +131,9 @@ public class AmazonNotificationService {
      * @param truck The truck (can be null)
      * @param status The status message
      * @param details Additional details about the status
-     * @return The response from Amazon
+     * @return A future for the response from Amazon, completed once the outbox relay delivers it
      */
-    public ResponseEntity<?> sendStatusUpdate(Package pkg, Truck truck, String status, String details) {
+    public CompletableFuture<ResponseEntity<?>> sendStatusUpdate(Package pkg, Truck truck, String status, String details) {
         logger.info("Sending status update to Amazon for package {}: {}", pkg.getId(), status);
         
         // Create the status update
@@ -179,67 +165,24 @@ public class AmazonNotificationService {
     }
     
     /**
-     * Send a notification to Amazon with retry logic
+     * Store a notification in the outbox, in the caller's transaction so it is only sent if the
+     * change it reports is committed. Never blocks on Amazon: the outbox relay sends it and retries it.
      * @param notification The notification to send
      * @param endpoint The API endpoint to send to
-     * @return The response from Amazon
+     * @return A future for the response from Amazon
      */
-    private ResponseEntity<?> sendNotification(Object notification, String endpoint) {
-        // Prepare HTTP headers
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        
-        // Extract sequence number for caching
+    private CompletableFuture<ResponseEntity<?>> sendNotification(Object notification, String endpoint) {
         Long seqNum = extractSeqNum(notification);
         
-        // Check cache for duplicate requests
-        if (responseCache.containsKey(seqNum)) {
-            logger.debug("Using cached response for notification with seq_num: {}", seqNum);
-            return (ResponseEntity<?>) responseCache.get(seqNum);
-        }
-        
-        // Implement retry logic
-        for (int attempt = 0; attempt < MAX_RETRY_ATTEMPTS; attempt++) {
-            try {
-                String url = amazonServiceUrl + endpoint;
-                
-                // Convert notification to JSON
-                String jsonBody = objectMapper.writeValueAsString(notification);
-                HttpEntity<String> requestEntity = new HttpEntity<>(jsonBody, headers);
-                
-                // Send the request
-                ResponseEntity<Object> response = restTemplate.postForEntity(url, requestEntity, Object.class);
-                
-                // Cache the response
-                responseCache.put(seqNum, response);
-                
-                // Mark message as acknowledged
-                messageTrackingService.acknowledgeMessage(seqNum);
-                
-                logger.info("Successfully sent notification to Amazon: {} (attempt {})", endpoint, attempt + 1);
-                return response;
-            } catch (Exception e) {
-                logger.warn("Failed to send notification to Amazon: {} (attempt {}): {}", 
-                        endpoint, attempt + 1, e.getMessage());
-                
-                // Wait before retrying
-                if (attempt < MAX_RETRY_ATTEMPTS - 1) {
-                    try {
-                        Thread.sleep(RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-            }
+        // Serialize now so later changes to the entities do not leak into the message
+        String jsonBody;
+        try {
+            jsonBody = objectMapper.writeValueAsString(notification);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
         }
         
-        // All retry attempts failed
-        logger.error("Failed to send notification to Amazon after {} attempts: {}", 
-                MAX_RETRY_ATTEMPTS, endpoint);
-        
-        throw new RestClientException("Failed to send notification to Amazon after " + 
-                MAX_RETRY_ATTEMPTS + " retry attempts");
+        return outboxRelay.enqueue(seqNum, notification.getClass().getSimpleName(), endpoint, jsonBody);
     }
     
     /**
@@ -259,131 +202,69 @@ public class AmazonNotificationService {
     }
     
     /**
-     * Clean up response cache periodically
-     */
-    @Scheduled(fixedRate = 3600000) // Once per hour
-    public void cleanupResponseCache() {
-        int size = responseCache.size();
-        logger.info("Cleaning up response cache, current size: {}", size);
-        
-        if (size > 1000) {
-            responseCache.clear();
-            logger.info("Response cache cleared due to size exceeding limit");
-        }
-    }
-    
-    /**
-     * Scheduled task to clean up old message logs
-     */
-    @Scheduled(cron = "0 0 2 * * *") // Run at 2:00 AM every day
-    public void cleanupOldMessageLogs() {
-        logger.info("Starting cleanup of old message logs");
-        
-        // Define the cutoff date (e.g., 7 days ago)
-        Instant cutoffDate = Instant.now().minus(7, ChronoUnit.DAYS);
-        
-        try {
-            // Find all message logs older than the cutoff date
-            List<MessageLog> oldLogs = messageLogRepository.findByTimestampBefore(cutoffDate);
-            
-            if (oldLogs.isEmpty()) {
-                logger.info("No old message logs to clean up");
-                return;
-            }
-            
-            logger.info("Found {} old message logs to clean up", oldLogs.size());
-            
-            // Delete the old logs
-            messageLogRepository.deleteAll(oldLogs);
-            
-            logger.info("Successfully cleaned up {} old message logs", oldLogs.size());
-        } catch (Exception e) {
-            logger.error("Error cleaning up old message logs", e);
-        }
-    }
-    
-    /**
-     * Retry failed notifications
+     * Reconcile unacknowledged notifications with the outbox: outgoing messages still unacknowledged after a
+     * minute and less than a day old, read a page at a time in one indexed query, with the outbox rows of
+     * each page read in one more. Notifications still in the outbox are left to the relay, which retries them.
      */
     @Scheduled(fixedRate = 60000) // Every minute
     public void retryFailedNotifications() {
-        List<String> unacknowledgedMessageIds = messageLogRepository.findUnacknowledgedMessageIds("OUTGOING");
-        if (unacknowledgedMessageIds.isEmpty()) {
-            logger.debug("No failed notifications to retry");
-            return;
-        }
-        
-        logger.info("Retrying {} failed notifications", unacknowledgedMessageIds.size());
+        Instant now = Instant.now();
+        Instant before = now.minus(Duration.ofMinutes(1));
+        Instant afterTimestamp = now.minus(Duration.ofHours(24));
+        long afterId = 0;
+        int acknowledged = 0;
         
-        for (String seqNumStr : unacknowledgedMessageIds) {
+        List<MessageLog> page;
+        do {
+            page = messageLogRepository.findUnacknowledgedPage("OUTGOING", afterTimestamp, afterId, before,
+                    PageRequest.of(0, retryBatchSize));
+            if (page.isEmpty()) {
+                break;
+            }
             try {
-                Long seqNum = Long.parseLong(seqNumStr);
-                MessageLog message = messageLogRepository.findBySeqNum(seqNum);
-                
-                if (message != null) {
-                    // Only retry messages that are older than 1 minute and less than 24 hours
-                    Instant now = Instant.now();
-                    long ageInMinutes = Duration.between(message.getTimestamp(), now).toMinutes();
-                    
-                    if (ageInMinutes < 1 || ageInMinutes > 24 * 60) {
-                        // Skip messages that are too new or too old
-                        continue;
-                    }
-                    
-                    logger.info("Retrying notification with seq_num: {}, type: {}, age: {} minutes", 
-                            seqNum, message.getMessageType(), ageInMinutes);
-                    
-                    // Handle different message types
-                    switch (message.getMessageType()) {
-                        case "NotifyTruckArrived":
-                            retryTruckArrivalNotification(message);
-                            break;
-                        case "NotifyDeliveryComplete":
-                            retryDeliveryCompleteNotification(message);
-                            break;
-                        case "UpdateShipmentStatus":
-                            retryStatusUpdateNotification(message);
-                            break;
-                        default:
-                            logger.warn("Unknown message type for retry: {}", message.getMessageType());
-                    }
-                }
+                acknowledged += reconcile(page);
             } catch (Exception e) {
-                logger.error("Error retrying notification with seq_num: {}", seqNumStr, e);
+                logger.error("Error reconciling {} unacknowledged notifications with the outbox", page.size(), e);
             }
+            MessageLog last = page.get(page.size() - 1);
+            afterTimestamp = last.getTimestamp();
+            afterId = last.getId();
+        } while (page.size() == retryBatchSize);
+        
+        if (acknowledged == 0) {
+            logger.debug("No unacknowledged notifications to reconcile");
+        } else {
+            logger.info("Acknowledged {} notifications from the outbox state", acknowledged);
         }
     }
     
     /**
-     * Retry a truck arrival notification
+     * Acknowledge the messages of a page that the outbox has delivered or has no copy of
+     * @return The number of messages acknowledged
      */
-    private void retryTruckArrivalNotification(MessageLog message) {
-        // Extract package and truck IDs from message content or related data
-        // This would require storing additional information in the message log
-        // or retrieving it from another source
+    private int reconcile(List<MessageLog> page) {
+        List<Long> seqNums = new ArrayList<>(page.size());
+        for (MessageLog message : page) {
+            seqNums.add(message.getSeqNum());
+        }
+        Map<Long, OutboxMessage> outbox = outboxRelay.findLatest(seqNums);
         
-        // For this implementation, we'll just mark it as acknowledged
-        // since we don't have the actual data to retry
-        messageTrackingService.acknowledgeMessage(message.getSeqNum());
-        logger.info("Marked truck arrival notification as acknowledged (no retry): {}", message.getSeqNum());
-    }
-    
-    /**
-     * Retry a delivery complete notification
-     */
-    private void retryDeliveryCompleteNotification(MessageLog message) {
-        // Similar to above, we would need the package and truck data
-        // For now, just mark as acknowledged
-        messageTrackingService.acknowledgeMessage(message.getSeqNum());
-        logger.info("Marked delivery notification as acknowledged (no retry): {}", message.getSeqNum());
-    }
-    
-    /**
-     * Retry a status update notification
-     */
-    private void retryStatusUpdateNotification(MessageLog message) {
-        // Similar to above
-        messageTrackingService.acknowledgeMessage(message.getSeqNum());
-        logger.info("Marked status update as acknowledged (no retry): {}", message.getSeqNum());
+        int acknowledged = 0;
+        for (MessageLog message : page) {
+            OutboxMessage row = outbox.get(message.getSeqNum());
+            if (row == null) {
+                // Sent before the outbox existed, so there is no payload to resend
+                logger.info("Marked {} as acknowledged (no stored payload to retry): {}",
+                        message.getMessageType(), message.getSeqNum());
+            } else if (row.getDeliveredAt() != null) {
+                logger.info("Marked {} as acknowledged (delivered, acknowledgement lost): {}",
+                        message.getMessageType(), message.getSeqNum());
+            } else {
+                continue;
+            }
+            messageTrackingService.acknowledgeMessage(message.getSeqNum());
+            acknowledged++;
+        }
+        return acknowledged;
     }
-}
\ No newline at end of file
+}
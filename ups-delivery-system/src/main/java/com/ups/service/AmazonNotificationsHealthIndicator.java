@@ -0,0 +1,37 @@
+package com.ups.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Health of the link to Amazon, shown as the amazonNotifications component of /actuator/health.
+ * An open circuit makes it DEGRADED rather than DOWN: notifications wait in the outbox and truck
+ * processing carries on, so the service itself is still healthy.
+ */
+@Component
+public class AmazonNotificationsHealthIndicator implements HealthIndicator {
+    
+    public static final Status DEGRADED = new Status("DEGRADED", "Amazon notifications are held in the outbox");
+    
+    private final NotificationOutboxRelay outboxRelay;
+    
+    @Autowired
+    public AmazonNotificationsHealthIndicator(NotificationOutboxRelay outboxRelay) {
+        this.outboxRelay = outboxRelay;
+    }
+    
+    @Override
+    public Health health() {
+        Map<String, CircuitBreaker.State> circuits = outboxRelay.getCircuitStates();
+        boolean allClosed = circuits.values().stream().allMatch(state -> state == CircuitBreaker.State.CLOSED);
+        return Health.status(allClosed ? Status.UP : DEGRADED)
+                .withDetail("circuits", circuits)
+                .withDetail("outboxBacklog", outboxRelay.getBacklog())
+                .build();
+    }
+}
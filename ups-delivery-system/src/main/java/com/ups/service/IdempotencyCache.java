@@ -0,0 +1,241 @@
+package com.ups.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ups.model.IdempotentResponse;
+import com.ups.repository.IdempotentResponseRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Responses already given to Amazon requests, by request sequence number, so a replayed request gets the
+ * same answer without being processed again.
+ * Responses are held in memory as serialized JSON in a segmented LRU: new entries go to a probation
+ * segment and move to the protected segment when read again, so a burst of one-off requests cannot push
+ * out the responses that are actually being replayed. Entries also expire after the TTL. Every response is
+ * written to a store as well, and a lookup that misses in memory falls back to it; RetentionService
+ * deletes stored responses once they are old enough.
+ */
+@Component
+public class IdempotencyCache {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyCache.class);
+
+    private final IdempotentResponseRepository responseRepository;
+    private final ObjectMapper objectMapper;
+    private final int probationCapacity;
+    private final int protectedCapacity;
+    private final long ttlMillis;
+
+    // Both segments in access order, eldest first; guarded by this
+    private final LinkedHashMap<Long, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter storeHits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    /**
+     * A cached response: its type and its JSON
+     */
+    private static final class Entry {
+        private final Class<?> type;
+        private final byte[] json;
+        private final long expiresAt;
+
+        Entry(Class<?> type, byte[] json, long expiresAt) {
+            this.type = type;
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public IdempotencyCache(IdempotentResponseRepository responseRepository, ObjectMapper objectMapper) {
+        this(responseRepository, objectMapper, new SimpleMeterRegistry(), 10000, 600000);
+    }
+
+    @Autowired
+    public IdempotencyCache(IdempotentResponseRepository responseRepository,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${amazon.idempotency.max-size:10000}") int maxSize,
+                            @Value("${amazon.idempotency.ttl-ms:600000}") long ttlMillis) {
+        this.responseRepository = responseRepository;
+        this.objectMapper = objectMapper;
+        int capacity = Math.max(2, maxSize);
+        this.protectedCapacity = capacity * 4 / 5;
+        this.probationCapacity = capacity - protectedCapacity;
+        this.ttlMillis = ttlMillis;
+
+        this.hits = lookups(meterRegistry, "hit");
+        this.storeHits = lookups(meterRegistry, "store_hit");
+        this.misses = lookups(meterRegistry, "miss");
+        this.evictions = Counter.builder("amazon.idempotency.evictions")
+                .description("Responses dropped from memory to make room")
+                .register(meterRegistry);
+        Gauge.builder("amazon.idempotency.size", this, IdempotencyCache::size)
+                .description("Responses held in memory")
+                .register(meterRegistry);
+        Gauge.builder("amazon.idempotency.bytes", this, IdempotencyCache::bytes)
+                .description("Serialized size of the responses held in memory")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("amazon.idempotency.lookups")
+                .description("Lookups of responses to replayed Amazon requests")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Remember the response to a request
+     * @param seqNum Sequence number of the request
+     * @param response The response returned for it
+     */
+    public void put(long seqNum, Object response) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(response);
+        } catch (Exception e) {
+            logger.error("Could not serialize response to seq_num {}, it will not be replayed", seqNum, e);
+            return;
+        }
+
+        try {
+            responseRepository.save(new IdempotentResponse(seqNum, response.getClass().getSimpleName(),
+                    new String(json, StandardCharsets.UTF_8), Instant.now()));
+        } catch (Exception e) {
+            // Still answered from memory while it is held there
+            logger.warn("Could not store response to seq_num {}: {}", seqNum, e.getMessage());
+        }
+
+        remember(seqNum, new Entry(response.getClass(), json, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Find the response given to a request
+     * @param seqNum Sequence number of the request
+     * @param type The response type the caller expects
+     * @return The response, or null if none of that type is known
+     */
+    public <T> T get(long seqNum, Class<T> type) {
+        Entry entry = lookup(seqNum);
+        if (entry != null) {
+            if (entry.type != type) {
+                misses.increment();
+                return null;
+            }
+            T response = read(seqNum, entry.json, type);
+            if (response != null) {
+                hits.increment();
+                return response;
+            }
+        }
+
+        // Not in memory: expired, evicted, or given before a restart
+        try {
+            Optional<IdempotentResponse> stored = responseRepository.findById(seqNum);
+            if (stored.isPresent() && type.getSimpleName().equals(stored.get().getResponseType())) {
+                byte[] json = stored.get().getBody().getBytes(StandardCharsets.UTF_8);
+                T response = read(seqNum, json, type);
+                if (response != null) {
+                    storeHits.increment();
+                    remember(seqNum, new Entry(type, json, System.currentTimeMillis() + ttlMillis));
+                    return response;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Could not look up stored response to seq_num {}: {}", seqNum, e.getMessage());
+        }
+        misses.increment();
+        return null;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private <T> T read(long seqNum, byte[] json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (Exception e) {
+            logger.warn("Could not read cached response to seq_num {}: {}", seqNum, e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void remember(long seqNum, Entry entry) {
+        Entry old = protectedSegment.remove(seqNum);
+        if (old == null) {
+            old = probation.remove(seqNum);
+        }
+        if (old != null) {
+            bytes -= old.json.length;
+        }
+        probation.put(seqNum, entry);
+        bytes += entry.json.length;
+        trimProbation();
+    }
+
+    private synchronized Entry lookup(long seqNum) {
+        long now = System.currentTimeMillis();
+        Entry entry = protectedSegment.get(seqNum);
+        if (entry != null) {
+            if (entry.expiresAt <= now) {
+                protectedSegment.remove(seqNum);
+                bytes -= entry.json.length;
+                return null;
+            }
+            return entry;
+        }
+
+        entry = probation.remove(seqNum);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= now) {
+            bytes -= entry.json.length;
+            return null;
+        }
+
+        // Read a second time: promote it, and demote the least recent protected entry if that is full
+        protectedSegment.put(seqNum, entry);
+        if (protectedSegment.size() > protectedCapacity) {
+            Iterator<Map.Entry<Long, Entry>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<Long, Entry> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+            trimProbation();
+        }
+        return entry;
+    }
+
+    private void trimProbation() {
+        Iterator<Map.Entry<Long, Entry>> eldest = probation.entrySet().iterator();
+        while (probation.size() > probationCapacity && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= evicted.json.length;
+            evictions.increment();
+        }
+    }
+}
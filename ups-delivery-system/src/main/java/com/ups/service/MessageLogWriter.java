@@ -0,0 +1,287 @@
+package com.ups.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes message log rows and acknowledgements in the background, so the Amazon API and notification
+ * paths do not wait for an insert and commit of their own.
+ * Entries go into a bounded ring buffer; one writer thread drains it and applies them as JDBC batches,
+ * inserts before acknowledgements. When the buffer is full the caller writes its entry itself.
+ * Each batch is applied in its own transaction; if it fails, its rows are written again one at a time so
+ * that one bad row loses only itself.
+ * Stopping the writer flushes whatever is still buffered.
+ */
+@Component
+public class MessageLogWriter {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLogWriter.class);
+
+    private static final String INSERT_SQL = "INSERT INTO message_logs "
+            + "(seq_num, message_type, direction, timestamp) VALUES (?, ?, ?, ?)";
+    // Acknowledgements are for messages UPS sent; an incoming message may share the seqnum
+    private static final String ACK_SQL = "UPDATE message_logs SET acknowledged = ? "
+            + "WHERE seq_num = ? AND direction = 'OUTGOING' AND acknowledged IS NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final BlockingQueue<Entry> buffer;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    private final Counter written;
+    private final Counter overflows;
+    private final Counter fallbacks;
+    private final Counter failures;
+
+    /**
+     * A row to insert, or an acknowledgement when direction is null
+     */
+    private static final class Entry {
+        private final long seqNum;
+        private final String messageType;
+        private final String direction;
+        private final Instant at;
+        private final long enqueuedNanos = System.nanoTime();
+
+        Entry(long seqNum, String messageType, String direction, Instant at) {
+            this.seqNum = seqNum;
+            this.messageType = messageType;
+            this.direction = direction;
+            this.at = at;
+        }
+    }
+
+    public MessageLogWriter(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, null, new SimpleMeterRegistry(), 8192, 100);
+    }
+
+    @Autowired
+    public MessageLogWriter(JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${amazon.messagelog.buffer-size:8192}") int bufferSize,
+                            @Value("${amazon.messagelog.batch-size:100}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionManager != null ? new TransactionTemplate(transactionManager) : null;
+        this.batchSize = Math.max(1, batchSize);
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+
+        this.written = Counter.builder("amazon.messagelog.written")
+                .description("Message log inserts and acknowledgements written")
+                .register(meterRegistry);
+        this.overflows = Counter.builder("amazon.messagelog.overflow")
+                .description("Message log entries written by the caller because the buffer was full")
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("amazon.messagelog.batch.fallback")
+                .description("Message log batches that failed and were written again row by row")
+                .register(meterRegistry);
+        this.failures = Counter.builder("amazon.messagelog.failed")
+                .description("Message log entries that could not be written, even on their own")
+                .register(meterRegistry);
+        Gauge.builder("amazon.messagelog.pending", buffer, BlockingQueue::size)
+                .description("Message log entries waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder("amazon.messagelog.writer.lag", this, MessageLogWriter::getLagMillis)
+                .description("Milliseconds the oldest buffered message log entry has waited")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the writer thread
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::runWriteLoop, "MessageLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Started message log writer (buffer {}, batch size {})",
+                buffer.remainingCapacity() + buffer.size(), batchSize);
+    }
+
+    /**
+     * Stop the writer thread after writing everything already buffered
+     */
+    @PreDestroy
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+
+        try {
+            thread.join(5000); // The loop drains the buffer before it exits
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for message log writer to stop");
+        }
+
+        // Anything the loop did not get to is written here
+        List<Entry> leftover = new ArrayList<>();
+        buffer.drainTo(leftover);
+        if (!leftover.isEmpty()) {
+            write(leftover);
+        }
+        logger.info("Stopped message log writer");
+    }
+
+    /**
+     * Queue a message log row
+     * @param seqNum The sequence number of the message
+     * @param messageType The type of message
+     * @param direction "OUTGOING" or "INCOMING"
+     * @param timestamp When the message was sent or received
+     */
+    public void append(long seqNum, String messageType, String direction, Instant timestamp) {
+        enqueue(new Entry(seqNum, messageType, direction, timestamp));
+    }
+
+    /**
+     * Queue the acknowledgement of an outgoing message
+     * @param seqNum The sequence number of the message
+     * @param acknowledgedAt When it was acknowledged
+     */
+    public void acknowledge(long seqNum, Instant acknowledgedAt) {
+        enqueue(new Entry(seqNum, null, null, acknowledgedAt));
+    }
+
+    /**
+     * Get how long the oldest buffered entry has waited, in milliseconds
+     */
+    public double getLagMillis() {
+        Entry oldest = buffer.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest.enqueuedNanos) / 1_000_000.0;
+    }
+
+    private void enqueue(Entry entry) {
+        if (running && buffer.offer(entry)) {
+            return;
+        }
+        // Not running, or the writer is behind: write on the caller's thread rather than drop it
+        if (running) {
+            overflows.increment();
+        }
+        write(List.of(entry));
+    }
+
+    /**
+     * Main loop: wait for an entry, then write it with whatever else is buffered, up to the batch size
+     */
+    private void runWriteLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+
+        while (running || !buffer.isEmpty()) {
+            try {
+                Entry first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Insert the rows, then apply the acknowledgements, each as one JDBC batch
+     */
+    private void write(List<Entry> batch) {
+        List<Entry> inserts = new ArrayList<>(batch.size());
+        List<Entry> acks = new ArrayList<>();
+        for (Entry entry : batch) {
+            if (entry.direction != null) {
+                inserts.add(entry);
+            } else {
+                acks.add(entry);
+            }
+        }
+
+        int lost = write(INSERT_SQL, inserts) + write(ACK_SQL, acks);
+        written.increment(batch.size() - lost);
+        failures.increment(lost);
+    }
+
+    /**
+     * Write entries as one batch, or one by one if the batch fails
+     * @return The number of entries that could not be written
+     */
+    private int write(String sql, List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> rows = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            rows.add(args(entry));
+        }
+        try {
+            // In a transaction, so a failed batch leaves nothing behind to be written twice
+            if (transactionTemplate == null) {
+                jdbcTemplate.batchUpdate(sql, rows);
+            } else {
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(sql, rows));
+            }
+            return 0;
+        } catch (Exception e) {
+            fallbacks.increment();
+            logger.warn("Failed to write a batch of {} message log entries, writing them one at a time: {}",
+                    entries.size(), e.getMessage());
+        }
+
+        int lost = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                jdbcTemplate.update(sql, rows.get(i));
+            } catch (Exception e) {
+                lost++;
+                logger.error("Failed to write message log entry for seq_num {}: {}",
+                        entries.get(i).seqNum, e.getMessage(), e);
+            }
+        }
+        return lost;
+    }
+
+    private static Object[] args(Entry entry) {
+        OffsetDateTime at = OffsetDateTime.ofInstant(entry.at, ZoneOffset.UTC);
+        if (entry.direction != null) {
+            return new Object[] {entry.seqNum, entry.messageType, entry.direction, at};
+        }
+        return new Object[] {at, entry.seqNum};
+    }
+}
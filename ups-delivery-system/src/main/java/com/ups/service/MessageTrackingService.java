@@ -2,21 +2,23 @@ package com.ups.service;
 
 import com.ups.model.MessageLog;
 import com.ups.repository.MessageLogRepository;
+import com.ups.repository.OutboxMessageRepository;
+import com.ups.util.SeqNumWindow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Service for tracking messages sent to and received from Amazon
+ * Service for tracking messages sent to and received from Amazon.
+ * Outgoing sequence numbers carry on from the highest one already logged or in the outbox, so a message
+ * from an earlier run is never mistaken for a new one with the same number.
  */
 @Service
 public class MessageTrackingService {
@@ -24,14 +26,44 @@ public class MessageTrackingService {
     private static final Logger logger = LoggerFactory.getLogger(MessageTrackingService.class);
     
     private final MessageLogRepository messageLogRepository;
+    private final MessageLogWriter messageLogWriter;
+    private final OutboxMessageRepository outboxMessageRepository;
     private final AtomicLong sequenceNumber = new AtomicLong(0);
     
-    // Cache for processed messages to avoid duplicate processing
-    private final Map<Long, Boolean> processedMessages = new ConcurrentHashMap<>();
+    // Seqnums of processed messages, to avoid duplicate processing. Amazon's seqnums increase, so the
+    // most recent ones are kept in a sliding bitset; anything older than the window counts as processed.
+    private final SeqNumWindow processedMessages;
+    
+    public MessageTrackingService(MessageLogRepository messageLogRepository, MessageLogWriter messageLogWriter) {
+        this(messageLogRepository, messageLogWriter, null, 65536);
+    }
     
     @Autowired
-    public MessageTrackingService(MessageLogRepository messageLogRepository) {
+    public MessageTrackingService(MessageLogRepository messageLogRepository,
+                                  MessageLogWriter messageLogWriter,
+                                  OutboxMessageRepository outboxMessageRepository,
+                                  @Value("${amazon.dedup.window:65536}") int dedupWindow) {
         this.messageLogRepository = messageLogRepository;
+        this.messageLogWriter = messageLogWriter;
+        this.outboxMessageRepository = outboxMessageRepository;
+        this.processedMessages = new SeqNumWindow(dedupWindow);
+    }
+    
+    /**
+     * Continue outgoing sequence numbers after the highest one used before this start
+     */
+    @PostConstruct
+    public void resumeSequence() {
+        long highest = orZero(messageLogRepository.findMaxSeqNum("OUTGOING"));
+        if (outboxMessageRepository != null) {
+            highest = Math.max(highest, orZero(outboxMessageRepository.findMaxSeqNum()));
+        }
+        sequenceNumber.accumulateAndGet(highest, Math::max);
+        logger.info("Outgoing sequence numbers continue after {}", highest);
+    }
+    
+    private static long orZero(Long value) {
+        return value == null ? 0 : value;
     }
     
     /**
@@ -43,53 +75,33 @@ public class MessageTrackingService {
     }
     
     /**
-     * Record an outgoing message
+     * Record an outgoing message; the log row is written in the background
      * @param seqNum The sequence number of the message
      * @param messageType The type of message
      */
     public void recordOutgoingMessage(long seqNum, String messageType) {
-        MessageLog log = new MessageLog();
-        log.setSeqNum(seqNum);
-        log.setMessageType(messageType);
-        log.setDirection("OUTGOING");
-        log.setTimestamp(Instant.now());
-        
-        messageLogRepository.save(log);
+        messageLogWriter.append(seqNum, messageType, "OUTGOING", Instant.now());
         logger.debug("Recorded outgoing message: type={}, seq={}", messageType, seqNum);
     }
     
     /**
-     * Record an incoming message
+     * Record an incoming message; the log row is written in the background
      * @param seqNum The sequence number of the message
      * @param messageType The type of message
      */
     public void recordIncomingMessage(long seqNum, String messageType) {
-        MessageLog log = new MessageLog();
-        log.setSeqNum(seqNum);
-        log.setMessageType(messageType);
-        log.setDirection("INCOMING");
-        log.setTimestamp(Instant.now());
-        
-        messageLogRepository.save(log);
+        messageLogWriter.append(seqNum, messageType, "INCOMING", Instant.now());
         logger.debug("Recorded incoming message: type={}, seq={}", messageType, seqNum);
     }
     
     /**
-     * Acknowledge a message
+     * Acknowledge an outgoing message. The update is batched with other log writes in the background,
+     * and an unknown or already acknowledged seqnum is left as it is.
      * @param seqNum The sequence number of the message to acknowledge
-     * @return true if the message was found and acknowledged, false otherwise
      */
-    public boolean acknowledgeMessage(long seqNum) {
-        MessageLog log = messageLogRepository.findBySeqNum(seqNum);
-        if (log != null) {
-            log.setAcknowledged(Instant.now());
-            messageLogRepository.save(log);
-            logger.debug("Acknowledged message with seq_num: {}", seqNum);
-            return true;
-        }
-        
-        logger.warn("Attempted to acknowledge unknown message with seq_num: {}", seqNum);
-        return false;
+    public void acknowledgeMessage(long seqNum) {
+        messageLogWriter.acknowledge(seqNum, Instant.now());
+        logger.debug("Acknowledged message with seq_num: {}", seqNum);
     }
     
     /**
@@ -106,7 +118,7 @@ public class MessageTrackingService {
      * @return true if the message has been processed, false otherwise
      */
     public boolean isMessageProcessed(Long seqNum) {
-        return processedMessages.containsKey(seqNum);
+        return seqNum != null && processedMessages.isSeen(seqNum);
     }
     
     /**
@@ -115,38 +127,12 @@ public class MessageTrackingService {
      * @param messageType The type of message
      */
     public void markMessageProcessed(Long seqNum, String messageType) {
-        processedMessages.put(seqNum, Boolean.TRUE);
+        if (seqNum != null) {
+            processedMessages.markSeen(seqNum);
+        }
         logger.debug("Marked message as processed: {} with seq_num: {}", messageType, seqNum);
         
         // Also record this as an incoming message
         recordIncomingMessage(seqNum, messageType);
     }
-    
-    /**
-     * Clean up old message logs
-     */
-    @Scheduled(cron = "0 0 0 * * *") // Run at midnight every day
-    public void cleanupOldLogs() {
-        // Delete logs older than 7 days
-        Instant cutoff = Instant.now().minus(7, ChronoUnit.DAYS);
-        List<MessageLog> oldLogs = messageLogRepository.findByTimestampBefore(cutoff);
-        
-        if (!oldLogs.isEmpty()) {
-            messageLogRepository.deleteAll(oldLogs);
-            logger.info("Cleaned up {} old message logs", oldLogs.size());
-        }
-    }
-    
-    /**
-     * Clean up the processed messages cache
-     */
-    @Scheduled(fixedRate = 3600000) // Run every hour
-    public void cleanupProcessedMessagesCache() {
-        int size = processedMessages.size();
-        if (size > 10000) {
-            logger.info("Cleaning up processed messages cache, size before: {}", size);
-            processedMessages.clear();
-            logger.info("Processed messages cache cleared");
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,675 @@
+package com.ups.service;
+
+import com.ups.model.OutboxMessage;
+import com.ups.repository.OutboxMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the notification outbox to Amazon.
+ * Notifications are stored as outbox rows in the caller's transaction, so one is only sent if the change it
+ * reports was committed, and one that was committed is sent eventually, across restarts (at least once).
+ * The relay reads undelivered rows in ID order in batches. Rows for one endpoint are sent one after another,
+ * and a row that fails holds back the later rows for its endpoint until its backoff has passed; different
+ * endpoints go out in parallel. Delivered rows are marked with one update per batch.
+ * A row Amazon refuses with a client error, or one that has failed dead-after-attempts times, is marked dead:
+ * it is not sent again and no longer holds back its endpoint.
+ * In batch mode consecutive rows for an endpoint go out as one JSON array POST to the endpoint's /batch path,
+ * and a pass waits briefly after a commit so that more updates can join; an endpoint that answers a batch
+ * with 404, 405 or 415 is sent single notifications from then on. A batch refused with another client
+ * error is sent again one notification at a time, so only the notification at fault is held up.
+ * Each endpoint has a circuit breaker: while it is open nothing is sent to that endpoint, its notifications
+ * wait in the outbox without using up attempts, and callers are told at once. A bulkhead caps the POSTs in
+ * flight to Amazon below the number of workers: a send waits for a permit, and one that does not get a
+ * permit in time is left in the outbox for the next sweep.
+ */
+@Component
+public class NotificationOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationOutboxRelay.class);
+
+    // Answers from a receiver that has no batch endpoint
+    private static final Set<Integer> BATCH_UNSUPPORTED = Set.of(404, 405, 415);
+
+    // Client errors that may pass on a later attempt; any other means Amazon will not take the notification
+    private static final Set<Integer> RETRYABLE_CLIENT_ERRORS = Set.of(408, 425, 429);
+
+    private final OutboxMessageRepository outboxMessageRepository;
+    private final MessageTrackingService messageTrackingService;
+    private final RestTemplate restTemplate;
+
+    // Attempts before the caller's future fails (the row keeps retrying), and the backoff bounds
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final long maxBackoffMillis;
+    private final int batchSize;
+    private final long sweepMillis;
+
+    // Batch mode: notifications per array POST, and how long a commit waits for more to join
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final long batchLingerMillis;
+
+    // Endpoints whose receiver does not take batches
+    private final Set<String> singleOnly = ConcurrentHashMap.newKeySet();
+
+    // A circuit breaker per endpoint, and the bulkhead shared by all of them
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final int failureThreshold;
+    private final long circuitOpenMillis;
+    private final Semaphore bulkhead;
+    private final MeterRegistry meterRegistry;
+
+    // One pass over the outbox at a time; the workers send each endpoint's rows
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+
+    // Set while a pass is waiting to run, so a burst of commits triggers one pass
+    private final AtomicBoolean runRequested = new AtomicBoolean();
+
+    // Commits since the last pass, and whether a lingering pass is already scheduled
+    private final AtomicInteger committedSinceRun = new AtomicInteger();
+    private final AtomicBoolean lingering = new AtomicBoolean();
+
+    // Callers waiting for their notification in this process, by outbox ID
+    private final Map<Long, CompletableFuture<ResponseEntity<?>>> waiting = new ConcurrentHashMap<>();
+
+    // Undelivered rows seen by the last pass
+    private final AtomicInteger backlog = new AtomicInteger();
+
+    private final Counter delivered;
+    private final Counter failed;
+    private final Counter dead;
+    private final Counter batches;
+    private final Counter shortCircuited;
+    private final Counter bulkheadRejected;
+    private final Timer sendTime;
+
+    @Value("${amazon.service.url:http://amazon:8080}")
+    private String amazonServiceUrl;
+
+    // How long a send waits for a bulkhead permit before it is left for the next sweep
+    @Value("${amazon.notification.bulkhead-wait-ms:5000}")
+    private long bulkheadWaitMillis = 5000;
+
+    // Failed attempts after which a row is given up on
+    @Value("${amazon.outbox.dead-after-attempts:20}")
+    private int deadAfterAttempts = 20;
+
+    public NotificationOutboxRelay(
+            OutboxMessageRepository outboxMessageRepository,
+            MessageTrackingService messageTrackingService,
+            RestTemplate restTemplate,
+            MeterRegistry meterRegistry,
+            int workerCount,
+            int maxAttempts,
+            long retryDelayMillis,
+            long maxBackoffMillis,
+            int batchSize,
+            long sweepMillis) {
+        this(outboxMessageRepository, messageTrackingService, restTemplate, meterRegistry, workerCount, maxAttempts,
+                retryDelayMillis, maxBackoffMillis, batchSize, sweepMillis, false, 50, 20, 5, 30000, 2);
+    }
+
+    @Autowired
+    public NotificationOutboxRelay(
+            OutboxMessageRepository outboxMessageRepository,
+            MessageTrackingService messageTrackingService,
+            RestTemplate restTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${amazon.notification.workers:4}") int workerCount,
+            @Value("${amazon.notification.max-attempts:3}") int maxAttempts,
+            @Value("${amazon.notification.retry-delay-ms:5000}") long retryDelayMillis,
+            @Value("${amazon.outbox.max-backoff-ms:300000}") long maxBackoffMillis,
+            @Value("${amazon.outbox.batch-size:100}") int batchSize,
+            @Value("${amazon.outbox.sweep-ms:1000}") long sweepMillis,
+            @Value("${amazon.notification.batch.enabled:false}") boolean batchEnabled,
+            @Value("${amazon.notification.batch.max-size:50}") int batchMaxSize,
+            @Value("${amazon.notification.batch.linger-ms:20}") long batchLingerMillis,
+            @Value("${amazon.notification.circuit.failure-threshold:5}") int failureThreshold,
+            @Value("${amazon.notification.circuit.open-ms:30000}") long circuitOpenMillis,
+            @Value("${amazon.notification.max-in-flight:2}") int maxInFlight) {
+        this.outboxMessageRepository = outboxMessageRepository;
+        this.messageTrackingService = messageTrackingService;
+        this.restTemplate = restTemplate;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.sweepMillis = sweepMillis;
+        this.batchEnabled = batchEnabled;
+        this.batchMaxSize = Math.max(1, batchMaxSize);
+        this.batchLingerMillis = batchLingerMillis;
+        this.failureThreshold = failureThreshold;
+        this.circuitOpenMillis = circuitOpenMillis;
+        this.bulkhead = new Semaphore(Math.max(1, maxInFlight));
+        if (maxInFlight >= workerCount) {
+            // Only the workers post, so the bulkhead would never turn one away
+            logger.warn("amazon.notification.max-in-flight ({}) is not below amazon.notification.workers ({}); "
+                    + "the in-flight limit will never be reached", maxInFlight, workerCount);
+        }
+        this.meterRegistry = meterRegistry;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OutboxRelay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), r -> {
+            Thread thread = new Thread(r, "AmazonNotifier-" + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("amazon.outbox.backlog", backlog, AtomicInteger::get)
+                .description("Undelivered notifications in the outbox at the last relay pass")
+                .register(meterRegistry);
+        this.delivered = Counter.builder("amazon.outbox.delivered")
+                .description("Notifications accepted by Amazon")
+                .register(meterRegistry);
+        this.failed = Counter.builder("amazon.notification.failed")
+                .description("Notifications that failed a delivery attempt")
+                .register(meterRegistry);
+        this.dead = Counter.builder("amazon.outbox.dead")
+                .description("Notifications given up on after a refusal or too many failed attempts")
+                .register(meterRegistry);
+        this.batches = Counter.builder("amazon.notification.batches")
+                .description("Batched notification POSTs to Amazon")
+                .register(meterRegistry);
+        this.shortCircuited = Counter.builder("amazon.notification.circuit.rejected")
+                .description("Sends skipped because the endpoint's circuit was open")
+                .register(meterRegistry);
+        this.bulkheadRejected = Counter.builder("amazon.notification.bulkhead.rejected")
+                .description("Sends put off because no in-flight permit freed up in time")
+                .register(meterRegistry);
+        int inFlightLimit = Math.max(1, maxInFlight);
+        Gauge.builder("amazon.notification.in-flight", bulkhead, b -> inFlightLimit - b.availablePermits())
+                .description("Notification POSTs to Amazon in flight")
+                .register(meterRegistry);
+        this.sendTime = Timer.builder("amazon.notification.send")
+                .description("Time for one notification POST to Amazon")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        logger.info("Initializing notification outbox relay with URL: {}", amazonServiceUrl);
+
+        // Check if we have an environment variable that overrides the property
+        String envUrl = System.getenv("AMAZON_SERVICE_URL");
+        if (envUrl != null && !envUrl.trim().isEmpty()) {
+            logger.info("Using Amazon service URL from environment: {}", envUrl);
+            this.amazonServiceUrl = envUrl;
+        }
+
+        // The sweep sends rows left from before a restart and rows whose backoff has passed
+        scheduler.scheduleWithFixedDelay(this::requestRun, 0, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sending; undelivered rows stay in the outbox for the next start
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        scheduler.shutdown();
+        if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+            scheduler.shutdownNow();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Store a notification in the outbox, in the caller's transaction if there is one.
+     * The relay is woken once the transaction commits; a rollback discards the notification.
+     * @param seqNum The sequence number of the notification
+     * @param messageType The notification type
+     * @param endpoint The API endpoint to send to
+     * @param payload The notification as JSON
+     * @return A future for the response from Amazon
+     */
+    public CompletableFuture<ResponseEntity<?>> enqueue(Long seqNum, String messageType, String endpoint, String payload) {
+        OutboxMessage row = outboxMessageRepository.save(
+                new OutboxMessage(seqNum, messageType, endpoint, payload, Instant.now()));
+        Long id = row.getId();
+        CompletableFuture<ResponseEntity<?>> result = new CompletableFuture<>();
+        waiting.put(id, result);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed();
+            return result;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    committed();
+                } else if (waiting.remove(id) != null) {
+                    result.completeExceptionally(
+                            new RestClientException("Notification " + seqNum + " rolled back with its transaction"));
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Find the outbox copies of a set of notifications in one query
+     * @param seqNums The sequence numbers of the notifications
+     * @return The latest outbox row for each sequence number that has one
+     */
+    public Map<Long, OutboxMessage> findLatest(Collection<Long> seqNums) {
+        Map<Long, OutboxMessage> latest = new HashMap<>();
+        if (seqNums.isEmpty()) {
+            return latest;
+        }
+        for (OutboxMessage row : outboxMessageRepository.findBySeqNumIn(seqNums)) {
+            latest.merge(row.getSeqNum(), row, (a, b) -> a.getId() > b.getId() ? a : b);
+        }
+        return latest;
+    }
+
+    /**
+     * The state of each endpoint's circuit breaker
+     */
+    public Map<String, CircuitBreaker.State> getCircuitStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<>();
+        breakers.forEach((endpoint, breaker) -> states.put(endpoint, breaker.getState()));
+        return states;
+    }
+
+    /**
+     * Undelivered notifications in the outbox at the last pass
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    private CircuitBreaker breaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint, name -> {
+            CircuitBreaker breaker = new CircuitBreaker(failureThreshold, circuitOpenMillis);
+            Gauge.builder("amazon.notification.circuit.state", breaker, b -> b.getState().ordinal())
+                    .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            Gauge.builder("amazon.notification.circuit.opened", breaker, CircuitBreaker::getTimesOpened)
+                    .description("Times the circuit breaker has opened")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            return breaker;
+        });
+    }
+
+    /**
+     * Schedule a pass over the outbox unless one is already waiting to run
+     */
+    public void requestRun() {
+        if (runRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::run);
+            } catch (RuntimeException e) {
+                // Shutting down; the rows are sent after the next start
+                runRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Wake the relay for a committed notification. In batch mode wait up to the linger time for more,
+     * unless a full batch is already waiting.
+     */
+    private void committed() {
+        if (!batchEnabled || committedSinceRun.incrementAndGet() >= batchMaxSize) {
+            requestRun();
+            return;
+        }
+        if (lingering.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(() -> {
+                    lingering.set(false);
+                    requestRun();
+                }, batchLingerMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // Shutting down; the rows are sent after the next start
+                lingering.set(false);
+            }
+        }
+    }
+
+    private void run() {
+        runRequested.set(false);
+        committedSinceRun.set(0);
+        try {
+            Instant now = Instant.now();
+            // Endpoints with an earlier row that is not delivered yet; their later rows must wait
+            Set<String> heldBack = ConcurrentHashMap.newKeySet();
+            int undelivered = 0;
+            long afterId = 0;
+            while (true) {
+                List<OutboxMessage> batch = outboxMessageRepository.findUndeliveredAfter(afterId,
+                        PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                afterId = batch.get(batch.size() - 1).getId();
+                undelivered += batch.size();
+                undelivered -= sendBatch(batch, now, heldBack);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+            backlog.set(undelivered);
+        } catch (Exception e) {
+            // The rows stay undelivered; the next sweep tries again
+            logger.error("Failed to relay notification outbox: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Send the due rows of one batch and mark the delivered ones
+     * @return The number of rows delivered
+     */
+    private int sendBatch(List<OutboxMessage> batch, Instant now, Set<String> heldBack) {
+        // Rows per endpoint in ID order, up to the first one still in backoff
+        Map<String, List<OutboxMessage>> byEndpoint = new LinkedHashMap<>();
+        for (OutboxMessage row : batch) {
+            if (heldBack.contains(row.getEndpoint())) {
+                continue;
+            }
+            if (row.getNextAttemptAt() != null && row.getNextAttemptAt().isAfter(now)) {
+                heldBack.add(row.getEndpoint());
+                continue;
+            }
+            byEndpoint.computeIfAbsent(row.getEndpoint(), endpoint -> new ArrayList<>()).add(row);
+        }
+
+        ConcurrentLinkedQueue<Sent> sent = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        for (List<OutboxMessage> rows : byEndpoint.values()) {
+            sends.add(CompletableFuture.runAsync(() -> sendInOrder(rows, sent, heldBack), workers));
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+        if (sent.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> ids = new ArrayList<>(sent.size());
+        for (Sent done : sent) {
+            ids.add(done.row.getId());
+        }
+        Collections.sort(ids);
+        outboxMessageRepository.markDelivered(ids, Instant.now());
+        delivered.increment(ids.size());
+
+        for (Sent done : sent) {
+            messageTrackingService.acknowledgeMessage(done.row.getSeqNum());
+            CompletableFuture<ResponseEntity<?>> result = waiting.remove(done.row.getId());
+            if (result != null) {
+                result.complete(done.response);
+            }
+        }
+        return ids.size();
+    }
+
+    /**
+     * POST one endpoint's rows in order, stopping at the first failure
+     */
+    private void sendInOrder(List<OutboxMessage> rows, ConcurrentLinkedQueue<Sent> sent, Set<String> heldBack) {
+        String endpoint = rows.get(0).getEndpoint();
+        CircuitBreaker breaker = breaker(endpoint);
+        int next = 0;
+        // Rows before this index are sent singly after their batch was refused
+        int singlyUntil = 0;
+        while (next < rows.size()) {
+            int end = Math.min(rows.size(), next + batchMaxSize);
+            if (batchEnabled && end - next > 1 && next >= singlyUntil && !singleOnly.contains(endpoint)) {
+                List<OutboxMessage> chunk = rows.subList(next, end);
+                try {
+                    ResponseEntity<Object> response = post(breaker, endpoint + "/batch", toJsonArray(chunk));
+                    batches.increment();
+                    logger.info("Successfully sent {} notifications to Amazon: {}", chunk.size(), endpoint);
+                    for (OutboxMessage row : chunk) {
+                        sent.add(new Sent(row, response));
+                    }
+                    next = end;
+                } catch (HttpClientErrorException e) {
+                    if (BATCH_UNSUPPORTED.contains(e.getStatusCode().value())) {
+                        // Resend these rows one at a time, and every later one for this endpoint
+                        logger.warn("Amazon does not accept batches on {} ({}), sending single notifications",
+                                endpoint, e.getStatusCode());
+                        singleOnly.add(endpoint);
+                    } else {
+                        // Something in the batch was refused; resend just these rows one at a time
+                        logger.warn("Amazon refused a batch of {} notifications on {} ({}), sending them singly",
+                                chunk.size(), endpoint, e.getStatusCode());
+                        singlyUntil = end;
+                    }
+                } catch (NotSentException e) {
+                    putOff(rows.subList(next, rows.size()), e, heldBack);
+                    return;
+                } catch (Exception e) {
+                    failAll(chunk, e, heldBack);
+                    return;
+                }
+                continue;
+            }
+
+            OutboxMessage row = rows.get(next);
+            try {
+                ResponseEntity<Object> response = post(breaker, endpoint, row.getPayload());
+                logger.info("Successfully sent notification to Amazon: {} (attempt {})",
+                        endpoint, row.getAttempts() + 1);
+                sent.add(new Sent(row, response));
+                next++;
+            } catch (NotSentException e) {
+                putOff(rows.subList(next, rows.size()), e, heldBack);
+                return;
+            } catch (Exception e) {
+                if (!recordFailure(row, e)) {
+                    heldBack.add(endpoint);
+                    return;
+                }
+                // Dead; the endpoint's later rows go on without it
+                next++;
+            }
+        }
+    }
+
+    /**
+     * POST through the bulkhead and the endpoint's circuit breaker
+     * @throws NotSentException if either refused the call; nothing was sent
+     */
+    private ResponseEntity<Object> post(CircuitBreaker breaker, String path, String body) {
+        try {
+            if (!bulkhead.tryAcquire(bulkheadWaitMillis, TimeUnit.MILLISECONDS)) {
+                bulkheadRejected.increment();
+                throw new NotSentException("Too many notifications in flight to Amazon", false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotSentException("Interrupted waiting to send to Amazon", false);
+        }
+        try {
+            if (!breaker.tryAcquire()) {
+                shortCircuited.increment();
+                throw new NotSentException("Circuit open for " + path + ", notification kept in the outbox", true);
+            }
+            long start = System.nanoTime();
+            try {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                HttpEntity<String> requestEntity = new HttpEntity<>(body, headers);
+
+                // Send the request
+                ResponseEntity<Object> response = restTemplate.postForEntity(amazonServiceUrl + path,
+                        requestEntity, Object.class);
+                breaker.onSuccess();
+                return response;
+            } catch (HttpClientErrorException e) {
+                // Amazon is up and answered; the request itself was refused
+                breaker.onSuccess();
+                throw e;
+            } catch (RuntimeException e) {
+                breaker.onFailure();
+                if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                    logger.warn("Circuit for {} is open after a failure: {}", path, e.getMessage());
+                }
+                throw e;
+            } finally {
+                sendTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Leave rows in the outbox for a later pass without counting an attempt.
+     * While the circuit is open their callers are told now rather than left waiting out the outage.
+     */
+    private void putOff(List<OutboxMessage> rows, NotSentException e, Set<String> heldBack) {
+        heldBack.add(rows.get(0).getEndpoint());
+        if (!e.circuitOpen) {
+            return;
+        }
+        for (OutboxMessage row : rows) {
+            CompletableFuture<ResponseEntity<?>> result = waiting.remove(row.getId());
+            if (result != null) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Join stored notifications into a JSON array without parsing them again
+     */
+    private static String toJsonArray(List<OutboxMessage> rows) {
+        StringBuilder json = new StringBuilder("[");
+        for (OutboxMessage row : rows) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(row.getPayload());
+        }
+        return json.append(']').toString();
+    }
+
+    private void failAll(List<OutboxMessage> rows, Exception e, Set<String> heldBack) {
+        boolean retrying = false;
+        for (OutboxMessage row : rows) {
+            retrying |= !recordFailure(row, e);
+        }
+        if (retrying) {
+            heldBack.add(rows.get(0).getEndpoint());
+        }
+    }
+
+    /**
+     * Record a failed attempt, or mark the row dead if Amazon refused it or it has failed too often
+     * @return true if the row is dead
+     */
+    private boolean recordFailure(OutboxMessage row, Exception e) {
+        failed.increment();
+        int attempts = row.getAttempts() + 1;
+        String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        error = error.length() > 500 ? error.substring(0, 500) : error;
+
+        boolean refused = e instanceof HttpClientErrorException clientError
+                && !RETRYABLE_CLIENT_ERRORS.contains(clientError.getStatusCode().value());
+        if (refused || attempts >= deadAfterAttempts) {
+            logger.error("Giving up on notification {} to {} after {} attempts: {}",
+                    row.getSeqNum(), row.getEndpoint(), attempts, error);
+            outboxMessageRepository.markDead(row.getId(), Instant.now(), error);
+            dead.increment();
+            CompletableFuture<ResponseEntity<?>> result = waiting.remove(row.getId());
+            if (result != null) {
+                result.completeExceptionally(new RestClientException("Amazon did not accept notification "
+                        + row.getSeqNum() + " after " + attempts + " attempts", e));
+            }
+            return true;
+        }
+
+        // Doubling backoff, capped so a long outage is still retried regularly
+        long backoff = Math.min(maxBackoffMillis, retryDelayMillis << Math.min(attempts - 1, 20));
+        logger.warn("Failed to send notification to Amazon: {} (attempt {}), retrying in {} ms: {}",
+                row.getEndpoint(), attempts, backoff, e.getMessage());
+
+        outboxMessageRepository.markFailed(row.getId(), Instant.now().plusMillis(backoff), error);
+
+        if (attempts >= maxAttempts) {
+            CompletableFuture<ResponseEntity<?>> result = waiting.remove(row.getId());
+            if (result != null) {
+                logger.error("Failed to send notification to Amazon after {} attempts, still retrying: {}",
+                        attempts, row.getEndpoint());
+                result.completeExceptionally(new RestClientException("Failed to send notification to Amazon after " +
+                        attempts + " retry attempts", e));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A row Amazon accepted in this pass
+     */
+    private static final class Sent {
+        private final OutboxMessage row;
+        private final ResponseEntity<?> response;
+
+        Sent(OutboxMessage row, ResponseEntity<?> response) {
+            this.row = row;
+            this.response = response;
+        }
+    }
+
+    /**
+     * A send refused by the circuit breaker or the bulkhead before anything went out
+     */
+    private static final class NotSentException extends RestClientException {
+        private final boolean circuitOpen;
+
+        NotSentException(String message, boolean circuitOpen) {
+            super(message);
+            this.circuitOpen = circuitOpen;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.ups.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Deletes message logs, stored Amazon responses and delivered outbox notifications past their retention period.
+ * Rows are deleted in the database in chunks of a fixed size, each its own short statement, instead of
+ * being loaded as entities and deleted one by one, so a large backlog neither fills the heap nor holds
+ * long locks. Rows and chunks deleted are counted per table.
+ */
+@Service
+public class RetentionService {
+    private static final Logger logger = LoggerFactory.getLogger(RetentionService.class);
+
+    static final String MESSAGE_LOGS = "message_logs";
+    static final String IDEMPOTENT_RESPONSES = "idempotent_responses";
+    static final String NOTIFICATION_OUTBOX = "notification_outbox";
+
+    private static final String DELETE_MESSAGE_LOGS = "DELETE FROM message_logs WHERE id IN "
+            + "(SELECT id FROM message_logs WHERE timestamp < ? ORDER BY id LIMIT ?)";
+    private static final String DELETE_IDEMPOTENT_RESPONSES = "DELETE FROM idempotent_responses WHERE seq_num IN "
+            + "(SELECT seq_num FROM idempotent_responses WHERE created_at < ? ORDER BY seq_num LIMIT ?)";
+    // Notifications still being sent have neither delivered_at nor dead_at and are never matched
+    private static final String DELETE_DELIVERED_OUTBOX = "DELETE FROM notification_outbox WHERE id IN "
+            + "(SELECT id FROM notification_outbox WHERE COALESCE(delivered_at, dead_at) < ? ORDER BY id LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Duration messageLogRetention;
+    private final Duration responseRetention;
+    private final Duration outboxRetention;
+    private final int chunkSize;
+
+    public RetentionService(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new SimpleMeterRegistry(), 7, 86400000, 7, 10000);
+    }
+
+    @Autowired
+    public RetentionService(JdbcTemplate jdbcTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${amazon.retention.message-log-days:7}") int messageLogDays,
+                            @Value("${amazon.idempotency.store-retention-ms:86400000}") long responseRetentionMillis,
+                            @Value("${amazon.retention.outbox-days:7}") int outboxDays,
+                            @Value("${amazon.retention.chunk-size:10000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.messageLogRetention = Duration.ofDays(messageLogDays);
+        this.responseRetention = Duration.ofMillis(responseRetentionMillis);
+        this.outboxRetention = Duration.ofDays(outboxDays);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Scheduled task to delete everything past its retention period
+     */
+    @Scheduled(cron = "${amazon.retention.cron:0 0 * * * *}") // Every hour by default
+    public void purgeExpired() {
+        Instant now = Instant.now();
+        purge(MESSAGE_LOGS, DELETE_MESSAGE_LOGS, now.minus(messageLogRetention));
+        purge(IDEMPOTENT_RESPONSES, DELETE_IDEMPOTENT_RESPONSES, now.minus(responseRetention));
+        purge(NOTIFICATION_OUTBOX, DELETE_DELIVERED_OUTBOX, now.minus(outboxRetention));
+    }
+
+    /**
+     * Delete message logs older than a cutoff
+     * @return The number of rows deleted
+     */
+    public long purgeMessageLogs(Instant cutoff) {
+        return purge(MESSAGE_LOGS, DELETE_MESSAGE_LOGS, cutoff);
+    }
+
+    /**
+     * Delete stored Amazon responses older than a cutoff
+     * @return The number of rows deleted
+     */
+    public long purgeIdempotentResponses(Instant cutoff) {
+        return purge(IDEMPOTENT_RESPONSES, DELETE_IDEMPOTENT_RESPONSES, cutoff);
+    }
+
+    /**
+     * Delete outbox notifications delivered or given up on before a cutoff; ones still being sent are kept
+     * however old
+     * @return The number of rows deleted
+     */
+    public long purgeDeliveredOutbox(Instant cutoff) {
+        return purge(NOTIFICATION_OUTBOX, DELETE_DELIVERED_OUTBOX, cutoff);
+    }
+
+    /**
+     * Delete chunk after chunk until one comes back short
+     */
+    private long purge(String table, String deleteSql, Instant cutoff) {
+        Counter rows = meterRegistry.counter("amazon.retention.deleted", "table", table);
+        Counter chunks = meterRegistry.counter("amazon.retention.chunks", "table", table);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        OffsetDateTime before = OffsetDateTime.ofInstant(cutoff, ZoneOffset.UTC);
+
+        long total = 0;
+        try {
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update(deleteSql, before, chunkSize);
+                total += deleted;
+                rows.increment(deleted);
+                chunks.increment();
+                if (deleted > 0) {
+                    logger.debug("Deleted {} rows from {} ({} so far)", deleted, table, total);
+                }
+            } while (deleted >= chunkSize);
+
+            if (total > 0) {
+                logger.info("Deleted {} rows from {} older than {}", total, table, cutoff);
+            }
+        } catch (Exception e) {
+            // Chunks already deleted stay deleted; the next run carries on from there
+            logger.error("Error deleting old rows from {} after {} rows", table, total, e);
+        } finally {
+            sample.stop(meterRegistry.timer("amazon.retention.duration", "table", table));
+        }
+        return total;
+    }
+}
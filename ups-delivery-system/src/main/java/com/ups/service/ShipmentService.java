@@ -3,6 +3,7 @@ package com.ups.service;
 
 import com.ups.model.amazon.CreateShipmentRequest;
 import com.ups.model.amazon.CreateShipmentResponse;
+import com.ups.model.entity.PendingShipment;
 
 /**
  * Service interface for handling shipment-related operations
@@ -15,4 +16,19 @@ public interface ShipmentService {
      * @return The response to send back to Amazon
      */
     CreateShipmentResponse processShipmentRequest(CreateShipmentRequest request);
+    
+    /**
+     * Put a queued shipment on a truck if one is free, and take it off the queue
+     * @param pending The queued shipment
+     * @param joinOnly Only join a trip already bound for the warehouse, without claiming an idle truck
+     * @return true if the shipment was dispatched, false if it has to keep waiting for a truck
+     */
+    boolean dispatchQueued(PendingShipment pending, boolean joinOnly);
+    
+    /**
+     * Take a queued shipment that can never be dispatched off the queue and tell Amazon it was rejected
+     * @param pending The queued shipment
+     * @param reason Why it cannot be dispatched
+     */
+    void rejectQueued(PendingShipment pending, String reason);
 }
\ No newline at end of file
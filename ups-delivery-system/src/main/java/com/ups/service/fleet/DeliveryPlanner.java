@@ -0,0 +1,243 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Package;
+import com.ups.model.entity.PackageStatus;
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.PackageRepository;
+import com.ups.repository.TruckRepository;
+import com.ups.service.world.Ups;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a loaded truck out once with every package it carries.
+ * Each loaded package only schedules a check of its truck. The check runs after a short debounce on a
+ * single thread, so checks for one truck never race: while packages are still waiting to be loaded at
+ * the warehouse it checks again later, and once they are all on board (or the load wait runs out) it
+ * orders the LOADED packages with {@link RoutePlanner} and sends a single multi-stop delivery.
+ * A truck that is already out delivering keeps its packages pending until it is idle again, then leaves
+ * with them on its next trip.
+ */
+@Component
+public class DeliveryPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryPlanner.class);
+
+    private final PackageRepository packageRepository;
+    private final TruckRepository truckRepository;
+    private final FleetState fleetState;
+    private final Ups ups;
+    private final TransactionTemplate transactionTemplate;
+    private final long debounceMillis;
+    private final long maxLoadWaitNanos;
+    private final long routeBudgetNanos;
+    private final ScheduledExecutorService scheduler;
+
+    // Trucks with a check scheduled, and when their first package was loaded
+    private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
+
+    // Pending trucks that were out delivering; they are checked again when they go idle
+    private final Set<Integer> awaitingReturn = ConcurrentHashMap.newKeySet();
+
+    private enum Outcome { DONE, WAIT, OUT_DELIVERING }
+
+    private final Counter trips;
+    private final DistributionSummary stopsPerTrip;
+    private final Timer solveTime;
+
+    @Autowired
+    public DeliveryPlanner(PackageRepository packageRepository,
+                           TruckRepository truckRepository,
+                           FleetState fleetState,
+                           Ups ups,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${ups.delivery.load-debounce-ms:200}") long debounceMillis,
+                           @Value("${ups.delivery.max-load-wait-ms:30000}") long maxLoadWaitMillis,
+                           @Value("${ups.delivery.route-budget-ms:20}") long routeBudgetMillis) {
+        this.packageRepository = packageRepository;
+        this.truckRepository = truckRepository;
+        this.fleetState = fleetState;
+        this.ups = ups;
+        this.transactionTemplate = transactionManager != null ? new TransactionTemplate(transactionManager) : null;
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.maxLoadWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxLoadWaitMillis);
+        this.routeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(routeBudgetMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DeliveryPlanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.trips = Counter.builder("ups.delivery.trips")
+                .description("Multi-stop delivery trips sent")
+                .register(meterRegistry);
+        this.stopsPerTrip = DistributionSummary.builder("ups.delivery.stops")
+                .description("Packages delivered per trip")
+                .register(meterRegistry);
+        this.solveTime = Timer.builder("ups.delivery.route.solve")
+                .description("Time spent ordering the stops of a trip")
+                .register(meterRegistry);
+
+        fleetState.addIdleListener(this::truckIdle);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Note that a package was loaded on a truck; the truck leaves once its other packages are loaded too.
+     * Inside a transaction the check is only scheduled once it commits, so it sees the LOADED package.
+     * @param truckId The truck the package was loaded on
+     */
+    public void packageLoaded(int truckId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            schedule(truckId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                schedule(truckId);
+            }
+        });
+    }
+
+    private void schedule(int truckId) {
+        if (pending.putIfAbsent(truckId, System.nanoTime()) == null) {
+            scheduler.schedule(() -> check(truckId), debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void truckIdle(int truckId) {
+        if (awaitingReturn.remove(truckId)) {
+            scheduler.schedule(() -> check(truckId), debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void check(int truckId) {
+        try {
+            Outcome outcome = transactionTemplate != null
+                    ? transactionTemplate.execute(status -> dispatchIfLoaded(truckId))
+                    : dispatchIfLoaded(truckId);
+            if (outcome == Outcome.WAIT) {
+                scheduler.schedule(() -> check(truckId), debounceMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (outcome == Outcome.OUT_DELIVERING) {
+                awaitingReturn.add(truckId);
+                // It may have gone idle since it was read; then nothing else would check it
+                FleetState.TruckView view = fleetState.get(truckId);
+                if (view != null && view.getStatus() != TruckStatus.DELIVERING) {
+                    truckIdle(truckId);
+                }
+                return;
+            }
+        } catch (OptimisticLockingFailureException e) {
+            // The fleet's write-behind saved the truck first; the next check reads the newer row
+            logger.warn("Truck {} changed while it was being dispatched, checking again", truckId);
+            scheduler.schedule(() -> check(truckId), debounceMillis, TimeUnit.MILLISECONDS);
+            return;
+        } catch (Exception e) {
+            logger.error("Failed to dispatch truck {} for delivery: {}", truckId, e.getMessage(), e);
+        }
+        pending.remove(truckId);
+    }
+
+    /**
+     * @return WAIT if the truck should wait for more packages to be loaded, OUT_DELIVERING if it should
+     * take them once it is back, DONE once it is dealt with
+     */
+    private Outcome dispatchIfLoaded(int truckId) {
+        FleetState.TruckView view = fleetState.get(truckId);
+        if (view != null && view.getStatus() == TruckStatus.DELIVERING) {
+            // Already out; the packages loaded since go on its next trip
+            return Outcome.OUT_DELIVERING;
+        }
+        Optional<Truck> truckOpt = truckRepository.findById(truckId);
+        if (truckOpt.isEmpty()) {
+            logger.error("Truck with ID {} not found", truckId);
+            return Outcome.DONE;
+        }
+        Truck truck = truckOpt.get();
+
+        List<Package> loaded = new ArrayList<>();
+        int waiting = 0;
+        for (Package pkg : packageRepository.findByTruck(truck)) {
+            if (pkg.getStatus() == PackageStatus.LOADED) {
+                loaded.add(pkg);
+            } else if (pkg.getStatus() == PackageStatus.PICKUP_READY) {
+                waiting++;
+            }
+        }
+        Long firstLoaded = pending.get(truckId);
+        boolean canWait = firstLoaded != null && System.nanoTime() - firstLoaded < maxLoadWaitNanos;
+        if ((waiting > 0 || loaded.isEmpty()) && canWait) {
+            return Outcome.WAIT;
+        }
+        if (loaded.isEmpty()) {
+            logger.warn("Truck {} has no loaded packages to deliver", truckId);
+            return Outcome.DONE;
+        }
+        if (waiting > 0) {
+            logger.warn("Truck {} leaving with {} packages still not loaded", truckId, waiting);
+        }
+
+        ups.sendTruckToDeliver(truckId, order(truck, loaded));
+        trips.increment();
+        stopsPerTrip.record(loaded.size());
+        return Outcome.DONE;
+    }
+
+    private List<Package> order(Truck truck, List<Package> loaded) {
+        int n = loaded.size();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = loaded.get(i).getDestinationX();
+            ys[i] = loaded.get(i).getDestinationY();
+        }
+
+        // The in-memory position is fresher than the row when write-behind is on
+        FleetState.TruckView view = fleetState.get(truck.getId());
+        int startX = view != null ? view.getX() : truck.getX();
+        int startY = view != null ? view.getY() : truck.getY();
+
+        long start = System.nanoTime();
+        int[] route = RoutePlanner.plan(startX, startY, xs, ys, routeBudgetNanos);
+        solveTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        List<Package> ordered = new ArrayList<>(n);
+        for (int stop : route) {
+            ordered.add(loaded.get(stop));
+        }
+        logger.info("Planned {} stops for truck {}, route length {}",
+                n, truck.getId(), Math.round(RoutePlanner.length(startX, startY, xs, ys, route)));
+        return ordered;
+    }
+}
@@ -0,0 +1,639 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.TruckRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Authoritative in-memory model of the truck fleet.
+ * Each truck owns a slot in parallel primitive arrays (id, x, y, status, version), idle trucks are
+ * tracked in a bit set and a spatial grid for nearest-truck dispatch, and every change bumps a
+ * fleet-wide version. Changes made here are written back to the database asynchronously, so
+ * lookups and dispatch never wait on JPA.
+ * Changes already saved elsewhere are applied with {@link #track(Truck)} and are not written again.
+ * The flush relies on the truck's optimistic version, so it never overwrites a newer save it raced with.
+ */
+@Component
+public class FleetState {
+    private static final Logger logger = LoggerFactory.getLogger(FleetState.class);
+
+    private static final int UNTRACKED = -1;
+    private static final TruckStatus[] STATUSES = TruckStatus.values();
+
+    /**
+     * Read-only copy of one truck's state
+     */
+    public static final class TruckView {
+        private final int id;
+        private final int x;
+        private final int y;
+        private final TruckStatus status;
+        private final long version;
+
+        TruckView(int id, int x, int y, TruckStatus status, long version) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.status = status;
+            this.version = version;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public TruckStatus getStatus() {
+            return status;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    private final TruckRepository truckRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long writeBehindMillis;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // One slot per truck; a truck keeps its slot for the life of the process
+    private int[] ids = new int[16];
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private byte[] statuses = new byte[16];
+    private long[] versions = new long[16];
+    private int size;
+    private int[] slotById = new int[0];
+    private final BitSet idle = new BitSet();
+    private final BitSet dirty = new BitSet();
+    private final TruckGrid idleGrid;
+    private final Condition truckIdled = lock.writeLock().newCondition();
+    private final List<IntConsumer> idleListeners = new CopyOnWriteArrayList<>();
+    private long version;
+    private volatile boolean loaded;
+
+    private ScheduledExecutorService writeBehind;
+    private final Timer flushTimer;
+    private final Counter flushedRows;
+    private final Counter flushConflicts;
+
+    public FleetState(TruckRepository truckRepository) {
+        this(truckRepository, null, new SimpleMeterRegistry(), 0, 16);
+    }
+
+    /**
+     * @param writeBehindMillis Delay between database flushes; 0 or less writes every change through immediately
+     * @param gridCellSize Side of a spatial index cell, in world units
+     */
+    @Autowired
+    public FleetState(TruckRepository truckRepository,
+                      PlatformTransactionManager transactionManager,
+                      MeterRegistry meterRegistry,
+                      @Value("${ups.fleet.write-behind-ms:200}") long writeBehindMillis,
+                      @Value("${ups.fleet.grid-cell-size:16}") int gridCellSize) {
+        this.truckRepository = truckRepository;
+        this.idleGrid = new TruckGrid(gridCellSize);
+        this.transactionTemplate = transactionManager != null ? new TransactionTemplate(transactionManager) : null;
+        this.writeBehindMillis = writeBehindMillis;
+
+        Gauge.builder("ups.fleet.trucks", this, FleetState::getTruckCount)
+                .description("Trucks tracked in memory")
+                .register(meterRegistry);
+        Gauge.builder("ups.fleet.idle", this, FleetState::getIdleCount)
+                .description("Idle trucks")
+                .register(meterRegistry);
+        Gauge.builder("ups.fleet.write-behind.pending", this, FleetState::getDirtyCount)
+                .description("Trucks changed in memory but not yet written to the database")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("ups.fleet.write-behind.flush")
+                .description("Time to write changed trucks to the database")
+                .register(meterRegistry);
+        this.flushedRows = Counter.builder("ups.fleet.write-behind.rows")
+                .description("Truck rows written by the write-behind flush")
+                .register(meterRegistry);
+        this.flushConflicts = Counter.builder("ups.fleet.write-behind.conflicts")
+                .description("Flushes abandoned because a truck was saved elsewhere in the meantime")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (writeBehindMillis <= 0) {
+            return;
+        }
+        writeBehind = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FleetWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeBehind.scheduleWithFixedDelay(this::flushQuietly, writeBehindMillis, writeBehindMillis, TimeUnit.MILLISECONDS);
+        logger.info("Fleet write-behind every {} ms", writeBehindMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+            try {
+                writeBehind.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Whatever is still pending goes out before shutdown
+        flushQuietly();
+    }
+
+    /**
+     * Replace the in-memory fleet with the given trucks, as stored in the database
+     * @param trucks Every known truck
+     */
+    public void load(Collection<Truck> trucks) {
+        List<Integer> becameIdle = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            Arrays.fill(slotById, UNTRACKED);
+            idle.clear();
+            dirty.clear();
+            idleGrid.clear();
+            for (Truck truck : trucks) {
+                if (apply(truck)) {
+                    becameIdle.add(truck.getId());
+                }
+            }
+            loaded = true;
+            logger.info("Loaded {} trucks into fleet state ({} idle)", size, idle.cardinality());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (int truckId : becameIdle) {
+            notifyIdle(truckId);
+        }
+    }
+
+    /**
+     * Apply a truck's state that has already been saved to the database, tracking the truck if it is new
+     * @param truck The saved truck
+     */
+    public void track(Truck truck) {
+        if (truck == null || truck.getId() == null) {
+            return;
+        }
+        ensureLoaded();
+        boolean becameIdle;
+        lock.writeLock().lock();
+        try {
+            becameIdle = apply(truck);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (becameIdle) {
+            notifyIdle(truck.getId());
+        }
+    }
+
+    /**
+     * Apply a truck saved in the current transaction once it commits; a rollback leaves the fleet as it was.
+     * Without a transaction the save has already committed, so the truck is applied straight away.
+     * @param truck The saved truck
+     */
+    public void trackAfterCommit(Truck truck) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            track(truck);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                track(truck);
+            }
+        });
+    }
+
+    /**
+     * Get a truck's current state
+     * @param truckId The truck ID
+     * @return The truck, or null if it is not tracked
+     */
+    public TruckView get(int truckId) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(truckId);
+            return slot == UNTRACKED ? null : view(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record a new position and status for a tracked truck; the database is updated later
+     * @param truckId The truck ID
+     * @param x The new x coordinate
+     * @param y The new y coordinate
+     * @param status The new status
+     * @return true if anything changed, false if the state was the same or the truck is not tracked
+     */
+    public boolean update(int truckId, int x, int y, TruckStatus status) {
+        ensureLoaded();
+        boolean becameIdle;
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(truckId);
+            if (slot == UNTRACKED) {
+                return false;
+            }
+            if (xs[slot] == x && ys[slot] == y && statuses[slot] == status.ordinal()) {
+                return false;
+            }
+            xs[slot] = x;
+            ys[slot] = y;
+            becameIdle = setStatus(slot, status);
+            dirty.set(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeThroughIfEnabled();
+        if (becameIdle) {
+            notifyIdle(truckId);
+        }
+        return true;
+    }
+
+    /**
+     * Atomically take an idle truck and mark it TRAVELING, so concurrent requests never get the same truck
+     * @return The truck ID, or empty if no truck is idle
+     */
+    public OptionalInt claimIdleTruck() {
+        ensureLoaded();
+        int truckId;
+        lock.writeLock().lock();
+        try {
+            int slot = idle.nextSetBit(0);
+            if (slot < 0) {
+                return OptionalInt.empty();
+            }
+            truckId = ids[slot];
+            setStatus(slot, TruckStatus.TRAVELING);
+            dirty.set(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeThroughIfEnabled();
+        return OptionalInt.of(truckId);
+    }
+
+    /**
+     * Atomically take the idle truck closest to a point and mark it TRAVELING
+     * @param x The x coordinate, usually a warehouse
+     * @param y The y coordinate
+     * @param waitMillis How long to wait for a truck to become idle if none is; 0 to give up at once
+     * @return The truck ID, or empty if no truck became idle in time
+     */
+    public OptionalInt claimNearestIdleTruck(int x, int y, long waitMillis) throws InterruptedException {
+        ensureLoaded();
+        int truckId;
+        lock.writeLock().lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            int slot;
+            while ((slot = idleGrid.nearest(x, y, xs, ys)) < 0) {
+                if (remaining <= 0) {
+                    return OptionalInt.empty();
+                }
+                remaining = truckIdled.awaitNanos(remaining);
+            }
+            truckId = ids[slot];
+            setStatus(slot, TruckStatus.TRAVELING);
+            dirty.set(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeThroughIfEnabled();
+        return OptionalInt.of(truckId);
+    }
+
+    /**
+     * Give back a truck claimed with {@link #claimIdleTruck()} whose assignment failed
+     * @param truckId The truck ID
+     */
+    public void releaseTruck(int truckId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(truckId);
+            if (slot == UNTRACKED || statuses[slot] != TruckStatus.TRAVELING.ordinal()) {
+                return;
+            }
+            setStatus(slot, TruckStatus.IDLE);
+            dirty.set(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeThroughIfEnabled();
+        notifyIdle(truckId);
+    }
+
+    /**
+     * Get the IDs of every truck that is not idle
+     */
+    public List<Integer> getActiveTruckIds() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            List<Integer> active = new ArrayList<>(size - idle.cardinality());
+            for (int slot = 0; slot < size; slot++) {
+                if (!idle.get(slot)) {
+                    active.add(ids[slot]);
+                }
+            }
+            return active;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write every truck changed in memory to the database in one transaction
+     * @return The number of trucks written
+     */
+    public int flush() {
+        List<TruckView> deltas = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+                deltas.add(view(slot));
+            }
+            dirty.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        try {
+            int written = inTransaction(() -> persist(deltas));
+            flushedRows.increment(written);
+            return written;
+        } catch (RuntimeException e) {
+            // Put the deltas back unless a newer change already has
+            lock.writeLock().lock();
+            try {
+                for (TruckView delta : deltas) {
+                    int slot = slotOf(delta.getId());
+                    if (slot != UNTRACKED && versions[slot] == delta.getVersion()) {
+                        dirty.set(slot);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Register a callback for a truck becoming idle.
+     * It runs on the thread that made the change, after the fleet lock is released. Changes saved to the
+     * database reach the fleet through {@link #trackAfterCommit(Truck)} only once committed, so a listener never sees
+     * a truck go idle that a rollback would undo.
+     * @param listener Receives the ID of the truck that became idle
+     */
+    public void addIdleListener(IntConsumer listener) {
+        idleListeners.add(listener);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int getTruckCount() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        lock.readLock().lock();
+        try {
+            return idle.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of trucks waiting to be written to the database
+     */
+    public int getDirtyCount() {
+        lock.readLock().lock();
+        try {
+            return dirty.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the fleet-wide version, bumped by every change
+     */
+    public long getVersion() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int persist(List<TruckView> deltas) {
+        Map<Integer, TruckView> byId = new HashMap<>();
+        for (TruckView delta : deltas) {
+            byId.put(delta.getId(), delta);
+        }
+
+        List<Truck> changed = new ArrayList<>(deltas.size());
+        for (Truck truck : truckRepository.findAllById(byId.keySet())) {
+            TruckView delta = byId.get(truck.getId());
+            if (isSuperseded(delta)) {
+                // A newer change is either dirty again or was saved by whoever made it
+                continue;
+            }
+            truck.setX(delta.getX());
+            truck.setY(delta.getY());
+            truck.setStatus(delta.getStatus());
+            changed.add(truck);
+        }
+        truckRepository.saveAll(changed);
+        logger.debug("Wrote {} changed trucks to the database", changed.size());
+        return changed.size();
+    }
+
+    private boolean isSuperseded(TruckView delta) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(delta.getId());
+            return slot == UNTRACKED || versions[slot] != delta.getVersion();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (OptimisticLockingFailureException e) {
+            // A truck was saved elsewhere after it was read; changes not superseded go out on the next flush
+            flushConflicts.increment();
+            logger.debug("Fleet flush lost a race with a newer truck save: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("Failed to write fleet changes to the database: {}", e.getMessage(), e);
+        }
+    }
+
+    private void writeThroughIfEnabled() {
+        if (writeBehindMillis <= 0) {
+            flush();
+        }
+    }
+
+    private int inTransaction(IntSupplier work) {
+        if (transactionTemplate == null) {
+            return work.getAsInt();
+        }
+        Integer result = transactionTemplate.execute(status -> work.getAsInt());
+        return result != null ? result : 0;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                load(truckRepository.findAll());
+            }
+        }
+    }
+
+    /**
+     * Copy a truck into its slot, adding the slot if needed. Caller holds the write lock.
+     * @return true if the truck became idle
+     */
+    private boolean apply(Truck truck) {
+        int id = truck.getId();
+        int slot = slotOf(id);
+        if (slot == UNTRACKED) {
+            slot = addSlot(id);
+        }
+        xs[slot] = truck.getX() != null ? truck.getX() : 0;
+        ys[slot] = truck.getY() != null ? truck.getY() : 0;
+        return setStatus(slot, truck.getStatus() != null ? truck.getStatus() : TruckStatus.IDLE);
+    }
+
+    private int addSlot(int truckId) {
+        if (truckId < 0) {
+            throw new IllegalArgumentException("Truck IDs must not be negative: " + truckId);
+        }
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+        }
+        if (truckId >= slotById.length) {
+            int old = slotById.length;
+            slotById = Arrays.copyOf(slotById, Math.max(truckId + 1, old * 2));
+            Arrays.fill(slotById, old, slotById.length, UNTRACKED);
+        }
+        int slot = size++;
+        ids[slot] = truckId;
+        slotById[truckId] = slot;
+        return slot;
+    }
+
+    /**
+     * Set a slot's status, keeping the idle set and spatial index in step. Call after changing its position.
+     * @return true if the truck became idle; the caller notifies the idle listeners once it releases the lock
+     */
+    private boolean setStatus(int slot, TruckStatus status) {
+        statuses[slot] = (byte) status.ordinal();
+        boolean becameIdle = false;
+        if (status == TruckStatus.IDLE) {
+            becameIdle = !idle.get(slot);
+            idle.set(slot);
+            idleGrid.put(slot, xs[slot], ys[slot]);
+            truckIdled.signalAll();
+        } else {
+            idle.clear(slot);
+            idleGrid.remove(slot);
+        }
+        versions[slot] = ++version;
+        return becameIdle;
+    }
+
+    private void notifyIdle(int truckId) {
+        for (IntConsumer listener : idleListeners) {
+            listener.accept(truckId);
+        }
+    }
+
+    private int slotOf(int truckId) {
+        return truckId >= 0 && truckId < slotById.length ? slotById[truckId] : UNTRACKED;
+    }
+
+    private TruckView view(int slot) {
+        return new TruckView(ids[slot], xs[slot], ys[slot], STATUSES[statuses[slot]], versions[slot]);
+    }
+}
@@ -0,0 +1,306 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.TruckStatus;
+import com.ups.service.world.Ups;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups packages for the same warehouse onto one truck trip.
+ * The first package for a warehouse claims the nearest idle truck and opens a batch; the pickup is
+ * sent after a short batching window. Later packages for that warehouse join the batch while its truck
+ * is still travelling there or waiting at it, up to the per-truck capacity. A package joining a truck
+ * that has already arrived triggers another pickup for the same warehouse after the window, so the
+ * World reports the arrival again and Amazon is told about the new packages.
+ * When the package is created in a transaction, its pickup is only scheduled once that transaction
+ * commits, and a rollback gives the package's place on the truck back.
+ */
+@Component
+public class PickupConsolidator {
+    private static final Logger logger = LoggerFactory.getLogger(PickupConsolidator.class);
+
+    /**
+     * The truck a package was put on
+     */
+    public static final class Assignment {
+        private final int warehouseId;
+        private final int truckId;
+        private final boolean newTrip;
+        // Guarded by the consolidator; a rolled-back shipment may already have released it itself
+        private boolean released;
+
+        Assignment(int warehouseId, int truckId, boolean newTrip) {
+            this.warehouseId = warehouseId;
+            this.truckId = truckId;
+            this.newTrip = newTrip;
+        }
+
+        public int getWarehouseId() {
+            return warehouseId;
+        }
+
+        public int getTruckId() {
+            return truckId;
+        }
+
+        /**
+         * @return true if the package claimed a fresh truck, false if it joined one already bound for the warehouse
+         */
+        public boolean isNewTrip() {
+            return newTrip;
+        }
+    }
+
+    private static final class Batch {
+        private final int warehouseId;
+        private final int truckId;
+        private int packages;
+        private boolean sent;
+        // A pickup is needed and goes out once a package on the batch has committed
+        private boolean pickupDue;
+        private ScheduledFuture<?> pendingPickup;
+
+        Batch(int warehouseId, int truckId) {
+            this.warehouseId = warehouseId;
+            this.truckId = truckId;
+        }
+    }
+
+    private final FleetState fleetState;
+    private final Ups ups;
+    private final long windowMillis;
+    private final int truckCapacity;
+    private final ScheduledExecutorService scheduler;
+
+    // Open batch per warehouse, and the same batches by truck
+    private final Map<Integer, Batch> byWarehouse = new HashMap<>();
+    private final Map<Integer, Batch> byTruck = new HashMap<>();
+
+    private final Counter trips;
+    private final Counter joined;
+
+    @Autowired
+    public PickupConsolidator(FleetState fleetState,
+                              Ups ups,
+                              MeterRegistry meterRegistry,
+                              @Value("${ups.consolidation.window-ms:250}") long windowMillis,
+                              @Value("${ups.consolidation.truck-capacity:10}") int truckCapacity) {
+        this.fleetState = fleetState;
+        this.ups = ups;
+        this.windowMillis = windowMillis;
+        this.truckCapacity = Math.max(1, truckCapacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PickupConsolidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.trips = Counter.builder("ups.consolidation.trips")
+                .description("Pickup trips started for a warehouse")
+                .register(meterRegistry);
+        this.joined = Counter.builder("ups.consolidation.joined")
+                .description("Packages added to a truck already bound for their warehouse")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Put a package for a warehouse on a truck: one already bound there with room, or the nearest idle truck
+     * @param warehouseId The warehouse
+     * @param x The warehouse x coordinate, or null if unknown
+     * @param y The warehouse y coordinate, or null if unknown
+     * @param waitMillis How long to wait for an idle truck when a new one is needed
+     * @return The assignment, or null if no truck is available
+     */
+    public Assignment assign(int warehouseId, Integer x, Integer y, long waitMillis) throws InterruptedException {
+        Assignment assignment = join(warehouseId);
+        if (assignment != null) {
+            return assignment;
+        }
+
+        OptionalInt claimed = x == null || y == null
+                ? fleetState.claimIdleTruck()
+                : fleetState.claimNearestIdleTruck(x, y, waitMillis);
+        if (claimed.isEmpty()) {
+            // Another request may have opened a batch while we waited
+            return join(warehouseId);
+        }
+        return open(warehouseId, claimed.getAsInt());
+    }
+
+    /**
+     * Undo an assignment whose shipment failed. A trip nobody else joined and that has not been
+     * sent yet is cancelled and its truck handed back.
+     */
+    public synchronized void release(Assignment assignment) {
+        if (assignment.released) {
+            return;
+        }
+        assignment.released = true;
+        Batch batch = byTruck.get(assignment.getTruckId());
+        if (batch == null || batch.warehouseId != assignment.getWarehouseId()) {
+            return;
+        }
+        batch.packages--;
+        if (batch.packages == 0 && !batch.sent) {
+            if (batch.pendingPickup != null) {
+                batch.pendingPickup.cancel(false);
+            }
+            batch.pickupDue = false;
+            remove(batch);
+            fleetState.releaseTruck(batch.truckId);
+            logger.info("Cancelled pickup trip of truck {} to warehouse {}", batch.truckId, batch.warehouseId);
+        }
+    }
+
+    /**
+     * Get the number of packages on the open batch for a warehouse, 0 if there is none
+     */
+    public synchronized int getBatchSize(int warehouseId) {
+        Batch batch = byWarehouse.get(warehouseId);
+        return batch != null ? batch.packages : 0;
+    }
+
+    /**
+     * Put a package on a truck already bound for its warehouse, without claiming a new truck
+     * @param warehouseId The warehouse
+     * @return The assignment, or null if no open trip to the warehouse has room
+     */
+    public synchronized Assignment join(int warehouseId) {
+        Batch batch = byWarehouse.get(warehouseId);
+        if (batch == null) {
+            return null;
+        }
+
+        FleetState.TruckView truck = fleetState.get(batch.truckId);
+        TruckStatus status = truck != null ? truck.getStatus() : null;
+        if (status != TruckStatus.TRAVELING && status != TruckStatus.ARRIVE_WAREHOUSE) {
+            // The truck has moved on (loading, delivering or back to idle); this batch is closed
+            remove(batch);
+            return null;
+        }
+        if (batch.packages >= truckCapacity) {
+            return null;
+        }
+
+        batch.packages++;
+        joined.increment();
+        if (status == TruckStatus.ARRIVE_WAREHOUSE && batch.pendingPickup == null) {
+            // Already there: ask for the pickup again so the World reports the arrival for the new packages
+            batch.pickupDue = true;
+        }
+        logger.info("Package for warehouse {} joined truck {} ({} of {})",
+                warehouseId, batch.truckId, batch.packages, truckCapacity);
+        Assignment assignment = new Assignment(warehouseId, batch.truckId, false);
+        settleOnCompletion(batch, assignment);
+        return assignment;
+    }
+
+    private synchronized Assignment open(int warehouseId, int truckId) {
+        Batch stale = byTruck.get(truckId);
+        if (stale != null) {
+            remove(stale);
+        }
+        Batch previous = byWarehouse.get(warehouseId);
+        if (previous != null) {
+            // The previous trip is full; new packages go to this one from now on
+            byTruck.remove(previous.truckId);
+        }
+
+        Batch batch = new Batch(warehouseId, truckId);
+        batch.packages = 1;
+        byWarehouse.put(warehouseId, batch);
+        byTruck.put(truckId, batch);
+        trips.increment();
+        batch.pickupDue = true;
+        Assignment assignment = new Assignment(warehouseId, truckId, true);
+        settleOnCompletion(batch, assignment);
+        return assignment;
+    }
+
+    /**
+     * Schedule the batch's pickup once the caller's transaction commits, and release the package if it rolls back.
+     * Without a transaction the package is committed already.
+     */
+    private void settleOnCompletion(Batch batch, Assignment assignment) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed(batch);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                committed(batch);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    release(assignment);
+                }
+            }
+        });
+    }
+
+    private synchronized void committed(Batch batch) {
+        if (!batch.pickupDue || batch.packages == 0) {
+            return;
+        }
+        batch.pickupDue = false;
+        // A pickup already waiting for its window covers this package too
+        if (batch.pendingPickup == null) {
+            schedulePickup(batch);
+        }
+    }
+
+    private void schedulePickup(Batch batch) {
+        if (windowMillis <= 0) {
+            sendPickup(batch);
+            return;
+        }
+        batch.pendingPickup = scheduler.schedule(() -> sendPickup(batch), windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPickup(Batch batch) {
+        synchronized (this) {
+            batch.pendingPickup = null;
+            batch.sent = true;
+        }
+        try {
+            ups.sendTruckToPickup(batch.truckId, batch.warehouseId);
+            logger.info("Sent truck {} to warehouse {} for {} packages", batch.truckId, batch.warehouseId, batch.packages);
+        } catch (OptimisticLockingFailureException e) {
+            // The fleet's write-behind saved the truck first; sending again reads the newer row
+            logger.warn("Truck {} changed while it was being sent to warehouse {}, sending again", batch.truckId, batch.warehouseId);
+            scheduler.schedule(() -> sendPickup(batch), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.error("Failed to send truck {} to warehouse {}: {}", batch.truckId, batch.warehouseId, e.getMessage(), e);
+        }
+    }
+
+    private void remove(Batch batch) {
+        byTruck.remove(batch.truckId, batch);
+        byWarehouse.remove(batch.warehouseId, batch);
+    }
+}
@@ -0,0 +1,119 @@
+package com.ups.service.fleet;
+
+/**
+ * Orders delivery stops for one truck trip.
+ * Builds a nearest-neighbour tour from the truck's position, then improves it with 2-opt moves
+ * until no move shortens the route or the time budget runs out. The route is open: the truck
+ * does not need to come back to where it started.
+ */
+public final class RoutePlanner {
+
+    private RoutePlanner() {
+    }
+
+    /**
+     * Order stops for a truck
+     * @param startX The truck x coordinate
+     * @param startY The truck y coordinate
+     * @param xs Stop x coordinates
+     * @param ys Stop y coordinates
+     * @param budgetNanos Time allowed for 2-opt improvement; 0 or less returns the nearest-neighbour order
+     * @return Stop indexes in visiting order
+     */
+    public static int[] plan(int startX, int startY, int[] xs, int[] ys, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int[] route = nearestNeighbour(startX, startY, xs, ys);
+        if (budgetNanos > 0) {
+            improve(startX, startY, xs, ys, route, deadline);
+        }
+        return route;
+    }
+
+    /**
+     * Get the length of an open route from the start through every stop in order
+     */
+    public static double length(int startX, int startY, int[] xs, int[] ys, int[] route) {
+        double total = 0;
+        double x = startX;
+        double y = startY;
+        for (int stop : route) {
+            total += Math.hypot(xs[stop] - x, ys[stop] - y);
+            x = xs[stop];
+            y = ys[stop];
+        }
+        return total;
+    }
+
+    static int[] nearestNeighbour(int startX, int startY, int[] xs, int[] ys) {
+        int n = xs.length;
+        int[] route = new int[n];
+        boolean[] visited = new boolean[n];
+        long x = startX;
+        long y = startY;
+        for (int i = 0; i < n; i++) {
+            int best = -1;
+            long bestDistance = Long.MAX_VALUE;
+            for (int stop = 0; stop < n; stop++) {
+                if (visited[stop]) {
+                    continue;
+                }
+                long dx = xs[stop] - x;
+                long dy = ys[stop] - y;
+                long distance = dx * dx + dy * dy;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = stop;
+                }
+            }
+            visited[best] = true;
+            route[i] = best;
+            x = xs[best];
+            y = ys[best];
+        }
+        return route;
+    }
+
+    /**
+     * Apply improving 2-opt moves (reverse route[i..j]) until none is left or the deadline passes
+     */
+    private static void improve(int startX, int startY, int[] xs, int[] ys, int[] route, long deadline) {
+        int n = route.length;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 0; i < n - 1; i++) {
+                // Checking the clock once per row keeps the overhead small while bounding the overshoot
+                if (System.nanoTime() - deadline >= 0) {
+                    return;
+                }
+                double px = i == 0 ? startX : xs[route[i - 1]];
+                double py = i == 0 ? startY : ys[route[i - 1]];
+                int a = route[i];
+                double before = Math.hypot(xs[a] - px, ys[a] - py);
+                for (int j = i + 1; j < n; j++) {
+                    int b = route[j];
+                    double delta = Math.hypot(xs[b] - px, ys[b] - py) - before;
+                    if (j < n - 1) {
+                        int next = route[j + 1];
+                        delta += Math.hypot(xs[next] - xs[a], ys[next] - ys[a])
+                                - Math.hypot(xs[next] - xs[b], ys[next] - ys[b]);
+                    }
+                    if (delta < -1e-9) {
+                        reverse(route, i, j);
+                        a = route[i];
+                        before = Math.hypot(xs[a] - px, ys[a] - py);
+                        improved = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void reverse(int[] route, int from, int to) {
+        while (from < to) {
+            int swap = route[from];
+            route[from++] = route[to];
+            route[to--] = swap;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.ups.service.fleet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid over the positions of idle trucks, for nearest-truck queries.
+ * Cells are hashed, so the world may be any size and coordinates may be negative.
+ * Trucks are identified by their FleetState slot. Not thread-safe; FleetState guards it with its lock.
+ */
+class TruckGrid {
+    private static final int NONE = -1;
+
+    private final int cellSize;
+    private final Map<Long, Cell> cells = new HashMap<>();
+
+    // Per slot: the cell holding it (null if not indexed) and its index inside that cell
+    private Cell[] cellOf = new Cell[16];
+    private int[] indexInCell = new int[16];
+    private int count;
+
+    TruckGrid(int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+    }
+
+    /**
+     * Index a slot at a position, moving it if it is already indexed elsewhere
+     */
+    void put(int slot, int x, int y) {
+        ensureCapacity(slot);
+        long key = key(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+        Cell current = cellOf[slot];
+        if (current != null) {
+            if (current.key == key) {
+                return;
+            }
+            remove(slot);
+        }
+        Cell cell = cells.computeIfAbsent(key, Cell::new);
+        indexInCell[slot] = cell.add(slot);
+        cellOf[slot] = cell;
+        count++;
+    }
+
+    /**
+     * Drop a slot from the index; does nothing if it is not indexed
+     */
+    void remove(int slot) {
+        if (slot >= cellOf.length || cellOf[slot] == null) {
+            return;
+        }
+        Cell cell = cellOf[slot];
+        int moved = cell.removeAt(indexInCell[slot]);
+        if (moved != NONE) {
+            indexInCell[moved] = indexInCell[slot];
+        }
+        if (cell.size == 0) {
+            cells.remove(cell.key);
+        }
+        cellOf[slot] = null;
+        count--;
+    }
+
+    void clear() {
+        cells.clear();
+        Arrays.fill(cellOf, null);
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Find the indexed slot closest to a point, searching rings of cells outward from the point's cell
+     * @param xs Slot x coordinates
+     * @param ys Slot y coordinates
+     * @return The slot, or -1 if nothing is indexed
+     */
+    int nearest(int x, int y, int[] xs, int[] ys) {
+        if (count == 0) {
+            return NONE;
+        }
+        long cx = Math.floorDiv(x, cellSize);
+        long cy = Math.floorDiv(y, cellSize);
+        Best best = new Best();
+
+        for (long r = 0; ; r++) {
+            // Once the rings cover more cells than exist, walking every occupied cell is cheaper
+            long side = 2 * r + 1;
+            if (side * side > 4L * cells.size() + 16) {
+                for (Cell cell : cells.values()) {
+                    cell.closest(x, y, xs, ys, best);
+                }
+                return best.slot;
+            }
+
+            if (r == 0) {
+                visit(cx, cy, x, y, xs, ys, best);
+            } else {
+                for (long i = -r; i <= r; i++) {
+                    visit(cx + i, cy - r, x, y, xs, ys, best);
+                    visit(cx + i, cy + r, x, y, xs, ys, best);
+                }
+                for (long i = -r + 1; i <= r - 1; i++) {
+                    visit(cx - r, cy + i, x, y, xs, ys, best);
+                    visit(cx + r, cy + i, x, y, xs, ys, best);
+                }
+            }
+
+            // Every cell in the next ring is at least r whole cells away along one axis
+            long reach = r * cellSize;
+            if (best.slot != NONE && best.distance <= reach * reach) {
+                return best.slot;
+            }
+        }
+    }
+
+    private void visit(long cx, long cy, int x, int y, int[] xs, int[] ys, Best best) {
+        Cell cell = cells.get(key(cx, cy));
+        if (cell != null) {
+            cell.closest(x, y, xs, ys, best);
+        }
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot >= cellOf.length) {
+            int capacity = Math.max(slot + 1, cellOf.length * 2);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            indexInCell = Arrays.copyOf(indexInCell, capacity);
+        }
+    }
+
+    private static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static final class Best {
+        int slot = NONE;
+        long distance = Long.MAX_VALUE;
+    }
+
+    private static final class Cell {
+        private final long key;
+        private int[] slots = new int[4];
+        private int size;
+
+        Cell(long key) {
+            this.key = key;
+        }
+
+        int add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size] = slot;
+            return size++;
+        }
+
+        /**
+         * Remove by swapping in the last slot
+         * @return The slot that moved into the freed index, or -1 if none did
+         */
+        int removeAt(int index) {
+            size--;
+            if (index == size) {
+                return NONE;
+            }
+            slots[index] = slots[size];
+            return slots[index];
+        }
+
+        void closest(int x, int y, int[] xs, int[] ys, Best best) {
+            for (int i = 0; i < size; i++) {
+                int slot = slots[i];
+                long dx = xs[slot] - (long) x;
+                long dy = ys[slot] - (long) y;
+                long distance = dx * dx + dy * dy;
+                // Ties go to the lower slot so selection is deterministic
+                if (distance < best.distance || (distance == best.distance && slot < best.slot)) {
+                    best.distance = distance;
+                    best.slot = slot;
+                }
+            }
+        }
+    }
+}
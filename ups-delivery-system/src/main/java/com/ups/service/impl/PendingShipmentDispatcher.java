@@ -0,0 +1,155 @@
+package com.ups.service.impl;
+
+import com.ups.model.entity.PendingShipment;
+import com.ups.repository.PendingShipmentRepository;
+import com.ups.service.ShipmentService;
+import com.ups.service.fleet.FleetState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains the pending shipment queue when a truck becomes idle.
+ * Woken by the fleet rather than polling. The oldest shipment takes the free truck, then the other
+ * shipments queued for the same warehouse join that trip, so a truck leaves as full as the queue allows.
+ * Draining stops as soon as a shipment finds no truck; the next idle truck starts it again.
+ * A shipment that fails in a way no retry can fix, such as an unreadable request or a constraint
+ * violation, is rejected and taken off the queue so the shipments behind it keep moving.
+ */
+@Component
+public class PendingShipmentDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(PendingShipmentDispatcher.class);
+
+    private enum Outcome { DISPATCHED, NO_TRUCK, REJECTED }
+
+    private final PendingShipmentRepository pendingShipmentRepository;
+    private final ShipmentService shipmentService;
+    private final FleetState fleetState;
+    private final ExecutorService executor;
+
+    // Set while a drain is waiting to run, so a burst of idle trucks triggers one pass
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    private final Counter dispatched;
+    private final Counter rejected;
+    private final Timer queueWait;
+
+    @Autowired
+    public PendingShipmentDispatcher(PendingShipmentRepository pendingShipmentRepository,
+                                     ShipmentService shipmentService,
+                                     FleetState fleetState,
+                                     MeterRegistry meterRegistry) {
+        this.pendingShipmentRepository = pendingShipmentRepository;
+        this.shipmentService = shipmentService;
+        this.fleetState = fleetState;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "PendingShipmentDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.dispatched = Counter.builder("ups.shipment.queue.dispatched")
+                .description("Queued shipments put on a truck")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ups.shipment.queue.rejected")
+                .description("Queued shipments taken off the queue because they can never be dispatched")
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("ups.shipment.queue.wait")
+                .description("Time a shipment spent queued for a truck")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        fleetState.addIdleListener(truckId -> requestDrain());
+        // Shipments queued before a restart are still in the table
+        requestDrain();
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Check the queue once a newly queued shipment is committed, in case a truck is already idle
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void shipmentQueued(PendingShipment pending) {
+        if (fleetState.getIdleCount() > 0) {
+            requestDrain();
+        }
+    }
+
+    /**
+     * Schedule a pass over the queue unless one is already waiting to run
+     */
+    public void requestDrain() {
+        if (drainRequested.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainRequested.set(false);
+        try {
+            while (true) {
+                Optional<PendingShipment> head = pendingShipmentRepository.findFirstByOrderByIdAsc();
+                if (head.isEmpty()) {
+                    return;
+                }
+                Outcome outcome = dispatch(head.get(), false);
+                if (outcome == Outcome.NO_TRUCK) {
+                    return;
+                }
+                if (outcome == Outcome.REJECTED) {
+                    // The next oldest takes its place
+                    continue;
+                }
+                // Fill the trip the head just started before moving on to the next oldest
+                for (PendingShipment sameWarehouse
+                        : pendingShipmentRepository.findByWarehouseIdOrderByIdAsc(head.get().getWarehouseId())) {
+                    if (dispatch(sameWarehouse, true) == Outcome.NO_TRUCK) {
+                        break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Left in the queue; the next idle truck retries
+            logger.error("Failed to drain pending shipments: {}", e.getMessage(), e);
+        }
+    }
+
+    private Outcome dispatch(PendingShipment pending, boolean joinOnly) {
+        try {
+            if (!shipmentService.dispatchQueued(pending, joinOnly)) {
+                return Outcome.NO_TRUCK;
+            }
+        } catch (IllegalStateException | DataIntegrityViolationException e) {
+            // Retrying would fail the same way and hold up the whole queue
+            logger.error("Queued shipment for package {} cannot be dispatched, rejecting it: {}",
+                    pending.getPackageId(), e.getMessage(), e);
+            shipmentService.rejectQueued(pending, e.getMessage());
+            rejected.increment();
+            return Outcome.REJECTED;
+        }
+        dispatched.increment();
+        queueWait.record(Duration.between(pending.getEnqueuedAt(), Instant.now()));
+        return Outcome.DISPATCHED;
+    }
+}
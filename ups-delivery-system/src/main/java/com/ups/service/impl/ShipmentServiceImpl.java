@@ -1,24 +1,30 @@
 package com.ups.service.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ups.model.amazon.CreateShipmentRequest;
 import com.ups.model.amazon.CreateShipmentResponse;
 import com.ups.model.entity.Package;
 import com.ups.model.entity.PackageItem;
 import com.ups.model.entity.PackageStatus;
+import com.ups.model.entity.PendingShipment;
 import com.ups.model.entity.Truck;
-import com.ups.model.entity.TruckStatus;
 import com.ups.model.entity.User;
 import com.ups.model.entity.Warehouse;
 import com.ups.repository.PackageItemRepository;
 import com.ups.repository.PackageRepository;
+import com.ups.repository.PendingShipmentRepository;
 import com.ups.repository.TruckRepository;
 import com.ups.repository.UserRepository;
 import com.ups.repository.WarehouseRepository;
+import com.ups.service.AmazonNotificationService;
 import com.ups.service.ShipmentService;
-import com.ups.service.world.Ups;
+import com.ups.service.fleet.PickupConsolidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -37,7 +43,13 @@ public class ShipmentServiceImpl implements ShipmentService {
     private final UserRepository userRepository;
     private final TruckRepository truckRepository;
     private final WarehouseRepository warehouseRepository;
-    private final Ups ups;
+    private final PickupConsolidator pickupConsolidator;
+    private final PendingShipmentRepository pendingShipmentRepository;
+    private final AmazonNotificationService amazonNotificationService;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long dispatchWaitMillis;
+    private final long maxQueued;
     
     @Autowired
     public ShipmentServiceImpl(
@@ -46,13 +58,25 @@ public class ShipmentServiceImpl implements ShipmentService {
             UserRepository userRepository,
             TruckRepository truckRepository,
             WarehouseRepository warehouseRepository,
-            Ups ups) {
+            PickupConsolidator pickupConsolidator,
+            PendingShipmentRepository pendingShipmentRepository,
+            AmazonNotificationService amazonNotificationService,
+            ObjectMapper objectMapper,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${ups.dispatch.wait-ms:0}") long dispatchWaitMillis,
+            @Value("${ups.shipment.queue.max-size:10000}") long maxQueued) {
         this.packageRepository = packageRepository;
         this.packageItemRepository = packageItemRepository;
         this.userRepository = userRepository;
         this.truckRepository = truckRepository;
         this.warehouseRepository = warehouseRepository;
-        this.ups = ups;
+        this.pickupConsolidator = pickupConsolidator;
+        this.pendingShipmentRepository = pendingShipmentRepository;
+        this.amazonNotificationService = amazonNotificationService;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.dispatchWaitMillis = dispatchWaitMillis;
+        this.maxQueued = maxQueued;
     }
     
     @Override
@@ -68,76 +92,47 @@ public class ShipmentServiceImpl implements ShipmentService {
         response.setTimestamp(Instant.now());
         
         try {
-            // 1. Find or create warehouse
-            Warehouse warehouse = findOrCreateWarehouse(
-                request.getShipmentInfo().getWarehouseId(),
-                request.getShipmentInfo().getDestination().getX(),
-                request.getShipmentInfo().getDestination().getY()
-            );
-            
-            // 2. Find user if ups_account_name is provided
-            User user = null;
-            if (request.getShipmentInfo().getUpsAccountName() != null && 
-                !request.getShipmentInfo().getUpsAccountName().isEmpty()) {
-                Optional<User> userOpt = userRepository.findByUsername(
-                        request.getShipmentInfo().getUpsAccountName());
-                user = userOpt.orElse(null);
-                
-                if (user == null) {
-                    logger.warn("UPS account name provided but user not found: {}", 
-                            request.getShipmentInfo().getUpsAccountName());
-                }
+            // A retry of a shipment that is already waiting keeps its place
+            Optional<PendingShipment> queued = pendingShipmentRepository.findByPackageId(
+                    request.getShipmentInfo().getPackageId());
+            if (queued.isPresent()) {
+                setQueued(response, queued.get());
+                return response;
             }
             
-            // 3. Find available truck
-            Optional<Truck> truckOpt = truckRepository.findByStatus(TruckStatus.IDLE).stream().findFirst();
+            // While older shipments wait, a new one may only join a trip already bound for its
+            // warehouse; idle trucks go to the head of the queue first
+            boolean backlog = pendingShipmentRepository.count() > 0;
+            PickupConsolidator.Assignment assignment = createShipment(request, backlog ? -1 : dispatchWaitMillis);
             
-            if (truckOpt.isPresent()) {
-                Truck truck = truckOpt.get();
-                
-                // 4. Create package entity
-                Package pkg = new Package();
-                pkg.setId(request.getShipmentInfo().getPackageId());
-                pkg.setWarehouse(warehouse);
-                pkg.setUser(user);
-                pkg.setDestinationX(request.getShipmentInfo().getDestination().getX());
-                pkg.setDestinationY(request.getShipmentInfo().getDestination().getY());
-                pkg.setStatus(PackageStatus.ASSIGNED);
-                pkg.setTruck(truck);
-                
-                // 5. Save package
-                packageRepository.save(pkg);
-                
-                // 6. Add items to package
-                if (request.getShipmentInfo().getItems() != null) {
-                    for (CreateShipmentRequest.Item item : request.getShipmentInfo().getItems()) {
-                        PackageItem packageItem = new PackageItem();
-                        packageItem.setProductId(item.getProductId());
-                        packageItem.setDescription(item.getDescription());
-                        packageItem.setCount(item.getCount());
-                        packageItem.setPkg(pkg);
-                        packageItemRepository.save(packageItem);
-                    }
-                }
-                
-                // 7. Update truck status and send it to the warehouse
-                truck.setStatus(TruckStatus.TRAVELING);
-                truckRepository.save(truck);
-                
-                // 8. Send truck to pick up package
-                ups.sendTruckToPickup(truck.getId(), warehouse.getId());
-                
-                // 9. Set response
+            if (assignment != null) {
+                // The consolidator sends the pickup once its batching window closes
                 response.setStatus("ACCEPTED");
-                response.setTruckId(truck.getId());
+                response.setTruckId(assignment.getTruckId());
                 
                 logger.info("Shipment request accepted for package ID: {} with truck ID: {}", 
-                        pkg.getId(), truck.getId());
+                        request.getShipmentInfo().getPackageId(), assignment.getTruckId());
+            } else if (pendingShipmentRepository.count() < maxQueued) {
+                PendingShipment pending = pendingShipmentRepository.save(new PendingShipment(
+                        request.getShipmentInfo().getPackageId(),
+                        request.getShipmentInfo().getWarehouseId(),
+                        objectMapper.writeValueAsString(request),
+                        Instant.now()));
+                setQueued(response, pending);
+                // A truck may have gone idle before this row was visible; the dispatcher checks after commit
+                eventPublisher.publishEvent(pending);
+                logger.info("No truck available; queued package ID: {} at position {}", 
+                        pending.getPackageId(), response.getQueuePosition());
             } else {
                 response.setStatus("REJECTED");
                 response.setError("No available trucks");
-                logger.warn("Shipment request rejected: No available trucks");
+                logger.warn("Shipment request rejected: No available trucks and the queue is full");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.setStatus("REJECTED");
+            response.setError("Interrupted while waiting for an available truck");
+            logger.warn("Shipment request interrupted while waiting for a truck");
         } catch (Exception e) {
             response.setStatus("REJECTED");
             response.setError("Error processing shipment: " + e.getMessage());
@@ -147,6 +142,115 @@ public class ShipmentServiceImpl implements ShipmentService {
         return response;
     }
     
+    @Override
+    @Transactional
+    public boolean dispatchQueued(PendingShipment pending, boolean joinOnly) {
+        try {
+            CreateShipmentRequest request = objectMapper.readValue(pending.getRequest(), CreateShipmentRequest.class);
+            PickupConsolidator.Assignment assignment = createShipment(request, joinOnly ? -1 : 0);
+            if (assignment == null) {
+                return false;
+            }
+            pendingShipmentRepository.delete(pending);
+            logger.info("Dispatched queued package ID: {} to truck ID: {}", 
+                    pending.getPackageId(), assignment.getTruckId());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable queued shipment for package " + pending.getPackageId(), e);
+        }
+    }
+    
+    @Override
+    @Transactional
+    public void rejectQueued(PendingShipment pending, String reason) {
+        pendingShipmentRepository.delete(pending);
+        
+        // The package was never created; Amazon only needs its ID
+        Package pkg = new Package();
+        pkg.setId(pending.getPackageId());
+        amazonNotificationService.sendStatusUpdate(pkg, null, "REJECTED", "Shipment could not be dispatched: " + reason);
+        logger.warn("Rejected queued package ID: {}: {}", pending.getPackageId(), reason);
+    }
+    
+    /**
+     * Put the package on a truck and create it
+     * @param waitMillis How long to wait for an idle truck, or a negative value to only join an existing trip
+     * @return The assignment, or null if no truck is available
+     */
+    private PickupConsolidator.Assignment createShipment(CreateShipmentRequest request, long waitMillis)
+            throws InterruptedException {
+        CreateShipmentRequest.ShipmentInfo info = request.getShipmentInfo();
+        
+        // 1. Find or create warehouse
+        Warehouse warehouse = findOrCreateWarehouse(
+            info.getWarehouseId(),
+            info.getDestination().getX(),
+            info.getDestination().getY()
+        );
+        
+        // 2. Find user if ups_account_name is provided
+        User user = null;
+        if (info.getUpsAccountName() != null && !info.getUpsAccountName().isEmpty()) {
+            Optional<User> userOpt = userRepository.findByUsername(info.getUpsAccountName());
+            user = userOpt.orElse(null);
+            
+            if (user == null) {
+                logger.warn("UPS account name provided but user not found: {}", info.getUpsAccountName());
+            }
+        }
+        
+        // 3. Put the package on a truck already bound for this warehouse, or claim the nearest idle one
+        PickupConsolidator.Assignment assignment = waitMillis < 0
+                ? pickupConsolidator.join(warehouse.getId())
+                : pickupConsolidator.assign(warehouse.getId(), warehouse.getX(), warehouse.getY(), waitMillis);
+        if (assignment == null) {
+            return null;
+        }
+        
+        try {
+            // Only the foreign key is needed, so no SELECT for the truck row
+            Truck truck = truckRepository.getReferenceById(assignment.getTruckId());
+            
+            // 4. Create package entity
+            Package pkg = new Package();
+            pkg.setId(info.getPackageId());
+            pkg.setWarehouse(warehouse);
+            pkg.setUser(user);
+            pkg.setDestinationX(info.getDestination().getX());
+            pkg.setDestinationY(info.getDestination().getY());
+            pkg.setStatus(PackageStatus.ASSIGNED);
+            pkg.setTruck(truck);
+            
+            // 5. Save package
+            packageRepository.save(pkg);
+            
+            // 6. Add items to package
+            if (info.getItems() != null) {
+                for (CreateShipmentRequest.Item item : info.getItems()) {
+                    PackageItem packageItem = new PackageItem();
+                    packageItem.setProductId(item.getProductId());
+                    packageItem.setDescription(item.getDescription());
+                    packageItem.setCount(item.getCount());
+                    packageItem.setPkg(pkg);
+                    packageItemRepository.save(packageItem);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Give the truck back so it can take the next request
+            pickupConsolidator.release(assignment);
+            throw e;
+        }
+        return assignment;
+    }
+    
+    private void setQueued(CreateShipmentResponse response, PendingShipment pending) {
+        response.setStatus("QUEUED");
+        response.setQueuePosition(pendingShipmentRepository.countByIdLessThan(pending.getId()) + 1);
+    }
+    
     private Warehouse findOrCreateWarehouse(Integer warehouseId, Integer x, Integer y) {
         return warehouseRepository.findById(warehouseId)
                 .orElseGet(() -> {
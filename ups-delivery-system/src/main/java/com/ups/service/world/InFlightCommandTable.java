@@ -0,0 +1,179 @@
+package com.ups.service.world;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free table of commands sent to the World Simulator that have not been acked yet.
+ * Entries are keyed by their primitive seqnum in an open-addressed array, so lookups never box.
+ * Because seqnums are handed out in order, slot = seqnum & mask almost never collides
+ * until more than capacity commands are outstanding at once.
+ */
+public class InFlightCommandTable {
+
+    // Marks a removed slot so probe chains through it stay intact
+    private static final Entry TOMBSTONE = new Entry(Long.MIN_VALUE, null, 0L);
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger maxProbe = new AtomicInteger();
+
+    /**
+     * Create a table
+     * @param capacity The maximum number of outstanding commands, rounded up to a power of two
+     */
+    public InFlightCommandTable(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        int rounded = Integer.highestOneBit(capacity);
+        if (rounded < capacity) {
+            rounded <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(rounded);
+        this.mask = rounded - 1;
+    }
+
+    /**
+     * Add an entry
+     * @param entry The in-flight entry
+     * @return true if it was added, false if the table is full
+     */
+    public boolean put(Entry entry) {
+        int start = (int) (entry.seqNum & mask);
+        for (int probe = 0; probe <= mask; probe++) {
+            int index = (start + probe) & mask;
+            Entry current = slots.get(index);
+            if ((current == null || current == TOMBSTONE) && slots.compareAndSet(index, current, entry)) {
+                size.incrementAndGet();
+                maxProbe.accumulateAndGet(probe, Math::max);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Look up an entry by seqnum
+     * @param seqNum The sequence number
+     * @return The entry, or null if it is not in flight
+     */
+    public Entry get(long seqNum) {
+        int index = find(seqNum);
+        return index < 0 ? null : slots.get(index);
+    }
+
+    /**
+     * Remove an entry by seqnum
+     * @param seqNum The sequence number
+     * @return The removed entry, or null if it was not in flight
+     */
+    public Entry remove(long seqNum) {
+        int index = find(seqNum);
+        if (index < 0) {
+            return null;
+        }
+
+        Entry current = slots.get(index);
+        if (current != TOMBSTONE && current != null && current.seqNum == seqNum
+                && slots.compareAndSet(index, current, TOMBSTONE)) {
+            size.decrementAndGet();
+            return current;
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of commands in flight
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get the number of slots in the table
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Visit every in-flight entry (weakly consistent with concurrent updates)
+     * @param action The action to apply
+     */
+    public void forEach(Consumer<Entry> action) {
+        for (int i = 0; i <= mask; i++) {
+            Entry entry = slots.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a seqnum. A probe chain ends at a never-used slot, or after the
+     * longest displacement any insert has needed.
+     */
+    private int find(long seqNum) {
+        int start = (int) (seqNum & mask);
+        int limit = maxProbe.get();
+        for (int probe = 0; probe <= limit; probe++) {
+            int index = (start + probe) & mask;
+            Entry current = slots.get(index);
+            if (current == null) {
+                return -1;
+            }
+            if (current != TOMBSTONE && current.seqNum == seqNum) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A command waiting for its ack, with its resend bookkeeping
+     */
+    public static final class Entry {
+        private final long seqNum;
+        private final WorldCommand command;
+        private final long firstSentNanos;
+        private volatile int attempts = 1;
+        private volatile long deadlineNanos;
+
+        public Entry(long seqNum, WorldCommand command, long firstSentNanos) {
+            this.seqNum = seqNum;
+            this.command = command;
+            this.firstSentNanos = firstSentNanos;
+        }
+
+        public long getSeqNum() {
+            return seqNum;
+        }
+
+        public WorldCommand getCommand() {
+            return command;
+        }
+
+        public long getFirstSentNanos() {
+            return firstSentNanos;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        void setDeadlineNanos(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.ups.service.world;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import com.ups.WorldUpsProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking transport: a SocketChannel driven by one selector thread that does all reads
+ * and writes. Callers only queue messages, so request threads never block on the socket.
+ * Frames are decoded from and encoded into direct buffers, and queued messages are written
+ * with a single gathering write per flush. Only the handshake, before the channel is registered
+ * with the selector, is written on the caller's thread.
+ */
+public class NioWorldTransport implements WorldTransport {
+    private static final Logger logger = LoggerFactory.getLogger(NioWorldTransport.class);
+
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Most messages queued in one gathering write
+    static final int MAX_GATHER = 64;
+
+    private static final int MIN_WRITE_BUFFER_SIZE = 4096;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private Thread selectorThread;
+    private volatile boolean reading;
+    // Set once the channel is registered; from then on only the selector thread writes
+    private volatile boolean registered;
+    private volatile boolean closed;
+    private volatile WorldResponseListener listener;
+    private Consumer<IOException> connectionLostHandler;
+
+    // Kept in fill mode between reads
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    // Size of the incomplete frame at the head of the read buffer, 0 if unknown
+    private int pendingFrameSize;
+
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    // One reusable direct buffer per gather slot; [writeOffset, writeCount) is still being written
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_GATHER];
+    // The future of the message in each gather slot, completed once its buffer is fully written
+    @SuppressWarnings("unchecked")
+    private final CompletableFuture<Void>[] writeFutures = new CompletableFuture[MAX_GATHER];
+    private int writeOffset;
+    private int writeCount;
+
+    @Override
+    public void connect(String host, int port) throws IOException {
+        // Stay blocking for the handshake; startReading switches to the selector
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.closed = false;
+    }
+
+    /**
+     * A message queued for the selector thread and the future of its write
+     */
+    private static final class PendingWrite {
+        private final Message message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> send(Message message) throws IOException {
+        if (closed || !isConnected()) {
+            throw new IOException("Channel is not connected");
+        }
+
+        if (!registered) {
+            // startReading holds the same lock, so a handshake write never overlaps the switch to the selector
+            synchronized (this) {
+                if (!registered) {
+                    ByteBuffer frame = writeBuffers[0] = encode(message, writeBuffers[0]);
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                }
+            }
+        }
+
+        // The selector thread owns the channel now
+        PendingWrite write = new PendingWrite(message);
+        pendingWrites.add(write);
+        selector.wakeup();
+        if (!reading && pendingWrites.remove(write)) {
+            // Closed or lost while queueing; nothing will write it
+            write.future.completeExceptionally(new IOException("Channel is not connected"));
+        }
+        return write.future;
+    }
+
+    @Override
+    public synchronized <T extends Message> T receive(Parser<T> parser) throws IOException {
+        if (reading) {
+            throw new IllegalStateException("Cannot receive directly once the selector owns the channel");
+        }
+        if (!isConnected()) {
+            throw new IOException("Channel is not connected");
+        }
+
+        while (true) {
+            readBuffer.flip();
+            T message;
+            try {
+                message = nextFrame(parser);
+            } finally {
+                readBuffer.compact();
+            }
+            if (message != null) {
+                return message;
+            }
+
+            ensureReadCapacity();
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException("World Simulator connection closed");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void startReading(WorldResponseListener listener, Consumer<IOException> connectionLostHandler) {
+        if (reading) {
+            logger.warn("NIO transport is already reading");
+            return;
+        }
+
+        try {
+            this.listener = listener;
+            this.connectionLostHandler = connectionLostHandler;
+            this.selector = Selector.open();
+            channel.configureBlocking(false);
+            this.key = channel.register(selector, SelectionKey.OP_READ);
+
+            // Bytes buffered behind the handshake belong to the listener
+            deliverBufferedFrames();
+
+            this.reading = true;
+            this.registered = true;
+            selectorThread = new Thread(this::runSelector, "WorldNioSelector");
+            selectorThread.setDaemon(true);
+            selectorThread.start();
+            logger.info("Started World NIO selector thread");
+        } catch (IOException e) {
+            logger.error("Failed to start NIO selector: {}", e.getMessage());
+            reading = false;
+        }
+    }
+
+    @Override
+    public void stopReading() {
+        // Keep the selector running so queued writes still go out; just stop delivering
+        listener = null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        reading = false;
+        if (selector != null) {
+            selector.wakeup();
+            try {
+                if (selectorThread != null) {
+                    selectorThread.join(5000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for selector thread to stop");
+            }
+            try {
+                // Deregisters the channel so it can go back to blocking mode
+                selector.close();
+            } catch (IOException e) {
+                logger.warn("Error closing selector: {}", e.getMessage());
+            }
+        }
+
+        try {
+            // Write whatever was queued before close, such as the disconnect command
+            if (channel != null && channel.isOpen()) {
+                channel.configureBlocking(true);
+                while (writeOffset < writeCount || !pendingWrites.isEmpty()) {
+                    writeGather();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Error flushing queued writes on close: {}", e.getMessage());
+        } finally {
+            closeChannel();
+            failPendingWrites(new IOException("Channel closed"));
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null && channel.isOpen() && channel.isConnected();
+    }
+
+    /**
+     * Get the number of messages waiting for the selector thread to write them
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size() + (writeCount - writeOffset);
+    }
+
+    /**
+     * Selector loop: reads and decodes frames as they arrive and writes queued messages
+     */
+    private void runSelector() {
+        logger.info("World NIO selector thread started");
+
+        try {
+            while (reading) {
+                selector.select();
+                if (!reading) {
+                    break;
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey selected = keys.next();
+                    keys.remove();
+                    if (selected.isValid() && selected.isReadable()) {
+                        readFrames();
+                    }
+                }
+
+                // Writes are driven by wakeups from send() as well as OP_WRITE
+                if (reading && key.isValid() && (writeOffset < writeCount || !pendingWrites.isEmpty())) {
+                    flushWrites();
+                }
+            }
+        } catch (IOException e) {
+            if (reading) {
+                logger.error("World NIO connection failed: {}", e.getMessage());
+                connectionLost(e);
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected error in selector thread: {}", e.getMessage(), e);
+            connectionLost(new IOException("Selector thread failed", e));
+        }
+
+        logger.info("World NIO selector thread stopping");
+    }
+
+    private void connectionLost(IOException cause) {
+        reading = false;
+        closeChannel();
+        failPendingWrites(cause);
+        if (connectionLostHandler != null) {
+            connectionLostHandler.accept(cause);
+        }
+    }
+
+    /**
+     * Read what is available and hand every complete frame to the listener
+     */
+    private void readFrames() throws IOException {
+        ensureReadCapacity();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            throw new EOFException("World Simulator connection closed");
+        }
+        deliverBufferedFrames();
+    }
+
+    private void deliverBufferedFrames() throws InvalidProtocolBufferException {
+        readBuffer.flip();
+        try {
+            WorldUpsProto.UResponses response;
+            while ((response = nextFrame(WorldUpsProto.UResponses.parser())) != null) {
+                WorldResponseListener current = listener;
+                if (current == null) {
+                    logger.debug("Dropping response received after reading stopped");
+                    continue;
+                }
+                try {
+                    current.handleResponse(response);
+                } catch (Exception e) {
+                    logger.error("Error handling response from World Simulator: {}", e.getMessage(), e);
+                }
+            }
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Decode one frame from the read buffer, which must be in drain mode
+     * @return The message, or null if the whole frame has not arrived yet (position is left unchanged)
+     */
+    private <T extends Message> T nextFrame(Parser<T> parser) throws InvalidProtocolBufferException {
+        int start = readBuffer.position();
+        int size = 0;
+        int shift = 0;
+        while (true) {
+            if (!readBuffer.hasRemaining()) {
+                readBuffer.position(start);
+                return null;
+            }
+            byte b = readBuffer.get();
+            size |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift >= 35) {
+                throw new InvalidProtocolBufferException("Malformed varint frame length");
+            }
+        }
+        if (size < 0 || size > WorldFrameReader.MAX_FRAME_SIZE) {
+            throw new InvalidProtocolBufferException("Invalid frame size: " + size);
+        }
+
+        if (readBuffer.remaining() < size) {
+            pendingFrameSize = readBuffer.position() - start + size;
+            readBuffer.position(start);
+            return null;
+        }
+
+        T message = parser.parseFrom(readBuffer.slice(readBuffer.position(), size));
+        readBuffer.position(readBuffer.position() + size);
+        pendingFrameSize = 0;
+        return message;
+    }
+
+    /**
+     * Grow the read buffer when the frame being assembled will not fit
+     */
+    private void ensureReadCapacity() {
+        if (pendingFrameSize <= readBuffer.capacity()) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(pendingFrameSize, readBuffer.capacity() * 2));
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+    }
+
+    /**
+     * Write queued messages until the socket buffer fills, then wait for OP_WRITE
+     */
+    private void flushWrites() throws IOException {
+        while (writeOffset < writeCount || !pendingWrites.isEmpty()) {
+            writeGather();
+            if (writeOffset < writeCount) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Encode up to MAX_GATHER queued messages if the previous gather is done,
+     * then issue one gathering write for whatever is outstanding
+     */
+    private void writeGather() throws IOException {
+        if (writeOffset == writeCount) {
+            writeOffset = 0;
+            writeCount = 0;
+            PendingWrite write;
+            while (writeCount < MAX_GATHER && (write = pendingWrites.poll()) != null) {
+                writeFutures[writeCount] = write.future;
+                writeBuffers[writeCount] = encode(write.message, writeBuffers[writeCount]);
+                writeCount++;
+            }
+            if (writeCount == 0) {
+                return;
+            }
+        }
+
+        channel.write(writeBuffers, writeOffset, writeCount - writeOffset);
+        while (writeOffset < writeCount && !writeBuffers[writeOffset].hasRemaining()) {
+            CompletableFuture<Void> written = writeFutures[writeOffset];
+            writeFutures[writeOffset] = null;
+            writeOffset++;
+            written.complete(null);
+        }
+    }
+
+    /**
+     * Fail every message not yet fully written
+     */
+    private void failPendingWrites(IOException cause) {
+        for (int i = writeOffset; i < writeCount; i++) {
+            if (writeFutures[i] != null) {
+                writeFutures[i].completeExceptionally(cause);
+                writeFutures[i] = null;
+            }
+        }
+        writeOffset = 0;
+        writeCount = 0;
+        PendingWrite write;
+        while ((write = pendingWrites.poll()) != null) {
+            write.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Encode a varint length prefix and the message into a direct buffer, reusing it if large enough
+     * @return The buffer, flipped and ready to write
+     */
+    private static ByteBuffer encode(Message message, ByteBuffer reuse) throws IOException {
+        int size = message.getSerializedSize();
+        int total = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+
+        ByteBuffer buffer = reuse;
+        if (buffer == null || buffer.capacity() < total) {
+            buffer = ByteBuffer.allocateDirect(Math.max(total, MIN_WRITE_BUFFER_SIZE));
+        }
+        buffer.clear();
+
+        CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        out.writeUInt32NoTag(size);
+        message.writeTo(out);
+        out.flush();
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Error closing channel: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ups.service.world;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Blocking transport: a plain socket, synchronous writes on the caller's thread
+ * and a WorldResponseListener thread blocked on reads
+ */
+public class SocketWorldTransport implements WorldTransport {
+    private static final Logger logger = LoggerFactory.getLogger(SocketWorldTransport.class);
+
+    private Socket socket;
+    private WorldFrameReader frameReader;
+    private WorldResponseListener listener;
+
+    @Override
+    public void connect(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+
+        // One frame reader per connection, shared by the handshake and the listener
+        this.frameReader = new WorldFrameReader(socket.getInputStream());
+    }
+
+    /**
+     * Synchronized so batched commands and direct control messages never interleave on the socket
+     */
+    @Override
+    public synchronized CompletableFuture<Void> send(Message message) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("Socket is not connected");
+        }
+
+        OutputStream out = socket.getOutputStream();
+        byte[] data = message.toByteArray();
+
+        // Create a CodedOutputStream to handle writing the message
+        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+
+        // Write the message size as a Varint32
+        codedOut.writeUInt32NoTag(data.length);
+
+        // Write the message data
+        codedOut.writeRawBytes(data);
+
+        // Flush the stream
+        codedOut.flush();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public <T extends Message> T receive(Parser<T> parser) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("Socket is not connected");
+        }
+        return frameReader.readFrame(parser);
+    }
+
+    @Override
+    public void startReading(WorldResponseListener listener, Consumer<IOException> connectionLostHandler) {
+        this.listener = listener;
+        listener.startListening(socket, frameReader, connectionLostHandler);
+    }
+
+    @Override
+    public void stopReading() {
+        if (listener != null) {
+            listener.stopListening();
+            listener = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Error closing socket: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket != null && !socket.isClosed() && socket.isConnected();
+    }
+}
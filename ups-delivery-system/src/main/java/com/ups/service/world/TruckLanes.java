@@ -0,0 +1,218 @@
+package com.ups.service.world;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered processing lanes for World Simulator events.
+ * Every event for a truck goes to the same lane, so events for one truck run in arrival order,
+ * while events for trucks in different lanes run in parallel, one thread per lane.
+ */
+public class TruckLanes {
+    private static final Logger logger = LoggerFactory.getLogger(TruckLanes.class);
+
+    /**
+     * Processes the events a lane has drained, in order
+     */
+    @FunctionalInterface
+    public interface EventProcessor {
+        void process(List<Event> events);
+    }
+
+    /**
+     * One unit of work for a lane
+     */
+    public static final class Event {
+        private final int truckId;
+        private final Object payload;
+        private final long enqueuedNanos;
+        private final CountDownLatch barrier;
+
+        Event(int truckId, Object payload, CountDownLatch barrier) {
+            this.truckId = truckId;
+            this.payload = payload;
+            this.enqueuedNanos = System.nanoTime();
+            this.barrier = barrier;
+        }
+
+        public int getTruckId() {
+            return truckId;
+        }
+
+        public Object getPayload() {
+            return payload;
+        }
+
+        public long getEnqueuedNanos() {
+            return enqueuedNanos;
+        }
+    }
+
+    private final Lane[] lanes;
+    private final EventProcessor processor;
+    private final int maxDrain;
+    private volatile boolean running;
+
+    /**
+     * Create the lanes
+     * @param laneCount Number of lanes (and threads)
+     * @param maxDrain Most events a lane hands to the processor at once
+     * @param processor Processes drained events on the lane's thread
+     * @param meterRegistry Registry for per-lane depth and latency
+     */
+    public TruckLanes(int laneCount, int maxDrain, EventProcessor processor, MeterRegistry meterRegistry) {
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        this.maxDrain = Math.max(1, maxDrain);
+        this.processor = processor;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i, meterRegistry);
+        }
+    }
+
+    /**
+     * Start one thread per lane
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Lane lane : lanes) {
+            lane.thread = new Thread(lane::run, "WorldLane-" + lane.index);
+            lane.thread.setDaemon(true);
+            lane.thread.start();
+        }
+        logger.info("Started {} World response lanes", lanes.length);
+    }
+
+    /**
+     * Stop the lane threads; events still queued are dropped
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Lane lane : lanes) {
+            if (lane.thread != null && lane.thread != Thread.currentThread()) {
+                lane.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue an event on the lane owning its truck
+     * @param truckId The truck the event is about
+     * @param payload The event
+     */
+    public void submit(int truckId, Object payload) {
+        lanes[laneFor(truckId)].queue.add(new Event(truckId, payload, null));
+    }
+
+    /**
+     * Wait until every event submitted so far has been processed.
+     * Used before work that touches many trucks at once.
+     * @return false if the wait was interrupted or the lanes stopped first
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        CountDownLatch barrier = new CountDownLatch(lanes.length);
+        for (Lane lane : lanes) {
+            lane.queue.add(new Event(-1, null, barrier));
+        }
+        return barrier.await(timeout, unit);
+    }
+
+    /**
+     * Get the lane index for a truck
+     */
+    public int laneFor(int truckId) {
+        return Math.floorMod(truckId, lanes.length);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Get the number of events waiting in a lane
+     */
+    public int getDepth(int lane) {
+        return lanes[lane].queue.size();
+    }
+
+    private final class Lane {
+        private final int index;
+        private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+        private final Timer latency;
+        private Thread thread;
+
+        Lane(int index, MeterRegistry meterRegistry) {
+            this.index = index;
+            List<Tag> tags = List.of(Tag.of("lane", Integer.toString(index)));
+            Gauge.builder("ups.world.lane.depth", queue, BlockingQueue::size)
+                    .tags(tags)
+                    .description("World events waiting in a response lane")
+                    .register(meterRegistry);
+            this.latency = Timer.builder("ups.world.lane.latency")
+                    .tags(tags)
+                    .description("Time from queueing a World event to finishing it")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+        }
+
+        void run() {
+            List<Event> drained = new ArrayList<>(maxDrain);
+            List<Event> batch = new ArrayList<>(maxDrain);
+            while (running) {
+                try {
+                    drained.add(queue.take());
+                    queue.drainTo(drained, maxDrain - 1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                // Barriers split the drained events so everything before them finishes first
+                for (Event event : drained) {
+                    if (event.barrier == null) {
+                        batch.add(event);
+                    } else {
+                        processBatch(batch);
+                        event.barrier.countDown();
+                    }
+                }
+                processBatch(batch);
+                drained.clear();
+            }
+        }
+
+        private void processBatch(List<Event> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                processor.process(batch);
+            } catch (Exception e) {
+                logger.error("Error processing events in lane {}", index, e);
+            }
+            long now = System.nanoTime();
+            for (Event event : batch) {
+                latency.record(now - event.enqueuedNanos, TimeUnit.NANOSECONDS);
+            }
+            batch.clear();
+        }
+    }
+}
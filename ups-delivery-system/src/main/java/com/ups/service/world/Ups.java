@@ -1,5 +1,6 @@
 package com.ups.service.world;
 
+import com.ups.WorldUpsProto;
 import com.ups.model.Location;
 import com.ups.model.entity.Package;
 import com.ups.model.entity.PackageStatus;
@@ -7,6 +8,7 @@ import com.ups.model.entity.Truck;
 import com.ups.model.entity.TruckStatus;
 import com.ups.repository.PackageRepository;
 import com.ups.repository.TruckRepository;
+import com.ups.service.fleet.FleetState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +20,7 @@ import org.springframework.transaction.annotation.Transactional;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -34,6 +37,8 @@ public class Ups {
     private final PackageRepository packageRepository;
     private final WorldResponseListener responseListener;
     private final WorldResponseHandler responseHandler;
+    private final WorldConnectionSupervisor connectionSupervisor;
+    private final FleetState fleetState;
     
     @Value("${ups.world.host:localhost}")
     private String worldHost;
@@ -58,12 +63,16 @@ public class Ups {
                PackageRepository packageRepository,
                WorldResponseListener responseListener,
                WorldResponseHandler responseHandler,
-               WorldConnector worldConnector) {
+               WorldConnector worldConnector,
+               WorldConnectionSupervisor connectionSupervisor,
+               FleetState fleetState) {
         this.truckRepository = truckRepository;
         this.packageRepository = packageRepository;
         this.responseListener = responseListener;
         this.responseHandler = responseHandler;
         this.worldConnector = worldConnector;
+        this.connectionSupervisor = connectionSupervisor;
+        this.fleetState = fleetState;
     }
     
     /**
@@ -79,6 +88,16 @@ public class Ups {
                 createInitialTrucks();
                 trucks = truckRepository.findAll();
             }
+            fleetState.load(trucks);
+            
+            // Restore the simulation speed whenever a broken connection is resumed
+            connectionSupervisor.addReconnectListener(() -> {
+                try {
+                    worldConnector.setSimulationSpeed(worldSimSpeed);
+                } catch (IOException e) {
+                    logger.warn("Failed to restore simulation speed after reconnect: {}", e.getMessage());
+                }
+            });
             
             // Connect to world simulator
             try {
@@ -104,7 +123,9 @@ public class Ups {
                 if (isTestEnvironment()) {
                     logger.warn("Running in test environment - continuing without world connection");
                 } else {
-                    throw e; // Re-throw in production environment
+                    // Keep retrying in the background rather than running without a world
+                    logger.warn("Will keep retrying the World Simulator connection in the background");
+                    worldConnector.connectionLost(e);
                 }
             }
             
@@ -130,7 +151,7 @@ public class Ups {
             responseHandler.stop();
             
             // Disconnect from world simulator
-            if (worldConnector != null && worldConnector.isConnected()) {
+            if (worldConnector != null && worldConnector.isSessionActive()) {
                 worldConnector.disconnect();
                 logger.info("Disconnected from world simulator");
             }
@@ -176,11 +197,17 @@ public class Ups {
             // Update truck status
             truck.setStatus(TruckStatus.TRAVELING);
             truckRepository.save(truck);
+            fleetState.trackAfterCommit(truck);
             
             // Send command to world simulator
-            if (worldConnector != null && worldConnector.isConnected()) {
-                worldConnector.pickup(truckId, warehouseId);
-                logger.info("Sent truck {} to warehouse {}", truckId, warehouseId);
+            if (worldConnector != null && worldConnector.isSessionActive()) {
+                worldConnector.pickup(truckId, warehouseId).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        logger.error("Failed to send truck {} to warehouse {}: {}", truckId, warehouseId, ex.getMessage());
+                    } else {
+                        logger.info("Sent truck {} to warehouse {}", truckId, warehouseId);
+                    }
+                });
             } else {
                 logger.warn("Not connected to world simulator. Database updated but command not sent.");
             }
@@ -218,6 +245,7 @@ public class Ups {
             // Update truck status
             truck.setStatus(TruckStatus.DELIVERING);
             truckRepository.save(truck);
+            fleetState.trackAfterCommit(truck);
             
             // Update package status and destination
             pkg.setStatus(PackageStatus.DELIVERING);
@@ -227,10 +255,63 @@ public class Ups {
             packageRepository.save(pkg);
             
             // Send command to world simulator
-            if (worldConnector != null && worldConnector.isConnected()) {
-                worldConnector.deliver(truckId, packageId, destination);
-                logger.info("Sent truck {} to deliver package {} to ({},{})", 
-                        truckId, packageId, destination.getX(), destination.getY());
+            if (worldConnector != null && worldConnector.isSessionActive()) {
+                worldConnector.deliver(truckId, packageId, destination).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        logger.error("Failed to send truck {} to deliver package {}: {}", truckId, packageId, ex.getMessage());
+                    } else {
+                        logger.info("Sent truck {} to deliver package {} to ({},{})", 
+                                truckId, packageId, destination.getX(), destination.getY());
+                    }
+                });
+            } else {
+                logger.warn("Not connected to world simulator. Database updated but command not sent.");
+            }
+        } catch (IOException e) {
+            logger.error("Failed to send truck to deliver: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Send a truck to deliver several packages in one trip
+     * @param truckId The ID of the truck
+     * @param route The packages on the truck, in the order they should be delivered
+     */
+    @Transactional
+    public void sendTruckToDeliver(int truckId, List<Package> route) {
+        try {
+            Optional<Truck> truckOpt = truckRepository.findById(truckId);
+            if (truckOpt.isEmpty()) {
+                logger.error("Truck with ID {} not found", truckId);
+                return;
+            }
+            
+            Truck truck = truckOpt.get();
+            truck.setStatus(TruckStatus.DELIVERING);
+            truckRepository.save(truck);
+            fleetState.trackAfterCommit(truck);
+            
+            List<WorldUpsProto.UDeliveryLocation> stops = new ArrayList<>(route.size());
+            for (Package pkg : route) {
+                pkg.setStatus(PackageStatus.DELIVERING);
+                pkg.setTruck(truck);
+                stops.add(WorldUpsProto.UDeliveryLocation.newBuilder()
+                        .setPackageid(pkg.getId())
+                        .setX(pkg.getDestinationX())
+                        .setY(pkg.getDestinationY())
+                        .build());
+            }
+            packageRepository.saveAll(route);
+            
+            // Send command to world simulator
+            if (worldConnector != null && worldConnector.isSessionActive()) {
+                worldConnector.deliver(truckId, stops).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        logger.error("Failed to send truck {} to deliver {} packages: {}", truckId, stops.size(), ex.getMessage());
+                    } else {
+                        logger.info("Sent truck {} to deliver {} packages", truckId, stops.size());
+                    }
+                });
             } else {
                 logger.warn("Not connected to world simulator. Database updated but command not sent.");
             }
@@ -246,16 +327,20 @@ public class Ups {
     public void queryTruckStatus(int truckId) {
         try {
             // Find the truck
-            Optional<Truck> truckOpt = truckRepository.findById(truckId);
-            if (truckOpt.isEmpty()) {
+            if (fleetState.get(truckId) == null) {
                 logger.error("Truck with ID {} not found", truckId);
                 return;
             }
             
             // Send command to world simulator
-            if (worldConnector != null && worldConnector.isConnected()) {
-                worldConnector.queryTruckStatus(truckId);
-                logger.info("Queried status for truck {}", truckId);
+            if (worldConnector != null && worldConnector.isSessionActive()) {
+                worldConnector.queryTruckStatus(truckId).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        logger.error("Failed to query truck {} status: {}", truckId, ex.getMessage());
+                    } else {
+                        logger.info("Queried status for truck {}", truckId);
+                    }
+                });
             } else {
                 logger.warn("Not connected to world simulator. Query command not sent.");
             }
@@ -274,13 +359,11 @@ public class Ups {
         }
         
         // Find all trucks that are not idle
-        List<Truck> activeTrucks = truckRepository.findByStatusNot(TruckStatus.IDLE);
-        
-        for (Truck truck : activeTrucks) {
+        for (int truckId : fleetState.getActiveTruckIds()) {
             try {
-                queryTruckStatus(truck.getId());
+                queryTruckStatus(truckId);
             } catch (Exception e) {
-                logger.error("Error checking status for truck {}: {}", truck.getId(), e.getMessage());
+                logger.error("Error checking status for truck {}: {}", truckId, e.getMessage());
             }
         }
     }
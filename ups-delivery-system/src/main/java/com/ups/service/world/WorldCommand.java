@@ -0,0 +1,103 @@
+package com.ups.service.world;
+
+import com.google.protobuf.Message;
+import com.ups.WorldUpsProto;
+
+/**
+ * A single sequenced command destined for the World Simulator
+ */
+public class WorldCommand {
+
+    /**
+     * The kind of command, which decides where it goes in a UCommands message
+     */
+    public enum Type {
+        PICKUP,
+        DELIVER,
+        QUERY
+    }
+
+    private final Type type;
+    private final long seqNum;
+    private final int truckId;
+    private final Message payload;
+
+    private WorldCommand(Type type, long seqNum, int truckId, Message payload) {
+        this.type = type;
+        this.seqNum = seqNum;
+        this.truckId = truckId;
+        this.payload = payload;
+    }
+
+    /**
+     * Wrap a pickup command
+     * @param pickup The UGoPickup message
+     * @return The command
+     */
+    public static WorldCommand pickup(WorldUpsProto.UGoPickup pickup) {
+        return new WorldCommand(Type.PICKUP, pickup.getSeqnum(), pickup.getTruckid(), pickup);
+    }
+
+    /**
+     * Wrap a delivery command
+     * @param delivery The UGoDeliver message
+     * @return The command
+     */
+    public static WorldCommand deliver(WorldUpsProto.UGoDeliver delivery) {
+        return new WorldCommand(Type.DELIVER, delivery.getSeqnum(), delivery.getTruckid(), delivery);
+    }
+
+    /**
+     * Wrap a truck status query
+     * @param query The UQuery message
+     * @return The command
+     */
+    public static WorldCommand query(WorldUpsProto.UQuery query) {
+        return new WorldCommand(Type.QUERY, query.getSeqnum(), query.getTruckid(), query);
+    }
+
+    /**
+     * Add this command to a UCommands message being built
+     * @param builder The UCommands builder
+     */
+    public void appendTo(WorldUpsProto.UCommands.Builder builder) {
+        switch (type) {
+            case PICKUP:
+                builder.addPickups((WorldUpsProto.UGoPickup) payload);
+                break;
+            case DELIVER:
+                builder.addDeliveries((WorldUpsProto.UGoDeliver) payload);
+                break;
+            case QUERY:
+                builder.addQueries((WorldUpsProto.UQuery) payload);
+                break;
+            default:
+                throw new IllegalStateException("Unknown command type: " + type);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getSeqNum() {
+        return seqNum;
+    }
+
+    public int getTruckId() {
+        return truckId;
+    }
+
+    public Message getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "WorldCommand{" +
+                "type=" + type +
+                ", seqNum=" + seqNum +
+                ", truckId=" + truckId +
+                '}';
+    }
+}
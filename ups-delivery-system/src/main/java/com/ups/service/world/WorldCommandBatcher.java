@@ -0,0 +1,248 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues outgoing World Simulator commands and acknowledgements and merges them into
+ * a single UCommands message per flush window, so a burst of commands costs one frame
+ */
+@Component
+public class WorldCommandBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(WorldCommandBatcher.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final long DEFAULT_LINGER_MS = 5;
+
+    /**
+     * Writes a merged UCommands message to the World Simulator
+     */
+    @FunctionalInterface
+    public interface CommandSink {
+        /**
+         * @return A future that completes once the message is on the wire
+         */
+        CompletableFuture<Void> send(WorldUpsProto.UCommands commands) throws IOException;
+    }
+
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<PendingEntry> queue = new LinkedBlockingQueue<>();
+    private volatile CommandSink sink;
+    private volatile boolean running;
+    private Thread sendThread;
+
+    public WorldCommandBatcher() {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER_MS);
+    }
+
+    @Autowired
+    public WorldCommandBatcher(@Value("${ups.world.batch.max-size:100}") int maxBatchSize,
+                               @Value("${ups.world.batch.linger-ms:5}") long lingerMs) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMs));
+    }
+
+    /**
+     * Start the send loop, writing batches to the given sink
+     * @param sink The sink that writes a UCommands frame to the World Simulator
+     */
+    public synchronized void start(CommandSink sink) {
+        this.sink = sink;
+        if (running) {
+            return;
+        }
+
+        running = true;
+        sendThread = new Thread(this::runSendLoop, "WorldCommandBatcher");
+        sendThread.setDaemon(true);
+        sendThread.start();
+        logger.info("Started World command batcher (max batch size {}, linger {} ms)",
+                maxBatchSize, TimeUnit.NANOSECONDS.toMillis(lingerNanos));
+    }
+
+    /**
+     * Stop the send loop after flushing whatever is already queued
+     */
+    @PreDestroy
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = sendThread;
+            sendThread = null;
+        }
+
+        try {
+            thread.join(5000); // The loop drains the queue before it exits
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for command batcher to stop");
+        }
+
+        // Anything still queued can no longer be written
+        List<PendingEntry> leftover = new ArrayList<>();
+        queue.drainTo(leftover);
+        failAll(leftover, new IOException("Command batcher stopped"));
+        sink = null;
+        logger.info("Stopped World command batcher");
+    }
+
+    /**
+     * Queue a command for the next batch
+     * @param command The command to send
+     * @return A future that completes when the batch containing the command has been written
+     */
+    public CompletableFuture<Void> submit(WorldCommand command) {
+        return enqueue(new PendingEntry(command, 0L));
+    }
+
+    /**
+     * Queue an acknowledgement to piggy-back on the next batch
+     * @param seqNum The World Simulator sequence number to acknowledge
+     * @return A future that completes when the batch containing the ack has been written
+     */
+    public CompletableFuture<Void> submitAck(long seqNum) {
+        return enqueue(new PendingEntry(null, seqNum));
+    }
+
+    /**
+     * Get the number of entries waiting for the next flush
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private CompletableFuture<Void> enqueue(PendingEntry entry) {
+        if (!running) {
+            entry.future.completeExceptionally(new IOException("Command batcher is not running"));
+            return entry.future;
+        }
+        queue.add(entry);
+        return entry.future;
+    }
+
+    /**
+     * Main loop: wait for the first entry, linger for more up to the batch size, then flush
+     */
+    private void runSendLoop() {
+        List<PendingEntry> batch = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEntry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEntry next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failAll(batch, new IOException("Command batcher interrupted"));
+                break;
+            } catch (Exception e) {
+                logger.error("Unexpected error in command batcher: {}", e.getMessage(), e);
+                failAll(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Merge the batch into one UCommands message and write it
+     */
+    private void flush(List<PendingEntry> batch) {
+        CommandSink currentSink = sink;
+        if (currentSink == null) {
+            failAll(batch, new IOException("Not connected to World Simulator"));
+            return;
+        }
+
+        WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
+        for (PendingEntry entry : batch) {
+            if (entry.command != null) {
+                entry.command.appendTo(commandsBuilder);
+            } else {
+                commandsBuilder.addAcks(entry.ackSeqNum);
+            }
+        }
+
+        CompletableFuture<Void> written;
+        try {
+            written = currentSink.send(commandsBuilder.build());
+        } catch (IOException e) {
+            logger.error("Failed to write batch of {} commands: {}", batch.size(), e.getMessage());
+            failAll(batch, e);
+            return;
+        }
+
+        // Callers are told once the bytes are written, not when the transport queues them
+        List<PendingEntry> flushed = new ArrayList<>(batch);
+        written.whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("Failed to write batch of {} commands: {}", flushed.size(), error.getMessage());
+                failAll(flushed, error);
+                return;
+            }
+            for (PendingEntry entry : flushed) {
+                entry.future.complete(null);
+            }
+        });
+        logger.debug("Flushed batch of {} entries ({} pickups, {} deliveries, {} queries, {} acks)",
+                batch.size(), commandsBuilder.getPickupsCount(), commandsBuilder.getDeliveriesCount(),
+                commandsBuilder.getQueriesCount(), commandsBuilder.getAcksCount());
+    }
+
+    private void failAll(List<PendingEntry> entries, Throwable cause) {
+        for (PendingEntry entry : entries) {
+            entry.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * A queued command or ack together with the future handed back to the caller
+     */
+    private static final class PendingEntry {
+        private final WorldCommand command;
+        private final long ackSeqNum;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingEntry(WorldCommand command, long ackSeqNum) {
+            this.command = command;
+            this.ackSeqNum = ackSeqNum;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks commands sent to the World Simulator until they are acked, and resends
+ * unacked commands from a hashed timing wheel with exponential backoff
+ */
+@Component
+public class WorldCommandTracker {
+    private static final Logger logger = LoggerFactory.getLogger(WorldCommandTracker.class);
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final WorldCommandBatcher commandBatcher;
+    private final InFlightCommandTable inFlight;
+    private final long initialTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private final long tickNanos;
+    private final Queue<InFlightCommandTable.Entry>[] wheel;
+    private final Timer ackLatency;
+    private final Counter resends;
+    private ScheduledExecutorService ticker;
+    private volatile long lastTick;
+
+    public WorldCommandTracker(WorldCommandBatcher commandBatcher) {
+        this(commandBatcher, new SimpleMeterRegistry(), 65536, 2000, 30000, 100);
+    }
+
+    @Autowired
+    @SuppressWarnings("unchecked")
+    public WorldCommandTracker(WorldCommandBatcher commandBatcher,
+                               MeterRegistry meterRegistry,
+                               @Value("${ups.world.inflight.capacity:65536}") int capacity,
+                               @Value("${ups.world.resend.initial-ms:2000}") long initialTimeoutMs,
+                               @Value("${ups.world.resend.max-ms:30000}") long maxTimeoutMs,
+                               @Value("${ups.world.resend.tick-ms:100}") long tickMs) {
+        this.commandBatcher = commandBatcher;
+        this.inFlight = new InFlightCommandTable(capacity);
+        this.initialTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(initialTimeoutMs);
+        this.maxTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(initialTimeoutMs, maxTimeoutMs));
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        Gauge.builder("ups.world.inflight", inFlight, InFlightCommandTable::size)
+                .description("Commands sent to the World Simulator and not yet acked")
+                .register(meterRegistry);
+        this.ackLatency = Timer.builder("ups.world.ack.latency")
+                .description("Time from first send of a World command to its ack")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.resends = Counter.builder("ups.world.resends")
+                .description("World commands resent because no ack arrived in time")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the timing wheel
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        lastTick = System.nanoTime() / tickNanos;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WorldResendWheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop the timing wheel
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Record a command as in flight so it is resent until acked
+     * @param command The command about to be sent
+     */
+    public void track(WorldCommand command) {
+        long now = System.nanoTime();
+        InFlightCommandTable.Entry entry = new InFlightCommandTable.Entry(command.getSeqNum(), command, now);
+        if (!inFlight.put(entry)) {
+            logger.warn("In-flight table full ({} commands), seqnum {} will not be resent",
+                    inFlight.capacity(), command.getSeqNum());
+            return;
+        }
+        schedule(entry, now + initialTimeoutNanos);
+    }
+
+    /**
+     * Clear every command acked in a response
+     * @param response The response from the World Simulator
+     */
+    public void acknowledge(WorldUpsProto.UResponses response) {
+        for (int i = 0; i < response.getAcksCount(); i++) {
+            acknowledge(response.getAcks(i));
+        }
+    }
+
+    /**
+     * Clear a single acked command
+     * @param seqNum The acked sequence number
+     * @return true if the command was in flight
+     */
+    public boolean acknowledge(long seqNum) {
+        InFlightCommandTable.Entry entry = inFlight.remove(seqNum);
+        if (entry == null) {
+            logger.debug("Ack for seqnum {} matched no in-flight command", seqNum);
+            return false;
+        }
+        ackLatency.record(System.nanoTime() - entry.getFirstSentNanos(), TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Resubmit every unacked command right away, oldest first.
+     * Used after a reconnect, when nothing sent on the old connection can be assumed to have arrived.
+     * @return The number of commands replayed
+     */
+    public int replayAll() {
+        List<InFlightCommandTable.Entry> entries = new ArrayList<>(inFlight.size());
+        inFlight.forEach(entries::add);
+        entries.sort(Comparator.comparingLong(InFlightCommandTable.Entry::getSeqNum));
+
+        for (InFlightCommandTable.Entry entry : entries) {
+            commandBatcher.submit(entry.getCommand()).whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    logger.warn("Replay of seqnum {} failed: {}", entry.getSeqNum(), ex.getMessage());
+                }
+            });
+        }
+        resends.increment(entries.size());
+
+        logger.info("Replayed {} unacked commands", entries.size());
+        return entries.size();
+    }
+
+    /**
+     * Get the number of commands in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Get the ack latency at a given percentile
+     * @param percentile The percentile, e.g. 0.99
+     * @return The latency in milliseconds, or 0 if the percentile is not published
+     */
+    public double getAckLatencyMillis(double percentile) {
+        for (ValueAtPercentile value : ackLatency.takeSnapshot().percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value(TimeUnit.MILLISECONDS);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Process every tick that has elapsed since the last run
+     */
+    private void advance() {
+        try {
+            long now = System.nanoTime();
+            long currentTick = now / tickNanos;
+            while (lastTick < currentTick) {
+                lastTick++;
+                expireBucket(wheel[(int) (lastTick & (WHEEL_SIZE - 1))], now);
+            }
+        } catch (Exception e) {
+            logger.error("Error advancing resend wheel", e);
+        }
+    }
+
+    /**
+     * Resend due entries in a bucket and push the rest back for a later round
+     */
+    private void expireBucket(Queue<InFlightCommandTable.Entry> bucket, long now) {
+        int pending = bucket.size();
+        for (int i = 0; i < pending; i++) {
+            InFlightCommandTable.Entry entry = bucket.poll();
+            if (entry == null) {
+                break;
+            }
+
+            // Skip entries that have been acked since they were scheduled
+            if (inFlight.get(entry.getSeqNum()) != entry) {
+                continue;
+            }
+
+            if (entry.getDeadlineNanos() > now) {
+                schedule(entry, entry.getDeadlineNanos());
+                continue;
+            }
+
+            resend(entry, now);
+        }
+    }
+
+    private void resend(InFlightCommandTable.Entry entry, long now) {
+        int attempts = entry.getAttempts() + 1;
+        entry.setAttempts(attempts);
+        resends.increment();
+        logger.info("Resending unacked {} (attempt {})", entry.getCommand(), attempts);
+
+        commandBatcher.submit(entry.getCommand()).whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                logger.warn("Resend of seqnum {} failed: {}", entry.getSeqNum(), ex.getMessage());
+            }
+        });
+
+        // Double the timeout on every attempt, up to the cap
+        long timeout = initialTimeoutNanos << Math.min(attempts - 1, 20);
+        if (timeout <= 0 || timeout > maxTimeoutNanos) {
+            timeout = maxTimeoutNanos;
+        }
+        schedule(entry, now + timeout);
+    }
+
+    private void schedule(InFlightCommandTable.Entry entry, long deadlineNanos) {
+        entry.setDeadlineNanos(deadlineNanos);
+        long tick = Math.max(deadlineNanos / tickNanos, lastTick + 1);
+        wheel[(int) (tick & (WHEEL_SIZE - 1))].add(entry);
+    }
+}
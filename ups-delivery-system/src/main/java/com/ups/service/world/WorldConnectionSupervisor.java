@@ -0,0 +1,175 @@
+package com.ups.service.world;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the World Simulator connection and resumes it when it breaks.
+ * Reconnect attempts back off exponentially with jitter until one succeeds; the connector
+ * then rejoins the saved world and replays every unacked command.
+ */
+@Component
+public class WorldConnectionSupervisor {
+    private static final Logger logger = LoggerFactory.getLogger(WorldConnectionSupervisor.class);
+
+    private final WorldConnector worldConnector;
+    private final boolean enabled;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final Counter reconnects;
+    private final Counter failedAttempts;
+    private final List<Runnable> reconnectListeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    private ScheduledExecutorService executor;
+    private volatile int attempt;
+
+    @Autowired
+    public WorldConnectionSupervisor(WorldConnector worldConnector,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${ups.world.reconnect.enabled:true}") boolean enabled,
+                                     @Value("${ups.world.reconnect.initial-ms:500}") long initialBackoffMs,
+                                     @Value("${ups.world.reconnect.max-ms:30000}") long maxBackoffMs) {
+        this.worldConnector = worldConnector;
+        this.enabled = enabled;
+        this.initialBackoffMs = Math.max(1, initialBackoffMs);
+        this.maxBackoffMs = Math.max(this.initialBackoffMs, maxBackoffMs);
+        this.reconnects = Counter.builder("ups.world.reconnects")
+                .description("Broken World Simulator connections that were resumed")
+                .register(meterRegistry);
+        this.failedAttempts = Counter.builder("ups.world.reconnect.failures")
+                .description("Reconnect attempts that failed and were retried")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start watching the connector
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WorldReconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worldConnector.setConnectionLostHandler(this::onConnectionLost);
+    }
+
+    /**
+     * Stop retrying
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        worldConnector.setConnectionLostHandler(null);
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        reconnecting.set(false);
+    }
+
+    /**
+     * Run an action after every successful reconnect, e.g. to restore the simulation speed
+     * @param listener The action to run on the reconnect thread
+     */
+    public void addReconnectListener(Runnable listener) {
+        reconnectListeners.add(listener);
+    }
+
+    /**
+     * Handle a broken connection by scheduling the first reconnect attempt right away
+     * @param cause Why the connection broke
+     */
+    public void onConnectionLost(IOException cause) {
+        if (!enabled) {
+            logger.warn("World Simulator connection lost and reconnect is disabled: {}", cause.getMessage());
+            return;
+        }
+        if (reconnecting.compareAndSet(false, true)) {
+            attempt = 0;
+            schedule(0);
+        }
+    }
+
+    /**
+     * Check whether a reconnect is in progress
+     */
+    public boolean isReconnecting() {
+        return reconnecting.get();
+    }
+
+    /**
+     * Get the backoff before a retry, doubling per failed attempt up to the cap,
+     * with up to 20% jitter so many clients don't retry in lockstep
+     * @param attempt The number of attempts that have failed so far, starting at 1
+     * @return The delay in milliseconds
+     */
+    long backoffMillis(int attempt) {
+        long delay = initialBackoffMs << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxBackoffMs) {
+            delay = maxBackoffMs;
+        }
+        long jitter = delay / 5;
+        return jitter > 0 ? delay - ThreadLocalRandom.current().nextLong(jitter + 1) : delay;
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (executor == null) {
+            reconnecting.set(false);
+            return;
+        }
+        executor.schedule(this::attemptReconnect, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void attemptReconnect() {
+        try {
+            if (worldConnector.reconnect()) {
+                reconnects.increment();
+                logger.info("Reconnected to World Simulator after {} failed attempts", attempt);
+                reconnecting.set(false);
+                for (Runnable listener : reconnectListeners) {
+                    runListener(listener);
+                }
+                // The new connection may already have broken before we cleared the flag
+                if (worldConnector.isReconnecting() && reconnecting.compareAndSet(false, true)) {
+                    attempt = 0;
+                    schedule(0);
+                }
+            } else {
+                // The session was closed deliberately while we were waiting
+                reconnecting.set(false);
+            }
+        } catch (Exception e) {
+            failedAttempts.increment();
+            long delay = backoffMillis(++attempt);
+            logger.warn("Reconnect attempt {} failed: {}. Retrying in {} ms", attempt, e.getMessage(), delay);
+            schedule(delay);
+        }
+    }
+
+    private void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Exception e) {
+            logger.error("Error running reconnect listener: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -1,21 +1,19 @@
 package com.ups.service.world;
 
-import com.google.protobuf.CodedInputStream;
-import com.google.protobuf.CodedOutputStream;
 import com.ups.WorldUpsProto;
 import com.ups.model.Location;
 import com.ups.model.entity.Truck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Handles connection to the World Simulator and sending commands
@@ -24,27 +22,52 @@ import java.util.concurrent.atomic.AtomicLong;
 public class WorldConnector {
     private static final Logger logger = LoggerFactory.getLogger(WorldConnector.class);
     
-    private Socket socket;
+    private volatile WorldTransport transport;
     private AtomicLong seqNum = new AtomicLong(1);
-    private Long worldId;
+    private volatile Long worldId;
+    
+    // Saved so a broken connection can be resumed
+    private String host;
+    private int port;
+    private List<Truck> trucks;
+    private volatile boolean reconnecting;
+    private volatile Consumer<IOException> connectionLostHandler;
     private final WorldResponseListener responseListener;
+    private final WorldCommandBatcher commandBatcher;
+    private final WorldCommandTracker commandTracker;
+    private final String transportType;
     
     // Default constructor for Spring
     public WorldConnector() {
         this.responseListener = null;
+        this.commandBatcher = new WorldCommandBatcher();
+        this.commandTracker = new WorldCommandTracker(commandBatcher);
+        this.transportType = "socket";
     }
     
     @Autowired
-    public WorldConnector(WorldResponseListener responseListener) {
+    public WorldConnector(WorldResponseListener responseListener,
+                          WorldCommandBatcher commandBatcher,
+                          WorldCommandTracker commandTracker,
+                          @Value("${ups.world.transport:socket}") String transportType) {
         this.responseListener = responseListener;
+        this.commandBatcher = commandBatcher;
+        this.commandTracker = commandTracker;
+        this.transportType = transportType;
     }
     
     /**
      * Connect to the World Simulator
      */
-    public void connect(String host, int port, List<Truck> trucks, boolean newWorld, Long existingWorldId) throws IOException {
+    public synchronized void connect(String host, int port, List<Truck> trucks, boolean newWorld, Long existingWorldId) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.trucks = trucks;
+        this.worldId = newWorld ? null : existingWorldId;
+        
         try {
-            this.socket = new Socket(host, port);
+            this.transport = createTransport();
+            transport.connect(host, port);
             
             if (newWorld) {
                 // Create a new world
@@ -54,17 +77,131 @@ public class WorldConnector {
                 connectToWorld(existingWorldId, trucks);
             }
             
-            // Start the response listener
-            if (responseListener != null) {
-                responseListener.startListening(socket);
-            }
+            // Start batching outgoing commands onto this connection
+            commandBatcher.start(this::sendMessage);
+            
+            // Start delivering responses to the listener
+            startReading(transport);
             
         } catch (IOException e) {
             logger.error("Failed to connect to World Simulator at {}:{}: {}", host, port, e.getMessage());
+            if (transport != null) {
+                transport.close();
+            }
             throw e;
         }
     }
     
+    /**
+     * Set the callback run when an open connection breaks.
+     * It is called once per broken connection, from the transport's reader thread.
+     */
+    public void setConnectionLostHandler(Consumer<IOException> connectionLostHandler) {
+        this.connectionLostHandler = connectionLostHandler;
+    }
+    
+    /**
+     * Replace a broken connection and resume the same world.
+     * Sends UConnect with the saved world ID (creating the world with the saved trucks if it was never
+     * created), starts reading again and replays every command that was not acked.
+     * Commands submitted while reconnecting are tracked and go out with the replay.
+     * @return false if there is nothing to resume because the session was closed
+     * @throws IOException If the World Simulator cannot be reached or rejects the connection
+     */
+    public synchronized boolean reconnect() throws IOException {
+        if (!reconnecting || host == null) {
+            return false;
+        }
+        
+        WorldTransport old = transport;
+        if (old != null) {
+            old.stopReading();
+            old.close();
+        }
+        
+        WorldTransport next = createTransport();
+        try {
+            next.connect(host, port);
+            this.transport = next;
+            
+            // Trucks are only needed if the world was never created
+            connectToWorld(worldId, worldId == null ? trucks : null);
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        
+        // Not yet started if the first connect failed; otherwise a no-op
+        commandBatcher.start(this::sendMessage);
+        
+        reconnecting = false;
+        startReading(next);
+        
+        int replayed = commandTracker.replayAll();
+        logger.info("Resumed world {} at {}:{}, replayed {} unacked commands", worldId, host, port, replayed);
+        return true;
+    }
+    
+    /**
+     * Report a connection that failed outside the transport, such as the first connect at startup,
+     * so the connection lost handler can keep retrying with the saved settings
+     * @param cause The failure
+     */
+    public void connectionLost(IOException cause) {
+        connectionLost(transport, cause);
+    }
+    
+    /**
+     * Check whether commands can be accepted: either connected, or reconnecting,
+     * in which case they are held in flight and replayed once the connection is back
+     */
+    public boolean isSessionActive() {
+        return isConnected() || reconnecting;
+    }
+    
+    /**
+     * Check whether a broken connection is waiting to be resumed
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+    
+    /**
+     * Start delivering responses from a transport, watching it for a broken connection
+     */
+    private void startReading(WorldTransport current) {
+        if (responseListener != null) {
+            current.startReading(responseListener, e -> connectionLost(current, e));
+        }
+    }
+    
+    /**
+     * Mark the session as reconnecting and tell the supervisor, ignoring reports from stale transports
+     */
+    private void connectionLost(WorldTransport failed, IOException cause) {
+        if (failed != transport || reconnecting) {
+            return;
+        }
+        reconnecting = true;
+        logger.warn("Connection to World Simulator world {} lost: {}", worldId, cause.getMessage());
+        
+        Consumer<IOException> handler = connectionLostHandler;
+        if (handler != null) {
+            handler.accept(cause);
+        }
+    }
+    
+    /**
+     * Create the transport selected by ups.world.transport
+     */
+    private WorldTransport createTransport() {
+        if ("nio".equalsIgnoreCase(transportType)) {
+            logger.info("Using non-blocking NIO transport for World Simulator");
+            return new NioWorldTransport();
+        }
+        return new SocketWorldTransport();
+    }
+    
     /**
      * Connect to the World Simulator
      */
@@ -123,41 +260,50 @@ public class WorldConnector {
     
     /**
      * Send a truck to deliver a package
+     * @return A future that completes when the batch containing the command has been written
      */
-    public void deliver(int truckId, long packageId, Location location) throws IOException {
+    public CompletableFuture<Void> deliver(int truckId, long packageId, Location location) throws IOException {
+        WorldUpsProto.UDeliveryLocation stop = WorldUpsProto.UDeliveryLocation.newBuilder()
+                .setPackageid(packageId)
+                .setX(location.getX())
+                .setY(location.getY())
+                .build();
+        return deliver(truckId, List.of(stop));
+    }
+    
+    /**
+     * Send a truck to deliver several packages in one trip
+     * @param stops The packages and their destinations, in the order the truck should visit them
+     * @return A future that completes when the batch containing the command has been written
+     */
+    public CompletableFuture<Void> deliver(int truckId, List<WorldUpsProto.UDeliveryLocation> stops) throws IOException {
+        ensureConnected();
+        
         // Get the next sequence number
         long sequenceNumber = seqNum.getAndIncrement();
         
-        // Create UGoDeliver request
+        // One UGoDeliver carries every stop; the World visits them in list order
         WorldUpsProto.UGoDeliver.Builder deliverBuilder = WorldUpsProto.UGoDeliver.newBuilder();
         deliverBuilder.setTruckid(truckId);
-        
-        // Create UDeliveryLocation
-        WorldUpsProto.UDeliveryLocation.Builder locationBuilder = WorldUpsProto.UDeliveryLocation.newBuilder();
-        locationBuilder.setPackageid(packageId);
-        locationBuilder.setX(location.getX());
-        locationBuilder.setY(location.getY());
-        
-        // Add the delivery location to the request
-        deliverBuilder.addPackages(locationBuilder.build());
+        deliverBuilder.addAllPackages(stops);
         deliverBuilder.setSeqnum(sequenceNumber);
         
-        // Create UCommands request
-        WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
-        commandsBuilder.addDeliveries(deliverBuilder.build());
-        
-        // Send the request
-        WorldUpsProto.UCommands command = commandsBuilder.build();
-        sendMessage(command);
+        // Queue the command for the next batch
+        WorldCommand command = WorldCommand.deliver(deliverBuilder.build());
+        commandTracker.track(command);
+        CompletableFuture<Void> sent = commandBatcher.submit(command);
         
-        logger.info("Sent delivery command for truck {} to deliver package {} to ({},{})",
-                truckId, packageId, location.getX(), location.getY());
+        logger.info("Queued delivery command for truck {} with {} stops", truckId, stops.size());
+        return sent;
     }
     
     /**
      * Send a truck to pick up a package from a warehouse
+     * @return A future that completes when the batch containing the command has been written
      */
-    public void pickup(int truckId, int warehouseId) throws IOException {
+    public CompletableFuture<Void> pickup(int truckId, int warehouseId) throws IOException {
+        ensureConnected();
+        
         // Get the next sequence number
         long sequenceNumber = seqNum.getAndIncrement();
         
@@ -167,21 +313,22 @@ public class WorldConnector {
         pickupBuilder.setWhid(warehouseId);
         pickupBuilder.setSeqnum(sequenceNumber);
         
-        // Create UCommands request
-        WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
-        commandsBuilder.addPickups(pickupBuilder.build());
+        // Queue the command for the next batch
+        WorldCommand command = WorldCommand.pickup(pickupBuilder.build());
+        commandTracker.track(command);
+        CompletableFuture<Void> sent = commandBatcher.submit(command);
         
-        // Send the request
-        WorldUpsProto.UCommands command = commandsBuilder.build();
-        sendMessage(command);
-        
-        logger.info("Sent pickup command for truck {} to warehouse {}", truckId, warehouseId);
+        logger.info("Queued pickup command for truck {} to warehouse {}", truckId, warehouseId);
+        return sent;
     }
     
     /**
      * Query the status of a truck
+     * @return A future that completes when the batch containing the query has been written
      */
-    public void queryTruckStatus(int truckId) throws IOException {
+    public CompletableFuture<Void> queryTruckStatus(int truckId) throws IOException {
+        ensureConnected();
+        
         // Get the next sequence number
         long sequenceNumber = seqNum.getAndIncrement();
         
@@ -190,15 +337,13 @@ public class WorldConnector {
         queryBuilder.setTruckid(truckId);
         queryBuilder.setSeqnum(sequenceNumber);
         
-        // Create UCommands request
-        WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
-        commandsBuilder.addQueries(queryBuilder.build());
-        
-        // Send the request
-        WorldUpsProto.UCommands command = commandsBuilder.build();
-        sendMessage(command);
+        // Queue the query for the next batch
+        WorldCommand command = WorldCommand.query(queryBuilder.build());
+        commandTracker.track(command);
+        CompletableFuture<Void> sent = commandBatcher.submit(command);
         
-        logger.info("Sent query command for truck {}", truckId);
+        logger.info("Queued query command for truck {}", truckId);
+        return sent;
     }
     
     /**
@@ -219,17 +364,21 @@ public class WorldConnector {
     /**
      * Disconnect from the World Simulator
      */
-    public void disconnect() throws IOException {
-        if (socket == null || socket.isClosed()) {
+    public synchronized void disconnect() throws IOException {
+        // A deliberate disconnect ends the session, so there is nothing left to resume
+        reconnecting = false;
+        
+        if (transport == null || !transport.isConnected()) {
             logger.info("Already disconnected from World Simulator");
             return;
         }
         
         try {
             // Stop the response listener first
-            if (responseListener != null) {
-                responseListener.stopListening();
-            }
+            transport.stopReading();
+            
+            // Flush any queued commands before the disconnect request
+            commandBatcher.stop();
             
             // Create UCommands request with disconnect flag
             WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
@@ -243,18 +392,12 @@ public class WorldConnector {
         } catch (Exception e) {
             logger.warn("Error during disconnect from World Simulator: {}", e.getMessage());
         } finally {
-            // Always close the socket
-            try {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                    logger.info("Socket closed for world ID: {}", worldId);
-                }
-            } catch (IOException e) {
-                logger.warn("Error closing socket: {}", e.getMessage());
-            }
+            // Always close the connection
+            transport.close();
+            logger.info("Connection closed for world ID: {}", worldId);
             
             // Reset state
-            this.socket = null;
+            this.transport = null;
             this.worldId = null;
         }
     }
@@ -263,7 +406,7 @@ public class WorldConnector {
      * Check if the connector is connected to the World Simulator
      */
     public boolean isConnected() {
-        return socket != null && !socket.isClosed() && socket.isConnected();
+        return transport != null && transport.isConnected();
     }
     
     /**
@@ -273,73 +416,60 @@ public class WorldConnector {
         return seqNum.getAndIncrement();
     }
     
+    /**
+     * Fail fast when there is no session to queue commands for
+     */
+    private void ensureConnected() throws IOException {
+        if (!isSessionActive()) {
+            throw new IOException("Socket is not connected");
+        }
+    }
+    
     /**
      * Send a Protobuf message with length prefix
+     * @return A future that completes once the message has been written
      */
-    private <T extends com.google.protobuf.Message> void sendMessage(T message) throws IOException {
-        if (socket == null || socket.isClosed()) {
+    private <T extends com.google.protobuf.Message> CompletableFuture<Void> sendMessage(T message) throws IOException {
+        WorldTransport current = transport;
+        if (current == null || !current.isConnected()) {
             throw new IOException("Socket is not connected");
         }
         
-        OutputStream out = socket.getOutputStream();
-        byte[] data = message.toByteArray();
+        CompletableFuture<Void> written = current.send(message);
         
-        // Create a CodedOutputStream to handle writing the message
-        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
-        
-        // Write the message size as a Varint32
-        codedOut.writeUInt32NoTag(data.length);
-        
-        // Write the message data
-        codedOut.writeRawBytes(data);
-        
-        // Flush the stream
-        codedOut.flush();
-        
-        logger.debug("Sent message of type {}, size: {} bytes", message.getClass().getSimpleName(), data.length);
+        logger.debug("Sent message of type {}", message.getClass().getSimpleName());
+        return written;
     }
     
     /**
      * Receive a Protobuf message with length prefix
      */
     private <T extends com.google.protobuf.Message> T receiveMessage(com.google.protobuf.Parser<T> parser) throws IOException {
-        if (socket == null || socket.isClosed()) {
+        WorldTransport current = transport;
+        if (current == null || !current.isConnected()) {
             throw new IOException("Socket is not connected");
         }
         
-        InputStream in = socket.getInputStream();
-        
-        // Create a CodedInputStream to handle reading the message
-        CodedInputStream codedIn = CodedInputStream.newInstance(in);
-        
-        // Read the message size as a Varint32
-        int size = codedIn.readRawVarint32();
-        
-        // Read the message data
-        int oldLimit = codedIn.pushLimit(size);
-        T message = parser.parseFrom(codedIn);
-        codedIn.popLimit(oldLimit);
+        T message = current.receive(parser);
         
-        logger.debug("Received message of type {}, size: {} bytes", message.getClass().getSimpleName(), size);
+        logger.debug("Received message of type {}", message.getClass().getSimpleName());
         return message;
     }
 
     /**
      * Send acknowledgements for received messages
+     * The acks are piggy-backed on the next outgoing batch
      */
     public void sendAcknowledgements(List<Long> acks) throws IOException {
         if (acks == null || acks.isEmpty()) {
             return;
         }
         
-        // Create UCommands request with acknowledgements
-        WorldUpsProto.UCommands.Builder commandsBuilder = WorldUpsProto.UCommands.newBuilder();
-        commandsBuilder.addAllAcks(acks);
-        
-        // Send the request
-        WorldUpsProto.UCommands command = commandsBuilder.build();
-        sendMessage(command);
+        ensureConnected();
+        for (Long ack : acks) {
+            commandBatcher.submitAck(ack);
+        }
         
-        logger.debug("Sent {} acknowledgements to World Simulator", acks.size());
+        logger.debug("Queued {} acknowledgements for World Simulator", acks.size());
     }
 }
\ No newline at end of file
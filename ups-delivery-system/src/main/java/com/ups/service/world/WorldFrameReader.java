@@ -0,0 +1,125 @@
+package com.ups.service.world;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads varint-delimited Protobuf frames from a World Simulator connection.
+ * One reader lives as long as its connection and keeps a single reusable buffer,
+ * so bytes read past the end of one frame are kept for the next instead of being lost
+ * with a throwaway CodedInputStream.
+ */
+public class WorldFrameReader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // Guards against a corrupt length prefix asking for an absurd allocation
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+
+    public WorldFrameReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public WorldFrameReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * Read the next frame
+     * @param parser The parser for the expected message type
+     * @return The parsed message
+     * @throws EOFException If the stream ends before a whole frame arrives
+     * @throws IOException If reading or parsing fails
+     */
+    public <T extends Message> T readFrame(Parser<T> parser) throws IOException {
+        int size = readVarint32();
+        if (size < 0 || size > MAX_FRAME_SIZE) {
+            throw new InvalidProtocolBufferException("Invalid frame size: " + size);
+        }
+
+        ensureAvailable(size);
+        T message = parser.parseFrom(buffer, pos, size);
+        pos += size;
+        return message;
+    }
+
+    /**
+     * Get the number of bytes already read from the stream but not yet consumed
+     */
+    public int getBufferedCount() {
+        return limit - pos;
+    }
+
+    /**
+     * Read a base-128 varint length prefix, refilling across buffer boundaries as needed
+     */
+    private int readVarint32() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new InvalidProtocolBufferException("Malformed varint frame length");
+    }
+
+    private byte readByte() throws IOException {
+        if (pos == limit) {
+            pos = 0;
+            limit = 0;
+            fill(1);
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Make sure at least count bytes are buffered, compacting or growing the buffer if needed
+     */
+    private void ensureAvailable(int count) throws IOException {
+        int available = limit - pos;
+        if (available >= count) {
+            return;
+        }
+
+        if (buffer.length < count) {
+            byte[] larger = new byte[Math.max(count, buffer.length * 2)];
+            System.arraycopy(buffer, pos, larger, 0, available);
+            buffer = larger;
+            pos = 0;
+            limit = available;
+        } else if (buffer.length - pos < count) {
+            System.arraycopy(buffer, pos, buffer, 0, available);
+            pos = 0;
+            limit = available;
+        }
+
+        fill(count - available);
+    }
+
+    /**
+     * Read from the stream until at least count more bytes are buffered
+     */
+    private void fill(int count) throws IOException {
+        int target = limit + count;
+        while (limit < target) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                throw new EOFException("World Simulator connection closed");
+            }
+            limit += read;
+        }
+    }
+}
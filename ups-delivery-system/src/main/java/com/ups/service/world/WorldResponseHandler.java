@@ -10,20 +10,34 @@ import com.ups.repository.PackageRepository;
 import com.ups.repository.TruckRepository;
 import com.ups.repository.WarehouseRepository;
 import com.ups.service.AmazonNotificationService;
+import com.ups.service.fleet.FleetState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
- * Handles responses from the World Simulator
+ * Handles responses from the World Simulator.
+ * A single dispatcher splits each response into per-truck events and fans them out to
+ * ordered lanes, so one truck's events stay in order while different trucks run in parallel.
+ * Truck changes reach the in-memory fleet only once their transaction commits.
  */
 @Service
 public class WorldResponseHandler {
@@ -33,23 +47,95 @@ public class WorldResponseHandler {
     private final PackageRepository packageRepository;
     private final WarehouseRepository warehouseRepository;
     private final AmazonNotificationService amazonNotificationService;
-    private final BlockingQueue<WorldUpsProto.UResponses> responseQueue;
+    private final FleetState fleetState;
+    private final WorldResponseQueue responseQueue;
+    private final TruckLanes lanes;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter coalescedStatuses;
+    private final Counter unchangedStatuses;
+    private final AtomicBoolean dispatching = new AtomicBoolean(false);
     private volatile boolean running = true;
     
-    @Autowired
+    /**
+     * A truck's state as changed by the current transaction.
+     * saved is the entity when the change was written to the database, null when the fleet write-behind persists it.
+     */
+    private static final class FleetChange {
+        private final int truckId;
+        private final int x;
+        private final int y;
+        private final TruckStatus status;
+        private final Truck saved;
+        
+        FleetChange(int truckId, int x, int y, TruckStatus status, Truck saved) {
+            this.truckId = truckId;
+            this.x = x;
+            this.y = y;
+            this.status = status;
+            this.saved = saved;
+        }
+    }
+    
+    /**
+     * The fleet changes of one transaction, applied to the fleet in order after it commits.
+     * On rollback they are dropped, so the fleet still matches the database and a replay sees every transition again.
+     */
+    private final class PendingFleetChanges implements TransactionSynchronization {
+        private final List<FleetChange> changes = new ArrayList<>();
+        private final Map<Integer, FleetChange> latest = new HashMap<>();
+        
+        @Override
+        public void afterCommit() {
+            for (FleetChange change : changes) {
+                applyToFleet(change);
+            }
+        }
+        
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(WorldResponseHandler.this);
+        }
+    }
+    
     public WorldResponseHandler(TruckRepository truckRepository, 
                                 PackageRepository packageRepository,
                                 WarehouseRepository warehouseRepository,
                                 AmazonNotificationService amazonNotificationService) {
+        this(truckRepository, packageRepository, warehouseRepository, amazonNotificationService,
+                new FleetState(truckRepository), null, new WorldResponseQueue(), new SimpleMeterRegistry(), 4, 64);
+    }
+    
+    @Autowired
+    public WorldResponseHandler(TruckRepository truckRepository, 
+                                PackageRepository packageRepository,
+                                WarehouseRepository warehouseRepository,
+                                AmazonNotificationService amazonNotificationService,
+                                FleetState fleetState,
+                                PlatformTransactionManager transactionManager,
+                                WorldResponseQueue responseQueue,
+                                MeterRegistry meterRegistry,
+                                @Value("${ups.world.lanes.count:8}") int laneCount,
+                                @Value("${ups.world.lanes.max-drain:64}") int maxDrain) {
         this.truckRepository = truckRepository;
         this.packageRepository = packageRepository;
         this.warehouseRepository = warehouseRepository;
         this.amazonNotificationService = amazonNotificationService;
-        this.responseQueue = new LinkedBlockingQueue<>();
+        this.fleetState = fleetState;
+        this.responseQueue = responseQueue;
+        // Without a transaction manager (plain unit tests) every repository call commits on its own
+        this.transactionTemplate = transactionManager != null ? new TransactionTemplate(transactionManager) : null;
+        this.lanes = new TruckLanes(laneCount, maxDrain, this::processLaneEvents, meterRegistry);
+        this.coalescedStatuses = Counter.builder("ups.world.truck-status.coalesced")
+                .description("Truck status updates dropped because a newer one for the same truck was queued")
+                .register(meterRegistry);
+        this.unchangedStatuses = Counter.builder("ups.world.truck-status.unchanged")
+                .description("Truck status updates skipped because nothing changed")
+                .register(meterRegistry);
     }
     
     /**
-     * Adds a response to the processing queue
+     * Adds a response to the processing queue.
+     * When the queue is full this applies its overflow policy, which may block the calling reader.
      */
     public void queueResponse(WorldUpsProto.UResponses response) {
         if (response == null) {
@@ -67,14 +153,21 @@ public class WorldResponseHandler {
     }
     
     /**
-     * Processes responses from the queue in a continuous loop
+     * Dispatches responses from the queue to the truck lanes in a continuous loop.
+     * Only one dispatcher may run; extra callers return immediately.
      */
     public void processResponses() {
-        logger.info("Starting World Response Handler processing loop");
+        if (!dispatching.compareAndSet(false, true)) {
+            logger.info("World Response Handler processing loop is already running");
+            return;
+        }
+        
+        logger.info("Starting World Response Handler processing loop with {} lanes", lanes.getLaneCount());
+        lanes.start();
         while (running && !Thread.currentThread().isInterrupted()) {
             try {
                 WorldUpsProto.UResponses response = responseQueue.take();
-                processResponse(response);
+                dispatchResponse(response);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 logger.info("Response processor interrupted");
@@ -87,39 +180,182 @@ public class WorldResponseHandler {
     }
     
     /**
-     * Process a response from the World Simulator
+     * Split a response from the World Simulator into per-truck events for the lanes
      */
-    @Transactional
-    private void processResponse(WorldUpsProto.UResponses response) {
-        logger.debug("Processing World Simulator response");
+    private void dispatchResponse(WorldUpsProto.UResponses response) throws InterruptedException {
+        logger.debug("Dispatching World Simulator response");
         
         // Process acknowledgements first
         processAcknowledgements(response);
         
-        // Process completions (truck arrivals, etc.)
+        // Completions (truck arrivals, etc.), deliveries and status updates belong to one truck each
         for (WorldUpsProto.UFinished completion : response.getCompletionsList()) {
-            processCompletion(completion);
+            lanes.submit(completion.getTruckid(), completion);
         }
-        
-        // Process deliveries (package deliveries)
         for (WorldUpsProto.UDeliveryMade delivery : response.getDeliveredList()) {
-            processDelivery(delivery);
+            lanes.submit(delivery.getTruckid(), delivery);
         }
-        
-        // Process truck status updates
         for (WorldUpsProto.UTruck truckStatus : response.getTruckstatusList()) {
-            processTruckStatus(truckStatus);
+            lanes.submit(truckStatus.getTruckid(), truckStatus);
+        }
+        
+        // Errors and the finished flag can touch any truck, so let the lanes catch up first
+        boolean finished = response.hasFinished() && response.getFinished();
+        if (response.getErrorCount() == 0 && !finished) {
+            return;
+        }
+        if (!lanes.awaitIdle(30, TimeUnit.SECONDS)) {
+            logger.warn("Lanes did not drain before processing errors; continuing anyway");
         }
         
         // Process errors
         for (WorldUpsProto.UErr error : response.getErrorList()) {
-            processError(error);
+            inTransaction(() -> processError(error));
         }
         
         // Handle finished flag (simulation termination)
-        if (response.hasFinished() && response.getFinished()) {
+        if (finished) {
             logger.info("World simulation finished");
-            handleSimulationFinished();
+            inTransaction(this::handleSimulationFinished);
+        }
+    }
+    
+    /**
+     * Process the events a lane has drained, on that lane's thread.
+     * The whole micro-batch is one transaction, so its updates are flushed once and sent as JDBC batches.
+     * If the batch fails it is rolled back and replayed one event per transaction, so one bad event
+     * cannot take the others down with it.
+     */
+    void processLaneEvents(List<TruckLanes.Event> drained) {
+        List<TruckLanes.Event> events = coalesceTruckStatuses(drained);
+        try {
+            inTransaction(() -> {
+                for (TruckLanes.Event event : events) {
+                    processEvent(event);
+                }
+            });
+        } catch (Exception e) {
+            if (events.size() == 1) {
+                logger.error("Error processing World event for truck {}", events.get(0).getTruckId(), e);
+                return;
+            }
+            logger.warn("Batch of {} World events failed, retrying one at a time: {}", events.size(), e.getMessage());
+            for (TruckLanes.Event event : events) {
+                try {
+                    inTransaction(() -> processEvent(event));
+                } catch (Exception single) {
+                    logger.error("Error processing World event for truck {}", event.getTruckId(), single);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Keep only the newest UTruck per truck in a lane batch. The batch is the coalescing window:
+     * it grows with the backlog, so the more statuses pile up the more of them collapse.
+     * A status is only dropped when a later one for the same truck follows it with no completion
+     * or delivery for that truck in between, so those still see the truck as it was.
+     * @param events The drained events, in arrival order
+     * @return The events to process, in the same order
+     */
+    List<TruckLanes.Event> coalesceTruckStatuses(List<TruckLanes.Event> events) {
+        if (events.size() < 2) {
+            return events;
+        }
+        
+        boolean[] superseded = new boolean[events.size()];
+        Map<Integer, Integer> pendingStatus = new HashMap<>();
+        int dropped = 0;
+        for (int i = 0; i < events.size(); i++) {
+            TruckLanes.Event event = events.get(i);
+            if (event.getPayload() instanceof WorldUpsProto.UTruck) {
+                Integer previous = pendingStatus.put(event.getTruckId(), i);
+                if (previous != null) {
+                    superseded[previous] = true;
+                    dropped++;
+                }
+            } else {
+                pendingStatus.remove(event.getTruckId());
+            }
+        }
+        if (dropped == 0) {
+            return events;
+        }
+        
+        List<TruckLanes.Event> kept = new ArrayList<>(events.size() - dropped);
+        for (int i = 0; i < events.size(); i++) {
+            if (!superseded[i]) {
+                kept.add(events.get(i));
+            }
+        }
+        coalescedStatuses.increment(dropped);
+        logger.debug("Coalesced {} superseded truck status updates", dropped);
+        return kept;
+    }
+    
+    private void processEvent(TruckLanes.Event event) {
+        Object payload = event.getPayload();
+        if (payload instanceof WorldUpsProto.UFinished completion) {
+            processCompletion(completion);
+        } else if (payload instanceof WorldUpsProto.UDeliveryMade delivery) {
+            processDelivery(delivery);
+        } else if (payload instanceof WorldUpsProto.UTruck truckStatus) {
+            processTruckStatus(truckStatus);
+        }
+    }
+    
+    /**
+     * Run work in one transaction, or directly when there is no transaction manager
+     */
+    private void inTransaction(Runnable work) {
+        if (transactionTemplate == null) {
+            work.run();
+        } else {
+            transactionTemplate.executeWithoutResult(status -> work.run());
+        }
+    }
+    
+    /**
+     * Record a truck saved to the database, for the fleet once the transaction commits
+     */
+    private void recordFleetChange(Truck truck) {
+        recordFleetChange(new FleetChange(truck.getId(),
+                truck.getX() != null ? truck.getX() : 0,
+                truck.getY() != null ? truck.getY() : 0,
+                truck.getStatus() != null ? truck.getStatus() : TruckStatus.IDLE,
+                truck));
+    }
+    
+    private void recordFleetChange(FleetChange change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Every repository call has already committed on its own
+            applyToFleet(change);
+            return;
+        }
+        PendingFleetChanges pending = (PendingFleetChanges) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingFleetChanges();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.changes.add(change);
+        pending.latest.put(change.truckId, change);
+    }
+    
+    /**
+     * Get a truck's change not yet committed by the current transaction
+     * @return The change, or null if the transaction has not changed this truck
+     */
+    private FleetChange pendingFleetChange(int truckId) {
+        PendingFleetChanges pending = (PendingFleetChanges) TransactionSynchronizationManager.getResource(this);
+        return pending != null ? pending.latest.get(truckId) : null;
+    }
+    
+    private void applyToFleet(FleetChange change) {
+        if (change.saved != null) {
+            fleetState.track(change.saved);
+        } else {
+            fleetState.update(change.truckId, change.x, change.y, change.status);
         }
     }
     
@@ -128,15 +364,14 @@ public class WorldResponseHandler {
      */
     private void processAcknowledgements(WorldUpsProto.UResponses response) {
         if (response.getAcksCount() > 0) {
+            // In-flight commands are already cleared by WorldResponseListener when the frame arrives
             logger.debug("Received {} acknowledgements", response.getAcksCount());
-            // Track acknowledgments if needed
         }
     }
     
     /**
      * Process a completion notification from the World Simulator
      */
-    @Transactional
     private void processCompletion(WorldUpsProto.UFinished completion) {
         logger.info("Processing completion for truck {} at ({},{}) with status {}", 
                 completion.getTruckid(), completion.getX(), completion.getY(), completion.getStatus());
@@ -154,6 +389,7 @@ public class WorldResponseHandler {
                 case "arrive warehouse":
                     truck.setStatus(TruckStatus.ARRIVE_WAREHOUSE);
                     truckRepository.save(truck);
+                    recordFleetChange(truck);
                     
                     // Notify Amazon that the truck has arrived for packages assigned to this truck
                     processArrivalAtWarehouse(truck, completion);
@@ -162,6 +398,7 @@ public class WorldResponseHandler {
                 case "idle":
                     truck.setStatus(TruckStatus.IDLE);
                     truckRepository.save(truck);
+                    recordFleetChange(truck);
                     break;
                 
                 default:
@@ -227,7 +464,6 @@ public class WorldResponseHandler {
     /**
      * Process a delivery notification from the World Simulator
      */
-    @Transactional
     private void processDelivery(WorldUpsProto.UDeliveryMade delivery) {
         logger.info("Processing delivery for package {} by truck {}", 
                 delivery.getPackageid(), delivery.getTruckid());
@@ -265,28 +501,62 @@ public class WorldResponseHandler {
     /**
      * Process a truck status update from the World Simulator
      */
-    @Transactional
     private void processTruckStatus(WorldUpsProto.UTruck truckStatus) {
-        logger.info("Processing truck status update for truck {} - status: {}, location: ({},{})", 
-                truckStatus.getTruckid(), truckStatus.getStatus(), truckStatus.getX(), truckStatus.getY());
+        int truckId = truckStatus.getTruckid();
+        TruckStatus newStatus = mapWorldStatusToTruckStatus(truckStatus.getStatus());
+        // An earlier event of this batch may have changed the truck without committing yet
+        FleetChange pending = pendingFleetChange(truckId);
+        FleetState.TruckView tracked = pending == null ? fleetState.get(truckId) : null;
+        TruckStatus knownStatus = null;
+        if (pending != null || tracked != null) {
+            int knownX = pending != null ? pending.x : tracked.getX();
+            int knownY = pending != null ? pending.y : tracked.getY();
+            knownStatus = pending != null ? pending.status : tracked.getStatus();
+            // Answer from memory; only a status change needs the database right away
+            if (knownX == truckStatus.getX() && knownY == truckStatus.getY() && knownStatus == newStatus) {
+                unchangedStatuses.increment();
+                logger.debug("Truck {} status unchanged ({} at {},{}), skipping update",
+                        truckId, newStatus, truckStatus.getX(), truckStatus.getY());
+                return;
+            }
+            if (knownStatus == newStatus) {
+                // Position only: the fleet write-behind persists it once this transaction commits
+                recordFleetChange(new FleetChange(truckId, truckStatus.getX(), truckStatus.getY(), newStatus, null));
+                return;
+            }
+        }
         
-        Optional<Truck> truckOpt = truckRepository.findById(truckStatus.getTruckid());
+        Optional<Truck> truckOpt = truckRepository.findById(truckId);
         if (truckOpt.isPresent()) {
             Truck truck = truckOpt.get();
+            
+            // The fleet may be ahead of the database, as trucks it claims are written behind
+            TruckStatus oldStatus = knownStatus != null ? knownStatus : truck.getStatus();
+            
+            // Most periodic status reports repeat what we already have; skip the write entirely
+            boolean moved = !Integer.valueOf(truckStatus.getX()).equals(truck.getX())
+                    || !Integer.valueOf(truckStatus.getY()).equals(truck.getY());
+            if (!moved && oldStatus == newStatus && truck.getStatus() == newStatus) {
+                unchangedStatuses.increment();
+                logger.debug("Truck {} status unchanged ({} at {},{}), skipping update",
+                        truck.getId(), newStatus, truckStatus.getX(), truckStatus.getY());
+                recordFleetChange(truck);
+                return;
+            }
+            
+            logger.info("Processing truck status update for truck {} - status: {}, location: ({},{})", 
+                    truckStatus.getTruckid(), truckStatus.getStatus(), truckStatus.getX(), truckStatus.getY());
             truck.setX(truckStatus.getX());
             truck.setY(truckStatus.getY());
-            
-            // Map world status to our TruckStatus enum
-            TruckStatus oldStatus = truck.getStatus();
-            TruckStatus newStatus = mapWorldStatusToTruckStatus(truckStatus.getStatus());
+            truck.setStatus(newStatus);
             
             // If status has changed, update packages and notify Amazon
             if (oldStatus != newStatus) {
-                truck.setStatus(newStatus);
                 updatePackagesForTruckStatusChange(truck, oldStatus, newStatus);
             }
             
             truckRepository.save(truck);
+            recordFleetChange(truck);
         } else {
             logger.error("Truck {} not found for status update", truckStatus.getTruckid());
         }
@@ -366,7 +636,6 @@ public class WorldResponseHandler {
     /**
      * Process an error from the World Simulator
      */
-    @Transactional
     private void processError(WorldUpsProto.UErr error) {
         logger.error("World error for sequence {}: {}", error.getOriginseqnum(), error.getErr());
         
@@ -433,6 +702,7 @@ public class WorldResponseHandler {
                         Truck truck = truckOpt.get();
                         truck.setStatus(TruckStatus.IDLE);
                         truckRepository.save(truck);
+                        recordFleetChange(truck);
                         
                         // Mark all packages on this truck as failed
                         List<Package> packages = packageRepository.findByTruck(truck);
@@ -481,7 +751,6 @@ public class WorldResponseHandler {
     /**
      * Handle the end of simulation
      */
-    @Transactional
     private void handleSimulationFinished() {
         // Find all packages that are not in a terminal state
         List<Package> activePackages = packageRepository.findAll().stream()
@@ -555,5 +824,20 @@ public class WorldResponseHandler {
     public void stop() {
         logger.info("Stopping World Response Handler");
         running = false;
+        lanes.stop();
+    }
+    
+    /**
+     * Get the number of responses waiting to be dispatched
+     */
+    public int getQueuedCount() {
+        return responseQueue.size();
+    }
+    
+    /**
+     * Get the response lanes, for metrics and tests
+     */
+    public TruckLanes getLanes() {
+        return lanes;
     }
 }
\ No newline at end of file
@@ -1,16 +1,17 @@
 package com.ups.service.world;
 
-import com.google.protobuf.CodedInputStream;
 import com.ups.WorldUpsProto;
+import com.ups.util.SeqNumWindow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.Socket;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Listens for responses from the World Simulator and forwards them to the WorldResponseHandler
@@ -20,20 +21,33 @@ public class WorldResponseListener {
     private static final Logger logger = LoggerFactory.getLogger(WorldResponseListener.class);
     
     private final WorldResponseHandler responseHandler;
+    private final WorldCommandTracker commandTracker;
+    private final WorldCommandBatcher commandBatcher;
+    private final SeqNumWindow seenSeqNums;
     private final AtomicBoolean running = new AtomicBoolean(false);
     private Thread listenerThread;
     private Socket socket;
+    private WorldFrameReader frameReader;
+    private Consumer<IOException> connectionLostHandler;
     
     @Autowired
-    public WorldResponseListener(WorldResponseHandler responseHandler) {
+    public WorldResponseListener(WorldResponseHandler responseHandler,
+                                 WorldCommandTracker commandTracker,
+                                 WorldCommandBatcher commandBatcher,
+                                 @Value("${ups.world.dedup.window:4096}") int dedupWindow) {
         this.responseHandler = responseHandler;
+        this.commandTracker = commandTracker;
+        this.commandBatcher = commandBatcher;
+        this.seenSeqNums = new SeqNumWindow(dedupWindow);
     }
     
     /**
      * Starts the listener thread that continuously receives responses from the World Simulator
      * @param socket The socket connected to the World Simulator
+     * @param frameReader The frame reader for the socket, carrying any bytes buffered during the handshake
+     * @param connectionLostHandler Called once if the socket breaks; the thread exits instead of retrying
      */
-    public void startListening(Socket socket) {
+    public void startListening(Socket socket, WorldFrameReader frameReader, Consumer<IOException> connectionLostHandler) {
         if (socket == null || socket.isClosed()) {
             logger.error("Cannot start listening on null or closed socket");
             return;
@@ -41,6 +55,8 @@ public class WorldResponseListener {
         
         if (running.compareAndSet(false, true)) {
             this.socket = socket;
+            this.frameReader = frameReader;
+            this.connectionLostHandler = connectionLostHandler;
             listenerThread = new Thread(this::listenForResponses, "WorldResponseListener");
             listenerThread.setDaemon(true);
             listenerThread.start();
@@ -82,20 +98,17 @@ public class WorldResponseListener {
             try {
                 WorldUpsProto.UResponses response = receiveResponse();
                 if (response != null) {
-                    responseHandler.queueResponse(response);
-                    logger.debug("Received and queued response from World Simulator");
+                    handleResponse(response);
                 }
             } catch (IOException e) {
-                if (running.get()) {
-                    logger.error("Error receiving response from World Simulator: {}", e.getMessage());
-                    // Attempt to reconnect or handle error
-                    try {
-                        Thread.sleep(1000); // Wait before retrying
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
+                // A read failure leaves the stream mid-frame, so this socket is done either way
+                if (running.compareAndSet(true, false)) {
+                    logger.error("Lost connection to World Simulator: {}", e.getMessage());
+                    if (connectionLostHandler != null) {
+                        connectionLostHandler.accept(e);
                     }
                 }
+                break;
             } catch (Exception e) {
                 logger.error("Unexpected error in listener thread: {}", e.getMessage(), e);
                 try {
@@ -110,6 +123,89 @@ public class WorldResponseListener {
         logger.info("World Response Listener thread stopping");
     }
     
+    /**
+     * Handles a response as soon as it arrives: clears our acked commands, acks the world's
+     * seqnums, drops duplicates and queues whatever is new for the WorldResponseHandler
+     * @param response The UResponses message received from the World Simulator
+     */
+    public void handleResponse(WorldUpsProto.UResponses response) {
+        // Clear acked commands right away so queue lag never triggers a resend
+        commandTracker.acknowledge(response);
+        
+        WorldUpsProto.UResponses fresh = acknowledgeAndDeduplicate(response);
+        if (fresh == null) {
+            logger.debug("Dropped response containing only duplicates");
+            return;
+        }
+        
+        responseHandler.queueResponse(fresh);
+        logger.debug("Received and queued response from World Simulator");
+    }
+    
+    /**
+     * Ack every seqnum in the response and strip the ones that were already processed.
+     * Duplicates are acked again because the world resends when our previous ack was lost.
+     * @return The response with only new entries, the original if nothing was dropped,
+     *         or null if nothing is left to process
+     */
+    private WorldUpsProto.UResponses acknowledgeAndDeduplicate(WorldUpsProto.UResponses response) {
+        WorldUpsProto.UResponses.Builder builder = response.toBuilder()
+                .clearCompletions()
+                .clearDelivered()
+                .clearTruckstatus()
+                .clearError();
+        int duplicates = 0;
+        
+        for (WorldUpsProto.UFinished completion : response.getCompletionsList()) {
+            if (acknowledge(completion.getSeqnum())) {
+                builder.addCompletions(completion);
+            } else {
+                duplicates++;
+            }
+        }
+        for (WorldUpsProto.UDeliveryMade delivery : response.getDeliveredList()) {
+            if (acknowledge(delivery.getSeqnum())) {
+                builder.addDelivered(delivery);
+            } else {
+                duplicates++;
+            }
+        }
+        for (WorldUpsProto.UTruck truckStatus : response.getTruckstatusList()) {
+            if (acknowledge(truckStatus.getSeqnum())) {
+                builder.addTruckstatus(truckStatus);
+            } else {
+                duplicates++;
+            }
+        }
+        for (WorldUpsProto.UErr error : response.getErrorList()) {
+            if (acknowledge(error.getSeqnum())) {
+                builder.addError(error);
+            } else {
+                duplicates++;
+            }
+        }
+        
+        if (duplicates == 0) {
+            return response;
+        }
+        logger.info("Dropping {} duplicate entries from World Simulator response", duplicates);
+        
+        boolean empty = builder.getCompletionsCount() == 0 && builder.getDeliveredCount() == 0
+                && builder.getTruckstatusCount() == 0 && builder.getErrorCount() == 0
+                && !(builder.hasFinished() && builder.getFinished());
+        return empty ? null : builder.build();
+    }
+    
+    /**
+     * Queue an ack for a world seqnum and record it as seen
+     * @param seqNum The World Simulator sequence number
+     * @return true if this is the first time the seqnum has been seen
+     */
+    private boolean acknowledge(long seqNum) {
+        commandBatcher.submitAck(seqNum);
+        return seenSeqNums.markSeen(seqNum);
+    }
+    
     /**
      * Receives a response from the World Simulator
      * @return The UResponses message received from the World Simulator
@@ -121,22 +217,8 @@ public class WorldResponseListener {
         }
         
         try {
-            InputStream in = socket.getInputStream();
-            CodedInputStream codedIn = CodedInputStream.newInstance(in);
-            
-            // Read the message size
-            int size = codedIn.readRawVarint32();
-            if (size <= 0) {
-                logger.warn("Received invalid message size: {}", size);
-                return null;
-            }
-            
-            // Read the message
-            int oldLimit = codedIn.pushLimit(size);
-            WorldUpsProto.UResponses response = WorldUpsProto.UResponses.parseFrom(codedIn);
-            codedIn.popLimit(oldLimit);
-            
-            logger.debug("Received message of size {} bytes", size);
+            WorldUpsProto.UResponses response = frameReader.readFrame(WorldUpsProto.UResponses.parser());
+            logger.debug("Received response frame, {} bytes still buffered", frameReader.getBufferedCount());
             return response;
         } catch (IOException e) {
             logger.error("Error reading response from socket: {}", e.getMessage());
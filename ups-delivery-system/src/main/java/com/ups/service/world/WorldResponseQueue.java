@@ -0,0 +1,341 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of World responses waiting for the WorldResponseHandler dispatcher.
+ * A preallocated ring buffer; when it is full the configured overflow policy decides what happens:
+ * <ul>
+ *   <li>block: the producer (the World reader) waits, pushing back on the simulator</li>
+ *   <li>collapse: queued UTruck updates superseded by a newer one for the same truck are dropped,
+ *       blocking only if that frees nothing</li>
+ *   <li>spill: responses overflow to a file on disk and are read back in order</li>
+ * </ul>
+ */
+@Component
+public class WorldResponseQueue {
+    private static final Logger logger = LoggerFactory.getLogger(WorldResponseQueue.class);
+
+    public enum OverflowPolicy { BLOCK, COLLAPSE, SPILL }
+
+    private final WorldUpsProto.UResponses[] items;
+    private final long[] enqueuedNanos;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Path spillDir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head;
+    private int count;
+    private int highWater;
+    private SpillFile spill;
+
+    private final Timer timeInQueue;
+    private final Counter collapsed;
+    private final Counter spilled;
+
+    public WorldResponseQueue() {
+        this(new SimpleMeterRegistry(), 4096, "block", System.getProperty("java.io.tmpdir"));
+    }
+
+    @Autowired
+    public WorldResponseQueue(MeterRegistry meterRegistry,
+                              @Value("${ups.world.queue.capacity:4096}") int capacity,
+                              @Value("${ups.world.queue.overflow:block}") String policy,
+                              @Value("${ups.world.queue.spill-dir:${java.io.tmpdir}}") String spillDir) {
+        this.capacity = Math.max(1, capacity);
+        this.items = new WorldUpsProto.UResponses[this.capacity];
+        this.enqueuedNanos = new long[this.capacity];
+        this.policy = OverflowPolicy.valueOf(policy.trim().toUpperCase());
+        this.spillDir = Paths.get(spillDir);
+
+        Gauge.builder("ups.world.response.queue.depth", this, WorldResponseQueue::size)
+                .description("World responses waiting to be dispatched, including spilled ones")
+                .register(meterRegistry);
+        Gauge.builder("ups.world.response.queue.high-water", this, WorldResponseQueue::getHighWater)
+                .description("Most World responses ever waiting at once")
+                .register(meterRegistry);
+        this.timeInQueue = Timer.builder("ups.world.response.queue.wait")
+                .description("Time a World response waits before dispatch")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.collapsed = Counter.builder("ups.world.response.queue.collapsed")
+                .description("Superseded UTruck updates dropped while the queue was full")
+                .register(meterRegistry);
+        this.spilled = Counter.builder("ups.world.response.queue.spilled")
+                .description("World responses written to disk while the queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Add a response, applying the overflow policy if the buffer is full
+     * @param response The response to queue
+     * @throws InterruptedException If interrupted while waiting for space
+     */
+    public void put(WorldUpsProto.UResponses response) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // Once anything is on disk, newer responses go behind it to keep arrival order
+            if (spill != null) {
+                spillResponse(response);
+                return;
+            }
+
+            while (count == capacity) {
+                if (policy == OverflowPolicy.SPILL) {
+                    spillResponse(response);
+                    return;
+                }
+                if (policy == OverflowPolicy.COLLAPSE && collapseTruckStatuses(response) > 0) {
+                    continue;
+                }
+                notFull.await();
+            }
+
+            enqueue(response, System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest response, waiting until one is available
+     * @return The response
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public WorldUpsProto.UResponses take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+
+            WorldUpsProto.UResponses response = items[head];
+            timeInQueue.record(System.nanoTime() - enqueuedNanos[head], TimeUnit.NANOSECONDS);
+            items[head] = null;
+            head = (head + 1) % capacity;
+            count--;
+
+            refillFromSpill();
+            notFull.signal();
+            return response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of queued responses, including spilled ones
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count + (spill != null ? spill.count : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the most responses ever waiting at once
+     */
+    public int getHighWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(WorldUpsProto.UResponses response, long nanos) {
+        int tail = (head + count) % capacity;
+        items[tail] = response;
+        enqueuedNanos[tail] = nanos;
+        count++;
+        highWater = Math.max(highWater, count + (spill != null ? spill.count : 0));
+        notEmpty.signal();
+    }
+
+    /**
+     * Drop queued UTruck entries that a later update for the same truck supersedes,
+     * looking at the queue and the incoming response, and compact away emptied responses
+     * @return The number of slots freed
+     */
+    private int collapseTruckStatuses(WorldUpsProto.UResponses incoming) {
+        // Index of the newest response holding each truck's status; the incoming one counts as newest
+        Map<Integer, Integer> newest = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            for (WorldUpsProto.UTruck status : items[(head + i) % capacity].getTruckstatusList()) {
+                newest.put(status.getTruckid(), i);
+            }
+        }
+        for (WorldUpsProto.UTruck status : incoming.getTruckstatusList()) {
+            newest.put(status.getTruckid(), count);
+        }
+
+        int dropped = 0;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % capacity;
+            WorldUpsProto.UResponses response = items[slot];
+            if (response.getTruckstatusCount() > 0) {
+                WorldUpsProto.UResponses.Builder builder = null;
+                for (int j = 0; j < response.getTruckstatusCount(); j++) {
+                    WorldUpsProto.UTruck status = response.getTruckstatus(j);
+                    boolean superseded = newest.get(status.getTruckid()) > i;
+                    if (superseded && builder == null) {
+                        // Copy the statuses seen so far and start filtering
+                        builder = response.toBuilder().clearTruckstatus();
+                        for (int k = 0; k < j; k++) {
+                            builder.addTruckstatus(response.getTruckstatus(k));
+                        }
+                    }
+                    if (superseded) {
+                        dropped++;
+                    } else if (builder != null) {
+                        builder.addTruckstatus(status);
+                    }
+                }
+                if (builder != null) {
+                    response = builder.build();
+                }
+            }
+
+            if (isEmpty(response)) {
+                continue;
+            }
+            int target = (head + kept) % capacity;
+            items[target] = response;
+            enqueuedNanos[target] = enqueuedNanos[slot];
+            kept++;
+        }
+
+        for (int i = kept; i < count; i++) {
+            items[(head + i) % capacity] = null;
+        }
+        int freed = count - kept;
+        count = kept;
+
+        if (dropped > 0) {
+            collapsed.increment(dropped);
+            logger.warn("Response queue full: collapsed {} superseded truck updates, freed {} slots", dropped, freed);
+        }
+        return freed;
+    }
+
+    private boolean isEmpty(WorldUpsProto.UResponses response) {
+        return response.getCompletionsCount() == 0 && response.getDeliveredCount() == 0
+                && response.getTruckstatusCount() == 0 && response.getErrorCount() == 0
+                && !(response.hasFinished() && response.getFinished());
+    }
+
+    private void spillResponse(WorldUpsProto.UResponses response) {
+        try {
+            if (spill == null) {
+                spill = new SpillFile(Files.createTempFile(spillDir, "world-responses-", ".spill"));
+                logger.warn("Response queue full: spilling World responses to {}", spill.path);
+            }
+            spill.write(response, System.nanoTime());
+            spilled.increment();
+            highWater = Math.max(highWater, count + spill.count);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill World response to disk", e);
+        }
+    }
+
+    /**
+     * Move spilled responses back into free slots, oldest first, and drop the file once it is drained
+     */
+    private void refillFromSpill() {
+        if (spill == null) {
+            return;
+        }
+        try {
+            while (count < capacity && spill.count > 0) {
+                long nanos = spill.in.readLong();
+                WorldUpsProto.UResponses response = WorldUpsProto.UResponses.parseDelimitedFrom(spill.in);
+                spill.count--;
+                enqueue(response, nanos);
+            }
+            if (spill.count == 0) {
+                spill.delete();
+                logger.info("Drained spilled World responses back into memory");
+                spill = null;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read spilled World responses from {}; {} are lost",
+                    spill.path, spill.count, e);
+            spill.delete();
+            spill = null;
+        }
+    }
+
+    /**
+     * Append-only file of length-delimited responses, each preceded by its enqueue time
+     */
+    private static final class SpillFile {
+        private final Path path;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private int count;
+
+        SpillFile(Path path) throws IOException {
+            this.path = path;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        }
+
+        void write(WorldUpsProto.UResponses response, long nanos) throws IOException {
+            out.writeLong(nanos);
+            response.writeDelimitedTo(out);
+            // Flush so the reader side sees it
+            out.flush();
+            count++;
+        }
+
+        void delete() {
+            try {
+                out.close();
+                in.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete spill file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ups.service.world;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A connection to the World Simulator carrying varint-delimited Protobuf frames.
+ * Selected with ups.world.transport: "socket" for the blocking socket with a listener thread,
+ * "nio" for a non-blocking channel driven by a single selector thread.
+ */
+public interface WorldTransport {
+
+    /**
+     * Open the connection
+     * @param host The World Simulator host
+     * @param port The World Simulator port
+     * @throws IOException If the connection cannot be established
+     */
+    void connect(String host, int port) throws IOException;
+
+    /**
+     * Send one length-prefixed message.
+     * Once reading has started this may only queue the message for the transport's own writer.
+     * @param message The message to send
+     * @return A future that completes once the whole frame has been written to the socket
+     * @throws IOException If the connection is closed or the write fails
+     */
+    CompletableFuture<Void> send(Message message) throws IOException;
+
+    /**
+     * Block until the next frame arrives. Only used for the handshake, before reading starts.
+     * @param parser The parser for the expected message type
+     * @return The parsed message
+     * @throws IOException If the connection closes or the frame cannot be parsed
+     */
+    <T extends Message> T receive(Parser<T> parser) throws IOException;
+
+    /**
+     * Start delivering incoming UResponses to the listener
+     * @param listener The listener that acks, deduplicates and queues responses
+     * @param connectionLostHandler Called at most once if the connection breaks while reading
+     */
+    void startReading(WorldResponseListener listener, Consumer<IOException> connectionLostHandler);
+
+    /**
+     * Stop delivering incoming responses
+     */
+    void stopReading();
+
+    /**
+     * Close the connection, writing anything already queued first where possible
+     */
+    void close();
+
+    /**
+     * Check whether the connection is open
+     */
+    boolean isConnected();
+}
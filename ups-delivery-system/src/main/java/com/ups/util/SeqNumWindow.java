@@ -0,0 +1,111 @@
+package com.ups.util;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window bitset of seen sequence numbers for duplicate suppression.
+ * Remembers the last windowSize seqnums below the highest one seen, in constant memory
+ * and without boxing. Anything that has slid out of the window is treated as already seen.
+ */
+public class SeqNumWindow {
+
+    private final long[] bits;
+    private final int windowSize;
+    private final int mask;
+    private long highest;
+    private boolean empty = true;
+
+    /**
+     * Create a window
+     * @param windowSize How many seqnums to remember, rounded up to a multiple of 64 and a power of two
+     */
+    public SeqNumWindow(int windowSize) {
+        int size = Math.max(64, Integer.highestOneBit(Math.max(1, windowSize - 1)) << 1);
+        this.windowSize = size;
+        this.mask = size - 1;
+        this.bits = new long[size >>> 6];
+    }
+
+    /**
+     * Record a seqnum
+     * @param seqNum The sequence number
+     * @return true if it had not been seen before, false if it is a duplicate or too old to tell
+     */
+    public synchronized boolean markSeen(long seqNum) {
+        if (empty) {
+            empty = false;
+            highest = seqNum;
+            set(seqNum);
+            return true;
+        }
+
+        if (seqNum > highest) {
+            slideTo(seqNum);
+            set(seqNum);
+            return true;
+        }
+
+        if (highest - seqNum >= windowSize) {
+            return false;
+        }
+
+        if (isSet(seqNum)) {
+            return false;
+        }
+        set(seqNum);
+        return true;
+    }
+
+    /**
+     * Check a seqnum without recording it
+     * @param seqNum The sequence number
+     * @return true if it has been seen (or is too old to tell)
+     */
+    public synchronized boolean isSeen(long seqNum) {
+        if (empty || seqNum > highest) {
+            return false;
+        }
+        return highest - seqNum >= windowSize || isSet(seqNum);
+    }
+
+    /**
+     * Get the highest seqnum seen so far, or -1 if none
+     */
+    public synchronized long getHighest() {
+        return empty ? -1 : highest;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Advance the top of the window, clearing the bits of seqnums that are now reused
+     */
+    private void slideTo(long seqNum) {
+        long advance = seqNum - highest;
+        if (advance >= windowSize) {
+            Arrays.fill(bits, 0L);
+        } else {
+            for (long s = highest + 1; s <= seqNum; s++) {
+                clear(s);
+            }
+        }
+        highest = seqNum;
+    }
+
+    private boolean isSet(long seqNum) {
+        int bit = (int) (seqNum & mask);
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void set(long seqNum) {
+        int bit = (int) (seqNum & mask);
+        bits[bit >>> 6] |= 1L << bit;
+    }
+
+    private void clear(long seqNum) {
+        int bit = (int) (seqNum & mask);
+        bits[bit >>> 6] &= ~(1L << bit);
+    }
+}
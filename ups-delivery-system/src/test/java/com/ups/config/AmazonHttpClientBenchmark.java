@@ -0,0 +1,101 @@
+package com.ups.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares notification POST latency through the old RestTemplate setup (SimpleClientHttpRequestFactory
+ * without keep-alive, a new TCP connection per request) against the pooled JDK client, on a loopback
+ * server. Reports mean and p99 per request and how many connections the server saw.
+ * Not run by the test suite; run the main method directly.
+ */
+public class AmazonHttpClientBenchmark {
+
+    private static final int REQUESTS = 2000;
+    private static final String BODY = "{\"message_type\":\"UpdateShipmentStatus\",\"seq_num\":1,\"package_id\":1001,"
+            + "\"status\":\"DELIVERING\",\"details\":\"Package on its way\"}";
+
+    public static void main(String[] args) throws Exception {
+        // HttpURLConnection would otherwise keep loopback connections alive on its own; the old setup
+        // opened one per notification against Amazon, so turn that off for it (the JDK HttpClient ignores this)
+        System.setProperty("http.keepAlive", "false");
+        // The JDK test server writes response headers and body separately; without this Nagle's algorithm
+        // holds the body back for a delayed ACK on every kept-alive request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        Set<Integer> connections = ConcurrentHashMap.newKeySet();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext("/api/ups/notifications/status-update", exchange -> {
+            connections.add(exchange.getRemoteAddress().getPort());
+            exchange.getRequestBody().readAllBytes();
+            byte[] response = "{\"success\":true}".getBytes();
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/ups/notifications/status-update";
+
+        try {
+            SimpleClientHttpRequestFactory simple = new SimpleClientHttpRequestFactory();
+            simple.setConnectTimeout(10000);
+            simple.setReadTimeout(30000);
+            HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+            ClientHttpRequestFactory pooled = new PooledJdkHttpRequestFactory(httpClient, Duration.ofSeconds(30),
+                    20, 5000, new SimpleMeterRegistry());
+
+            run("New connection per request", simple, url, connections);
+            run("Pooled keep-alive client", pooled, url, connections);
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, ClientHttpRequestFactory factory, String url, Set<Integer> connections) {
+        RestTemplate restTemplate = new RestTemplate(factory);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> request = new HttpEntity<>(BODY, headers);
+
+        // Warm up
+        for (int i = 0; i < REQUESTS / 5; i++) {
+            restTemplate.postForEntity(url, request, Object.class);
+        }
+        connections.clear();
+
+        long[] nanos = new long[REQUESTS];
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            long t = System.nanoTime();
+            restTemplate.postForEntity(url, request, Object.class);
+            nanos[i] = System.nanoTime() - t;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(nanos);
+        System.out.printf("%-28s %6d requests in %5.2fs  %8.0f req/s  mean %6.1f us  p99 %7.1f us  %5d connections%n",
+                name, REQUESTS, seconds, REQUESTS / seconds,
+                Arrays.stream(nanos).average().orElse(0) / 1000.0, nanos[(int) (REQUESTS * 0.99)] / 1000.0,
+                connections.size());
+    }
+}
@@ -0,0 +1,140 @@
+package com.ups.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledJdkHttpRequestFactoryTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/ok", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] response = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void testSequentialRequestsReuseOneConnection() {
+        RestTemplate restTemplate = restTemplate(4, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            ResponseEntity<Object> response = restTemplate.postForEntity(baseUrl + "/ok", json("{\"seq_num\":" + i + "}"), Object.class);
+            assertTrue(response.getStatusCode().is2xxSuccessful());
+        }
+
+        assertEquals(List.of("{\"seq_num\":0}", "{\"seq_num\":1}", "{\"seq_num\":2}"), bodies);
+        // The same client port each time: no new TCP handshake
+        assertEquals(1, clientPorts.stream().distinct().count(), "Client ports " + clientPorts);
+    }
+
+    @Test
+    void testErrorStatusReachesTheRestTemplate() {
+        RestTemplate restTemplate = restTemplate(4, 1000);
+
+        assertThrows(HttpClientErrorException.NotFound.class,
+                () -> restTemplate.postForEntity(baseUrl + "/missing", json("[]"), Object.class));
+    }
+
+    @Test
+    void testRequestsOverTheRouteLimitWaitForASlot() throws Exception {
+        RestTemplate restTemplate = restTemplate(1, 200);
+        String route = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        CompletableFuture<ResponseEntity<Void>> first = CompletableFuture.supplyAsync(
+                () -> restTemplate.postForEntity(baseUrl + "/slow", json("{}"), Void.class));
+        waitForGauge("amazon.http.pool.leased", route, 1);
+
+        // The only slot is taken, so the next request gives up after the acquire timeout
+        assertThrows(ResourceAccessException.class,
+                () -> restTemplate.postForEntity(baseUrl + "/ok", json("{}"), Object.class));
+
+        release.countDown();
+        assertTrue(first.get(5, TimeUnit.SECONDS).getStatusCode().is2xxSuccessful());
+        waitForGauge("amazon.http.pool.leased", route, 0);
+        assertEquals(0, meterRegistry.get("amazon.http.pool.pending").tag("route", route).gauge().value());
+        assertEquals(1, meterRegistry.get("amazon.http.pool.max").tag("route", route).gauge().value());
+    }
+
+    private RestTemplate restTemplate(int maxPerRoute, long acquireTimeoutMillis) {
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        return new RestTemplate(new PooledJdkHttpRequestFactory(httpClient, Duration.ofSeconds(5),
+                maxPerRoute, acquireTimeoutMillis, meterRegistry));
+    }
+
+    private static HttpEntity<String> json(String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(body, headers);
+    }
+
+    private void waitForGauge(String name, String route, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (meterRegistry.find(name).tag("route", route).gauge() == null
+                || meterRegistry.get(name).tag("route", route).gauge().value() != expected) {
+            assertTrue(System.currentTimeMillis() < deadline, name + " never reached " + expected);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -35,6 +36,10 @@ import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -154,6 +159,34 @@ public class AmazonApiControllerTest {
                 .andExpect(jsonPath("$.status").value("UPDATED"));
     }
     
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void testChangeDestinationRetriesATruckChangedMeanwhile() throws Exception {
+        ChangeDestinationRequest request = new ChangeDestinationRequest();
+        request.setMessageType("ChangeDestinationRequest");
+        request.setSeqNum(103L);
+        request.setTimestamp(Instant.now());
+        request.setPackageId(1001L);
+        
+        ChangeDestinationRequest.Destination newDestination = new ChangeDestinationRequest.Destination();
+        newDestination.setX(50);
+        newDestination.setY(60);
+        request.setNewDestination(newDestination);
+        
+        when(packageRepository.findById(1001L)).thenReturn(Optional.of(testPackage));
+        // The first send loses a race with the fleet's write-behind
+        doThrow(new ObjectOptimisticLockingFailureException(Truck.class, 55))
+                .doNothing()
+                .when(ups).sendTruckToDeliver(eq(55), eq(1001L), any(Location.class));
+        
+        mockMvc.perform(post("/api/changedestination")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("UPDATED"));
+        verify(ups, times(2)).sendTruckToDeliver(eq(55), eq(1001L), any(Location.class));
+    }
+    
     @Test
     @WithMockUser(roles = "ADMIN")
     public void testQueryShipmentStatus() throws Exception {
@@ -2,6 +2,8 @@ package com.ups.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ups.model.MessageLog;
+import com.ups.model.OutboxMessage;
 import com.ups.model.amazon.NotifyDeliveryComplete;
 import com.ups.model.amazon.NotifyTruckArrived;
 import com.ups.model.amazon.UpdateShipmentStatus;
@@ -15,15 +17,18 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.TestPropertySource;
-import org.springframework.test.util.ReflectionTestUtils;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.RestClientException;
 
-import java.util.HashMap;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -42,7 +47,7 @@ public class AmazonNotificationServiceTest {
     private MessageLogRepository messageLogRepository;
 
     @Mock
-    private RestTemplate restTemplate;
+    private NotificationOutboxRelay outboxRelay;
 
     private ObjectMapper objectMapper;
 
@@ -55,18 +60,9 @@ public class AmazonNotificationServiceTest {
         amazonNotificationService = new AmazonNotificationService(
                 messageTrackingService,
                 messageLogRepository,
-                restTemplate,
-                objectMapper
+                objectMapper,
+                outboxRelay
         );
-        
-        // Get Amazon URL from environment variable if available
-        String amazonUrl = System.getenv("AMAZON_SERVICE_URL");
-        if (amazonUrl == null || amazonUrl.isEmpty()) {
-            amazonUrl = "http://amazon-mock:8080"; // default fallback
-        }
-        
-        ReflectionTestUtils.setField(amazonNotificationService, "amazonServiceUrl", amazonUrl);
-        System.out.println("Using Amazon service URL: " + amazonUrl);
     }
 
     @Test
@@ -86,14 +82,16 @@ public class AmazonNotificationServiceTest {
         warehouse.setY(10);
         
         when(messageTrackingService.getNextSeqNum()).thenReturn(1001L);
-        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
-            .thenReturn(ResponseEntity.ok().build());
+        when(outboxRelay.enqueue(anyLong(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
 
         // Act
-        amazonNotificationService.notifyTruckArrival(pkg, truck, warehouse);
+        amazonNotificationService.notifyTruckArrival(pkg, truck, warehouse).join();
 
         // Assert
         verify(messageTrackingService).recordOutgoingMessage(eq(1001L), eq("NotifyTruckArrived"));
+        verify(outboxRelay).enqueue(eq(1001L), eq("NotifyTruckArrived"),
+                eq("/api/ups/notifications/truck-arrived"), contains("\"warehouse_id\":789"));
     }
 
     @Test
@@ -110,14 +108,16 @@ public class AmazonNotificationServiceTest {
         truck.setY(50);
         
         when(messageTrackingService.getNextSeqNum()).thenReturn(1002L);
-        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
-            .thenReturn(ResponseEntity.ok().build());
+        when(outboxRelay.enqueue(anyLong(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
 
         // Act
-        amazonNotificationService.notifyDeliveryComplete(pkg, truck);
+        amazonNotificationService.notifyDeliveryComplete(pkg, truck).join();
 
         // Assert
         verify(messageTrackingService).recordOutgoingMessage(eq(1002L), eq("NotifyDeliveryComplete"));
+        verify(outboxRelay).enqueue(eq(1002L), eq("NotifyDeliveryComplete"),
+                eq("/api/ups/notifications/delivery-complete"), anyString());
     }
 
     @Test
@@ -132,11 +132,11 @@ public class AmazonNotificationServiceTest {
         truck.setY(30);
         
         when(messageTrackingService.getNextSeqNum()).thenReturn(1003L);
-        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
-            .thenReturn(ResponseEntity.ok().build());
+        when(outboxRelay.enqueue(anyLong(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
 
         // Act
-        amazonNotificationService.sendStatusUpdate(pkg, truck, "DELIVERING", "Package on its way");
+        amazonNotificationService.sendStatusUpdate(pkg, truck, "DELIVERING", "Package on its way").join();
 
         // Assert
         verify(messageTrackingService).recordOutgoingMessage(eq(1003L), eq("UpdateShipmentStatus"));
@@ -149,18 +149,18 @@ public class AmazonNotificationServiceTest {
         pkg.setId(123L);
         
         when(messageTrackingService.getNextSeqNum()).thenReturn(1004L);
-        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
-            .thenReturn(ResponseEntity.ok().build());
+        when(outboxRelay.enqueue(anyLong(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
 
         // Act
-        amazonNotificationService.sendStatusUpdate(pkg, null, "CREATED", "New package created");
+        amazonNotificationService.sendStatusUpdate(pkg, null, "CREATED", "New package created").join();
 
         // Assert
         verify(messageTrackingService).recordOutgoingMessage(eq(1004L), eq("UpdateShipmentStatus"));
     }
 
     @Test
-    void testHandleNetworkError() {
+    void testFailedNotificationIsReportedToTheCaller() {
         // Arrange
         Package pkg = new Package();
         pkg.setId(123L);
@@ -169,20 +169,84 @@ public class AmazonNotificationServiceTest {
         truck.setId(456);
         
         when(messageTrackingService.getNextSeqNum()).thenReturn(1005L);
+        when(outboxRelay.enqueue(anyLong(), anyString(), anyString(), anyString()))
+            .thenReturn(CompletableFuture.failedFuture(new RestClientException("Failed to send notification")));
 
-        doThrow(new RuntimeException("Network error"))
-            .when(restTemplate).postForEntity(anyString(), any(HttpEntity.class), eq(Object.class));
-
-        // Act - should not throw exception due to our retry mechanism
-        try {
-            amazonNotificationService.sendStatusUpdate(pkg, truck, "ERROR", "Test error");
-            fail("Should have thrown exception after retry attempts");
-        } catch (Exception e) {
-            // Expected exception after retries
-            assertTrue(e.getMessage().contains("Failed to send notification"));
-        }
+        // Act
+        CompletableFuture<ResponseEntity<?>> result = amazonNotificationService
+                .sendStatusUpdate(pkg, truck, "ERROR", "Test error");
 
         // Assert - message tracking should still be called even if notification fails
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertTrue(e.getCause().getMessage().contains("Failed to send notification"));
         verify(messageTrackingService).recordOutgoingMessage(eq(1005L), eq("UpdateShipmentStatus"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testRetryLeavesOutboxNotificationsToTheRelay() {
+        MessageLog stored = outgoing(1L, 2001L, "NotifyTruckArrived");
+        MessageLog legacy = outgoing(2L, 2002L, "UpdateShipmentStatus");
+        MessageLog delivered = outgoing(3L, 2003L, "UpdateShipmentStatus");
+        when(messageLogRepository.findUnacknowledgedPage(eq("OUTGOING"), any(Instant.class), anyLong(),
+                any(Instant.class), any(Pageable.class))).thenReturn(List.of(stored, legacy, delivered));
+        OutboxMessage sent = outboxRow(2003L);
+        sent.setDeliveredAt(Instant.now());
+        when(outboxRelay.findLatest(anyCollection())).thenReturn(Map.of(2001L, outboxRow(2001L), 2003L, sent));
+
+        amazonNotificationService.retryFailedNotifications();
+
+        // The undelivered one is the relay's to retry; the others are acknowledged
+        verify(outboxRelay).findLatest(List.of(2001L, 2002L, 2003L));
+        verify(messageTrackingService, never()).acknowledgeMessage(2001L);
+        verify(messageTrackingService).acknowledgeMessage(2002L);
+        verify(messageTrackingService).acknowledgeMessage(2003L);
+        verify(messageLogRepository, never()).findBySeqNum(anyLong());
+    }
+
+    @Test
+    void testRetryScanPagesThroughTheAgeWindow() {
+        amazonNotificationService = new AmazonNotificationService(
+                messageTrackingService, messageLogRepository, objectMapper, outboxRelay, 2);
+        MessageLog first = outgoing(10L, 3001L, "UpdateShipmentStatus");
+        MessageLog second = outgoing(11L, 3002L, "UpdateShipmentStatus");
+        MessageLog third = outgoing(12L, 3003L, "UpdateShipmentStatus");
+        when(messageLogRepository.findUnacknowledgedPage(eq("OUTGOING"), any(Instant.class), anyLong(),
+                any(Instant.class), any(Pageable.class)))
+            .thenReturn(List.of(first, second))
+            .thenReturn(List.of(third));
+
+        Instant start = Instant.now();
+        amazonNotificationService.retryFailedNotifications();
+
+        ArgumentCaptor<Instant> afterTimestamp = ArgumentCaptor.forClass(Instant.class);
+        ArgumentCaptor<Long> afterId = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Instant> before = ArgumentCaptor.forClass(Instant.class);
+        verify(messageLogRepository, times(2)).findUnacknowledgedPage(eq("OUTGOING"), afterTimestamp.capture(),
+                afterId.capture(), before.capture(), eq(PageRequest.of(0, 2)));
+        // The first page starts a day back and ends a minute ago; the next one continues after the last row
+        assertFalse(before.getValue().isBefore(start.minus(Duration.ofMinutes(1))));
+        assertEquals(Duration.ofHours(24).minusMinutes(1),
+                Duration.between(afterTimestamp.getAllValues().get(0), before.getValue()));
+        assertEquals(List.of(0L, 11L), afterId.getAllValues());
+        assertEquals(second.getTimestamp(), afterTimestamp.getAllValues().get(1));
+        // One outbox lookup per page
+        verify(outboxRelay).findLatest(List.of(3001L, 3002L));
+        verify(outboxRelay).findLatest(List.of(3003L));
+        verify(messageTrackingService, times(3)).acknowledgeMessage(anyLong());
+    }
+
+    private static OutboxMessage outboxRow(long seqNum) {
+        return new OutboxMessage(seqNum, "UpdateShipmentStatus", "/api/ups/notifications/status-update", "{}",
+                Instant.now());
+    }
+
+    private static MessageLog outgoing(long id, long seqNum, String messageType) {
+        MessageLog log = new MessageLog();
+        log.setId(id);
+        log.setSeqNum(seqNum);
+        log.setMessageType(messageType);
+        log.setDirection("OUTGOING");
+        log.setTimestamp(Instant.now().minusSeconds(300));
+        return log;
+    }
+}
@@ -0,0 +1,32 @@
+package com.ups.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AmazonNotificationsHealthIndicatorTest {
+
+    @Test
+    void testOpenCircuitDegradesButDoesNotTakeTheServiceDown() {
+        NotificationOutboxRelay relay = mock(NotificationOutboxRelay.class);
+        AmazonNotificationsHealthIndicator indicator = new AmazonNotificationsHealthIndicator(relay);
+
+        when(relay.getCircuitStates()).thenReturn(Map.of("/api/ups/notifications/status-update", CircuitBreaker.State.CLOSED));
+        assertEquals(Status.UP, indicator.health().getStatus());
+
+        when(relay.getCircuitStates()).thenReturn(Map.of(
+                "/api/ups/notifications/status-update", CircuitBreaker.State.OPEN,
+                "/api/ups/notifications/truck-arrived", CircuitBreaker.State.CLOSED));
+        when(relay.getBacklog()).thenReturn(42);
+        Health health = indicator.health();
+        assertEquals(AmazonNotificationsHealthIndicator.DEGRADED, health.getStatus());
+        assertEquals(42, health.getDetails().get("outboxBacklog"));
+        assertEquals(CircuitBreaker.State.OPEN,
+                ((Map<?, ?>) health.getDetails().get("circuits")).get("/api/ups/notifications/status-update"));
+    }
+}
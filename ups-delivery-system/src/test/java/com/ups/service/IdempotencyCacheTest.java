@@ -0,0 +1,117 @@
+package com.ups.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ups.model.IdempotentResponse;
+import com.ups.model.amazon.ChangeDestinationResponse;
+import com.ups.model.amazon.CreateShipmentResponse;
+import com.ups.repository.IdempotentResponseRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class IdempotencyCacheTest {
+
+    @Mock
+    private IdempotentResponseRepository responseRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<Long, IdempotentResponse> stored = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        when(responseRepository.save(any(IdempotentResponse.class))).thenAnswer(invocation -> {
+            IdempotentResponse response = invocation.getArgument(0);
+            stored.put(response.getSeqNum(), response);
+            return response;
+        });
+        when(responseRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(stored.get((Long) invocation.getArgument(0))));
+    }
+
+    @Test
+    void testReplayIsAnsweredFromMemory() {
+        IdempotencyCache cache = cache(10, 60000);
+        cache.put(1L, response(1L, 501L));
+
+        CreateShipmentResponse replayed = cache.get(1L, CreateShipmentResponse.class);
+
+        assertEquals(501L, replayed.getSeqNum());
+        assertEquals(1L, replayed.getAck());
+        assertNull(cache.get(1L, ChangeDestinationResponse.class), "A response of another type is not a replay");
+        assertNull(cache.get(2L, CreateShipmentResponse.class));
+        verify(responseRepository, never()).findById(1L);
+        assertEquals(1, lookups("hit"));
+        assertEquals(2, lookups("miss"));
+    }
+
+    @Test
+    void testEvictedAndExpiredResponsesComeFromTheStore() throws Exception {
+        IdempotencyCache cache = cache(10, 60000);
+        // Two probation slots of ten; the oldest one-off responses are evicted
+        for (long seq = 1; seq <= 5; seq++) {
+            cache.put(seq, response(seq, 500 + seq));
+        }
+        assertEquals(2, cache.size());
+        assertEquals(3, meterRegistry.get("amazon.idempotency.evictions").counter().count());
+
+        CreateShipmentResponse replayed = cache.get(1L, CreateShipmentResponse.class);
+        assertEquals(501L, replayed.getSeqNum());
+        assertEquals(1, lookups("store_hit"));
+
+        IdempotencyCache shortLived = cache(10, 1);
+        shortLived.put(9L, response(9L, 509L));
+        Thread.sleep(5);
+        assertEquals(509L, shortLived.get(9L, CreateShipmentResponse.class).getSeqNum());
+        verify(responseRepository).findById(9L);
+    }
+
+    @Test
+    void testRepeatedReplaysSurviveABurstOfNewResponses() {
+        IdempotencyCache cache = cache(10, 60000);
+        cache.put(1L, response(1L, 501L));
+        // A second read promotes it out of probation
+        cache.get(1L, CreateShipmentResponse.class);
+
+        for (long seq = 100; seq < 200; seq++) {
+            cache.put(seq, response(seq, 500 + seq));
+        }
+
+        assertNotNull(cache.get(1L, CreateShipmentResponse.class));
+        verify(responseRepository, never()).findById(1L);
+        assertTrue(meterRegistry.get("amazon.idempotency.bytes").gauge().value() > 0);
+    }
+
+    private IdempotencyCache cache(int maxSize, long ttlMillis) {
+        return new IdempotencyCache(responseRepository, objectMapper, meterRegistry, maxSize, ttlMillis);
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("amazon.idempotency.lookups").tag("result", result).counter().count();
+    }
+
+    private static CreateShipmentResponse response(long ack, long seqNum) {
+        CreateShipmentResponse response = new CreateShipmentResponse();
+        response.setMessageType("CreateShipmentResponse");
+        response.setSeqNum(seqNum);
+        response.setAck(ack);
+        response.setTimestamp(Instant.now());
+        return response;
+    }
+}
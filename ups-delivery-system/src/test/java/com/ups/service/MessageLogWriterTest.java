@@ -0,0 +1,164 @@
+package com.ups.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class MessageLogWriterTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch writing = new CountDownLatch(1);
+    // Each JDBC batch as it was written: the SQL and its rows
+    private final List<Batch> batches = new CopyOnWriteArrayList<>();
+
+    private record Batch(String sql, List<Object[]> rows, String thread) {
+        boolean isInsert() {
+            return sql.startsWith("INSERT");
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            String thread = Thread.currentThread().getName();
+            batches.add(new Batch(invocation.getArgument(0), new ArrayList<>(invocation.getArgument(1)), thread));
+            if (thread.equals("MessageLogWriter")) {
+                // Hold the writer thread so entries pile up behind it
+                writing.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return new int[0];
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void testEntriesAreWrittenInBatchesAndFlushedOnStop() throws Exception {
+        MessageLogWriter writer = new MessageLogWriter(jdbcTemplate, null, meterRegistry, 100, 10);
+        writer.start();
+
+        writer.append(0, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (long seq = 1; seq < 25; seq++) {
+            writer.append(seq, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        }
+        writer.acknowledge(1, Instant.now());
+        Thread.sleep(20);
+        assertEquals(25, meterRegistry.get("amazon.messagelog.pending").gauge().value());
+        assertTrue(meterRegistry.get("amazon.messagelog.writer.lag").gauge().value() >= 20);
+
+        release.countDown();
+        writer.stop();
+
+        assertEquals(0, writer.getLagMillis());
+        assertEquals(26, meterRegistry.get("amazon.messagelog.written").counter().count());
+        List<Long> inserted = new ArrayList<>();
+        int ackBatch = -1;
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            assertTrue(batch.rows().size() <= 10, "Batch of " + batch.rows().size());
+            if (batch.isInsert()) {
+                batch.rows().forEach(row -> inserted.add((Long) row[0]));
+            } else {
+                ackBatch = i;
+                assertEquals(1L, batch.rows().get(0)[1]);
+            }
+        }
+        assertEquals(25, inserted.size());
+        // The ack is applied after every insert, including the row it updates
+        assertEquals(batches.size() - 1, ackBatch);
+        verify(jdbcTemplate, times(5)).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void testCallerWritesItselfWhenTheBufferIsFull() throws Exception {
+        MessageLogWriter writer = new MessageLogWriter(jdbcTemplate, null, meterRegistry, 1, 10);
+        writer.start();
+
+        writer.append(1, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        writer.append(2, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        writer.append(3, "CreateShipmentResponse", "OUTGOING", Instant.now());
+
+        // The third did not fit and was written on this thread, without waiting for the writer
+        Batch inline = batches.get(batches.size() - 1);
+        assertEquals(Thread.currentThread().getName(), inline.thread());
+        assertEquals(3L, inline.rows().get(0)[0]);
+        assertEquals(1, meterRegistry.get("amazon.messagelog.overflow").counter().count());
+
+        release.countDown();
+        writer.stop();
+        assertEquals(3, meterRegistry.get("amazon.messagelog.written").counter().count());
+    }
+
+    @Test
+    void testFailedBatchIsWrittenAgainRowByRow() throws Exception {
+        // Sequence number 3 is a row the database refuses, alone or in a batch
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            if (rows.stream().anyMatch(row -> Long.valueOf(3L).equals(row[0]))) {
+                throw new DataIntegrityViolationException("value too long for type character varying(255)");
+            }
+            if (Thread.currentThread().getName().equals("MessageLogWriter")) {
+                writing.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return new int[0];
+        });
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            if (Long.valueOf(3L).equals(invocation.getArgument(1))) {
+                throw new DataIntegrityViolationException("value too long for type character varying(255)");
+            }
+            return 1;
+        });
+        MessageLogWriter writer = new MessageLogWriter(jdbcTemplate, null, meterRegistry, 100, 10);
+        writer.start();
+
+        writer.append(0, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (long seq = 1; seq <= 4; seq++) {
+            writer.append(seq, "CreateShipmentResponse", "OUTGOING", Instant.now());
+        }
+        release.countDown();
+        writer.stop();
+
+        // Only the bad row is lost; the rest of its batch was written one at a time
+        assertEquals(4, meterRegistry.get("amazon.messagelog.written").counter().count());
+        assertEquals(1, meterRegistry.get("amazon.messagelog.failed").counter().count());
+        assertEquals(1, meterRegistry.get("amazon.messagelog.batch.fallback").counter().count());
+        for (long seq = 1; seq <= 4; seq++) {
+            verify(jdbcTemplate).update(startsWith("INSERT"), eq(seq), eq("CreateShipmentResponse"), eq("OUTGOING"),
+                    any(OffsetDateTime.class));
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.ups.service;
 
-import com.ups.model.MessageLog;
 import com.ups.repository.MessageLogRepository;
+import com.ups.repository.OutboxMessageRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,7 +12,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.time.Instant;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,9 +23,15 @@ public class MessageTrackingServiceTest {
     @Mock
     private MessageLogRepository messageLogRepository;
 
+    @Mock
+    private MessageLogWriter messageLogWriter;
+
+    @Mock
+    private OutboxMessageRepository outboxMessageRepository;
+
     @BeforeEach
     void setUp() {
-        messageTrackingService = new MessageTrackingService(messageLogRepository);
+        messageTrackingService = new MessageTrackingService(messageLogRepository, messageLogWriter);
     }
 
     @Test
@@ -41,58 +47,55 @@ public class MessageTrackingServiceTest {
     }
 
     @Test
-    void testRecordOutgoingMessage() {
-        // Arrange
-        long seqNum = 42;
-        String messageType = "TEST_MESSAGE";
+    void testSequenceContinuesAfterTheLastRun() {
+        messageTrackingService = new MessageTrackingService(messageLogRepository, messageLogWriter,
+                outboxMessageRepository, 128);
+        // The outbox is written with the change, the log in the background, so either may be ahead
+        when(messageLogRepository.findMaxSeqNum("OUTGOING")).thenReturn(40L);
+        when(outboxMessageRepository.findMaxSeqNum()).thenReturn(57L);
 
-        // Act
-        messageTrackingService.recordOutgoingMessage(seqNum, messageType);
+        messageTrackingService.resumeSequence();
 
-        // Assert
-        ArgumentCaptor<MessageLog> captor = ArgumentCaptor.forClass(MessageLog.class);
-        verify(messageLogRepository).save(captor.capture());
+        assertEquals(58, messageTrackingService.getNextSeqNum());
+    }
 
-        MessageLog savedLog = captor.getValue();
-        assertEquals(seqNum, savedLog.getSeqNum());
-        assertEquals(messageType, savedLog.getMessageType());
-        assertEquals("OUTGOING", savedLog.getDirection());
-        assertNotNull(savedLog.getTimestamp());
-        assertNull(savedLog.getAcknowledged());
+    @Test
+    void testSequenceStartsAtOneOnAnEmptyDatabase() {
+        messageTrackingService = new MessageTrackingService(messageLogRepository, messageLogWriter,
+                outboxMessageRepository, 128);
+
+        messageTrackingService.resumeSequence();
+
+        assertEquals(1, messageTrackingService.getNextSeqNum());
     }
 
     @Test
-    void testAcknowledgeMessage() {
+    void testRecordOutgoingMessage() {
         // Arrange
         long seqNum = 42;
-        MessageLog existingLog = new MessageLog();
-        existingLog.setSeqNum(seqNum);
-        existingLog.setMessageType("TEST_MESSAGE");
-        existingLog.setDirection("OUTGOING");
-        existingLog.setTimestamp(Instant.now());
-
-        when(messageLogRepository.findBySeqNum(seqNum)).thenReturn(existingLog);
+        String messageType = "TEST_MESSAGE";
 
         // Act
-        boolean result = messageTrackingService.acknowledgeMessage(seqNum);
+        messageTrackingService.recordOutgoingMessage(seqNum, messageType);
 
-        // Assert
-        assertTrue(result);
-        assertNotNull(existingLog.getAcknowledged());
-        verify(messageLogRepository).save(existingLog);
+        // Assert: handed to the background writer, not saved on this thread
+        ArgumentCaptor<Instant> timestamp = ArgumentCaptor.forClass(Instant.class);
+        verify(messageLogWriter).append(eq(seqNum), eq(messageType), eq("OUTGOING"), timestamp.capture());
+        assertNotNull(timestamp.getValue());
+        verifyNoInteractions(messageLogRepository);
     }
 
     @Test
-    void testAcknowledgeNonExistentMessage() {
+    void testAcknowledgeMessage() {
         // Arrange
         long seqNum = 42;
-        when(messageLogRepository.findBySeqNum(seqNum)).thenReturn(null);
 
         // Act
-        boolean result = messageTrackingService.acknowledgeMessage(seqNum);
+        messageTrackingService.acknowledgeMessage(seqNum);
 
-        // Assert
-        assertFalse(result);
+        // Assert: batched by the writer instead of a find and save per message
+        verify(messageLogWriter).acknowledge(eq(seqNum), any(Instant.class));
+        verify(messageLogRepository, never()).findBySeqNum(anyLong());
         verify(messageLogRepository, never()).save(any());
     }
 
@@ -103,4 +106,24 @@ public class MessageTrackingServiceTest {
         messageTrackingService.getUnacknowledgedMessages();
         verify(messageLogRepository).findByAcknowledgedIsNullAndDirection("OUTGOING");
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testProcessedMessagesAreNeverForgottenWithinTheWindow() {
+        messageTrackingService = new MessageTrackingService(messageLogRepository, messageLogWriter, null, 128);
+
+        for (long seq = 1; seq <= 20000; seq++) {
+            messageTrackingService.markMessageProcessed(seq, "CreateShipmentRequest");
+        }
+
+        // No periodic clear: the latest messages are still known as duplicates
+        assertTrue(messageTrackingService.isMessageProcessed(20000L));
+        assertTrue(messageTrackingService.isMessageProcessed(19900L));
+        assertFalse(messageTrackingService.isMessageProcessed(20001L));
+        // Out of order within the window is still new
+        messageTrackingService.markMessageProcessed(20010L, "CreateShipmentRequest");
+        assertFalse(messageTrackingService.isMessageProcessed(20005L));
+        // Too old to tell counts as processed rather than being handled twice
+        assertTrue(messageTrackingService.isMessageProcessed(5L));
+        assertFalse(messageTrackingService.isMessageProcessed(null));
+    }
+}
@@ -0,0 +1,490 @@
+package com.ups.service;
+
+import com.ups.model.OutboxMessage;
+import com.ups.repository.OutboxMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class NotificationOutboxRelayTest {
+
+    // start() prefers the URL from the environment, as in a deployment
+    private static final String URL = System.getenv("AMAZON_SERVICE_URL") == null
+            || System.getenv("AMAZON_SERVICE_URL").trim().isEmpty()
+            ? "http://amazon-mock:8080" : System.getenv("AMAZON_SERVICE_URL");
+    private static final String STATUS = "/api/ups/notifications/status-update";
+    private static final String DELIVERED = "/api/ups/notifications/delivery-complete";
+
+    @Mock
+    private OutboxMessageRepository outboxMessageRepository;
+
+    @Mock
+    private MessageTrackingService messageTrackingService;
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    // The outbox table, kept in a list
+    private final List<OutboxMessage> outbox = new ArrayList<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private NotificationOutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        when(outboxMessageRepository.save(any(OutboxMessage.class))).thenAnswer(invocation -> {
+            OutboxMessage row = invocation.getArgument(0);
+            row.setId((long) nextId.incrementAndGet());
+            synchronized (outbox) {
+                outbox.add(row);
+            }
+            return row;
+        });
+        when(outboxMessageRepository.findUndeliveredAfter(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(0);
+            Pageable page = invocation.getArgument(1);
+            synchronized (outbox) {
+                return outbox.stream()
+                        .filter(row -> row.getDeliveredAt() == null && row.getDeadAt() == null
+                                && row.getId() > afterId)
+                        .limit(page.getPageSize())
+                        .map(NotificationOutboxRelayTest::copy)
+                        .toList();
+            }
+        });
+        when(outboxMessageRepository.markDelivered(anyCollection(), any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            synchronized (outbox) {
+                outbox.stream().filter(row -> ids.contains(row.getId()))
+                        .forEach(row -> row.setDeliveredAt(invocation.getArgument(1)));
+            }
+            return ids.size();
+        });
+        when(outboxMessageRepository.markFailed(anyLong(), any(), anyString())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            synchronized (outbox) {
+                outbox.stream().filter(row -> row.getId() == id).forEach(row -> {
+                    row.setAttempts(row.getAttempts() + 1);
+                    row.setNextAttemptAt(invocation.getArgument(1));
+                });
+            }
+            return 1;
+        });
+        when(outboxMessageRepository.markDead(anyLong(), any(), anyString())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            synchronized (outbox) {
+                outbox.stream().filter(row -> row.getId() == id).forEach(row -> {
+                    row.setAttempts(row.getAttempts() + 1);
+                    row.setDeadAt(invocation.getArgument(1));
+                });
+            }
+            return 1;
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        relay.shutdown();
+    }
+
+    @Test
+    void testRowsLeftBeforeARestartAreSentInOrderAndMarkedTogether() {
+        relay = relay(3, 10, 100, 60000);
+        stored(1001L, STATUS);
+        stored(1002L, DELIVERED);
+        stored(1003L, STATUS);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+
+        relay.start();
+
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L, 3L)), any());
+        InOrder order = inOrder(restTemplate);
+        order.verify(restTemplate).postForEntity(eq(URL + STATUS), argThat(body("1001")), eq(Object.class));
+        order.verify(restTemplate).postForEntity(eq(URL + STATUS), argThat(body("1003")), eq(Object.class));
+        verify(messageTrackingService).acknowledgeMessage(1001L);
+        verify(messageTrackingService).acknowledgeMessage(1002L);
+        verify(messageTrackingService).acknowledgeMessage(1003L);
+    }
+
+    @Test
+    void testFailedRowHoldsBackItsEndpointUntilItsBackoffPasses() {
+        relay = relay(3, 50, 100, 10);
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+        stored(1003L, DELIVERED);
+        AtomicInteger statusCalls = new AtomicInteger();
+        when(restTemplate.postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class))).thenAnswer(invocation -> {
+            if (statusCalls.incrementAndGet() == 1) {
+                throw new RestClientException("Network error");
+            }
+            return ResponseEntity.ok().build();
+        });
+        when(restTemplate.postForEntity(eq(URL + DELIVERED), any(HttpEntity.class), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+
+        relay.start();
+
+        // The other endpoint is not held up by the failure
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(3L)), any());
+        verify(outboxMessageRepository).markFailed(eq(1L), any(), eq("Network error"));
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L)), any());
+
+        // The later status update waited for the earlier one
+        InOrder order = inOrder(restTemplate);
+        order.verify(restTemplate, times(2)).postForEntity(eq(URL + STATUS), argThat(body("1001")), eq(Object.class));
+        order.verify(restTemplate).postForEntity(eq(URL + STATUS), argThat(body("1002")), eq(Object.class));
+        assertEquals(1, outbox.get(0).getAttempts());
+    }
+
+    @Test
+    void testCallerIsToldAfterMaxAttemptsWhileTheRowKeepsRetrying() {
+        relay = relay(3, 10, 100, 10);
+        relay.start();
+        doThrow(new RuntimeException("Network error"))
+                .when(restTemplate).postForEntity(anyString(), any(HttpEntity.class), eq(Object.class));
+
+        CompletableFuture<ResponseEntity<?>> result = relay.enqueue(1005L, "UpdateShipmentStatus", STATUS, "{}");
+
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertTrue(e.getCause().getMessage().contains("Failed to send notification"));
+        verify(restTemplate, atLeast(3)).postForEntity(anyString(), any(HttpEntity.class), eq(Object.class));
+        verify(messageTrackingService, never()).acknowledgeMessage(anyLong());
+        assertNull(outbox.get(0).getDeliveredAt());
+    }
+
+    @Test
+    void testRefusedRowDoesNotHoldBackItsEndpoint() throws Exception {
+        relay = relay(3, 10, 100, 60000);
+        when(restTemplate.postForEntity(eq(URL + STATUS), argThat(body("1001")), eq(Object.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.UNPROCESSABLE_ENTITY));
+        when(restTemplate.postForEntity(eq(URL + STATUS), argThat(body("1002")), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        relay.start();
+
+        CompletableFuture<ResponseEntity<?>> refused = relay.enqueue(1001L, "UpdateShipmentStatus", STATUS,
+                "{\"seq_num\":1001}");
+        CompletableFuture<ResponseEntity<?>> next = relay.enqueue(1002L, "UpdateShipmentStatus", STATUS,
+                "{\"seq_num\":1002}");
+
+        assertTrue(next.get(2, TimeUnit.SECONDS).getStatusCode().is2xxSuccessful());
+        assertThrows(ExecutionException.class, () -> refused.get(2, TimeUnit.SECONDS));
+        verify(outboxMessageRepository).markDead(eq(1L), any(), contains("422"));
+        verify(outboxMessageRepository, never()).markFailed(anyLong(), any(), anyString());
+        verify(restTemplate, times(1)).postForEntity(eq(URL + STATUS), argThat(body("1001")), eq(Object.class));
+        assertNotNull(outbox.get(0).getDeadAt());
+    }
+
+    @Test
+    void testRowThatKeepsFailingIsGivenUpOn() throws Exception {
+        relay = relay(1, 1, 100, 10);
+        ReflectionTestUtils.setField(relay, "deadAfterAttempts", 3);
+        when(restTemplate.postForEntity(eq(URL + STATUS), argThat(body("1001")), eq(Object.class)))
+                .thenThrow(new RestClientException("Internal Server Error"));
+        when(restTemplate.postForEntity(eq(URL + STATUS), argThat(body("1002")), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+
+        relay.start();
+
+        // Held back while it is retried, then given up on so the next row goes out
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(2L)), any());
+        verify(outboxMessageRepository, times(2)).markFailed(eq(1L), any(), anyString());
+        verify(outboxMessageRepository).markDead(eq(1L), any(), eq("Internal Server Error"));
+        InOrder order = inOrder(outboxMessageRepository, restTemplate);
+        order.verify(outboxMessageRepository).markDead(eq(1L), any(), anyString());
+        order.verify(restTemplate).postForEntity(eq(URL + STATUS), argThat(body("1002")), eq(Object.class));
+    }
+
+    @Test
+    void testLatestOutboxRowsAreFoundInOneQuery() {
+        relay = relay(3, 10, 100, 60000);
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+        stored(1001L, STATUS);
+        when(outboxMessageRepository.findBySeqNumIn(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> seqNums = invocation.getArgument(0);
+            return outbox.stream().filter(row -> seqNums.contains(row.getSeqNum())).toList();
+        });
+
+        Map<Long, OutboxMessage> latest = relay.findLatest(List.of(1001L, 1002L, 1003L));
+
+        assertEquals(3L, latest.get(1001L).getId());
+        assertEquals(2L, latest.get(1002L).getId());
+        assertFalse(latest.containsKey(1003L));
+        verify(outboxMessageRepository, times(1)).findBySeqNumIn(anyCollection());
+    }
+
+    @Test
+    void testSlowAmazonDoesNotBlockTheCaller() throws Exception {
+        relay = relay(3, 10, 100, 60000);
+        relay.start();
+        CountDownLatch release = new CountDownLatch(1);
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class))).thenAnswer(invocation -> {
+            release.await();
+            return ResponseEntity.ok().build();
+        });
+
+        // Act - the call returns while the POST is still outstanding
+        long start = System.nanoTime();
+        CompletableFuture<ResponseEntity<?>> result = relay.enqueue(1006L, "UpdateShipmentStatus", STATUS, "{}");
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Assert
+        assertTrue(elapsedMillis < 1000, "Caller waited " + elapsedMillis + " ms");
+        assertFalse(result.isDone());
+        release.countDown();
+        assertTrue(result.get(5, TimeUnit.SECONDS).getStatusCode().is2xxSuccessful());
+        verify(messageTrackingService).acknowledgeMessage(1006L);
+    }
+
+    @Test
+    void testBatchModeSendsAnEndpointsUpdatesAsOneArray() {
+        relay = batchRelay();
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+        stored(1003L, DELIVERED);
+        stored(1004L, STATUS);
+
+        relay.start();
+
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L, 3L, 4L)), any());
+        verify(restTemplate).postForEntity(eq(URL + STATUS + "/batch"),
+                argThat(body("[{\"seq_num\":1001},{\"seq_num\":1002},{\"seq_num\":1004}]")),
+                eq(Object.class));
+        // A lone notification needs no array
+        verify(restTemplate).postForEntity(eq(URL + DELIVERED), argThat(body("1003")), eq(Object.class));
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), eq(Object.class));
+    }
+
+    @Test
+    void testReceiverWithoutBatchSupportGetsSingleNotifications() {
+        relay = batchRelay();
+        when(restTemplate.postForEntity(eq(URL + STATUS + "/batch"), any(HttpEntity.class), eq(Object.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+        when(restTemplate.postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+
+        relay.start();
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L)), any());
+
+        // Later updates skip the batch endpoint
+        relay.enqueue(1003L, "UpdateShipmentStatus", STATUS, "{\"seq_num\":1003}");
+        relay.enqueue(1004L, "UpdateShipmentStatus", STATUS, "{\"seq_num\":1004}");
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(3L, 4L)), any());
+        verify(restTemplate, times(1)).postForEntity(eq(URL + STATUS + "/batch"), any(HttpEntity.class), eq(Object.class));
+        verify(restTemplate, times(4)).postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class));
+        verify(outboxMessageRepository, never()).markFailed(anyLong(), any(), anyString());
+    }
+
+    @Test
+    void testRefusedBatchIsResentSinglyWithoutTurningBatchesOff() {
+        relay = batchRelay();
+        // The receiver takes batches but refuses this one over 1002
+        when(restTemplate.postForEntity(eq(URL + STATUS + "/batch"), any(HttpEntity.class), eq(Object.class)))
+                .thenAnswer(invocation -> {
+                    HttpEntity<?> entity = invocation.getArgument(1);
+                    if (String.valueOf(entity.getBody()).contains("1002")) {
+                        throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+                    }
+                    return ResponseEntity.ok().build();
+                });
+        when(restTemplate.postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        stored(1001L, STATUS);
+        stored(1002L, STATUS);
+
+        relay.start();
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L)), any());
+        verify(restTemplate, times(2)).postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class));
+
+        // Later updates are batched again
+        relay.enqueue(1003L, "UpdateShipmentStatus", STATUS, "{\"seq_num\":1003}");
+        relay.enqueue(1004L, "UpdateShipmentStatus", STATUS, "{\"seq_num\":1004}");
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(3L, 4L)), any());
+        verify(restTemplate, times(2)).postForEntity(eq(URL + STATUS + "/batch"), any(HttpEntity.class), eq(Object.class));
+        verify(restTemplate, times(2)).postForEntity(eq(URL + STATUS), any(HttpEntity.class), eq(Object.class));
+    }
+
+    @Test
+    void testOpenCircuitKeepsNotificationsInTheOutboxUntilAProbeSucceeds() throws Exception {
+        relay = new NotificationOutboxRelay(outboxMessageRepository, messageTrackingService, restTemplate,
+                new SimpleMeterRegistry(), 2, 10, 1, 1, 100, 10, false, 50, 20, 2, 300, 8);
+        ReflectionTestUtils.setField(relay, "amazonServiceUrl", URL);
+        AtomicBoolean amazonUp = new AtomicBoolean();
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class))).thenAnswer(invocation -> {
+            if (!amazonUp.get()) {
+                throw new ResourceAccessException("Connection refused");
+            }
+            return ResponseEntity.ok().build();
+        });
+        relay.start();
+
+        relay.enqueue(1001L, "UpdateShipmentStatus", STATUS, "{\"seq_num\":1001}");
+        waitForCircuit(CircuitBreaker.State.OPEN);
+
+        // Nothing is sent while the circuit is open, and the caller is not kept waiting
+        CompletableFuture<ResponseEntity<?>> later = relay.enqueue(1002L, "UpdateShipmentStatus", STATUS,
+                "{\"seq_num\":1002}");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> later.get(2, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().contains("Circuit open"));
+        verify(restTemplate, times(2)).postForEntity(anyString(), any(HttpEntity.class), eq(Object.class));
+        assertNull(outbox.get(1).getDeliveredAt());
+        assertEquals(0, outbox.get(1).getAttempts());
+
+        // Once the open time has passed a probe goes out, and on success the backlog drains in order
+        amazonUp.set(true);
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L)), any());
+        assertEquals(CircuitBreaker.State.CLOSED, relay.getCircuitStates().get(STATUS));
+    }
+
+    @Test
+    void testBulkheadMakesSendsWaitForAPermit() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // Three workers but one POST in flight at a time
+        relay = new NotificationOutboxRelay(outboxMessageRepository, messageTrackingService, restTemplate,
+                meterRegistry, 3, 3, 10, 60000, 100, 60000, false, 50, 20, 5, 30000, 1);
+        ReflectionTestUtils.setField(relay, "amazonServiceUrl", URL);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger mostInFlight = new AtomicInteger();
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class))).thenAnswer(invocation -> {
+            mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(30);
+            inFlight.decrementAndGet();
+            return ResponseEntity.ok().build();
+        });
+        stored(1001L, STATUS);
+        stored(1002L, DELIVERED);
+        stored(1003L, "/api/ups/notifications/truck-arrived");
+
+        relay.start();
+
+        // All three go out in the one pass, one after another
+        verify(outboxMessageRepository, timeout(2000)).markDelivered(eq(List.of(1L, 2L, 3L)), any());
+        assertEquals(1, mostInFlight.get());
+        assertEquals(0, meterRegistry.get("amazon.notification.bulkhead.rejected").counter().count());
+    }
+
+    @Test
+    void testSendWithoutAPermitInTimeIsLeftForTheNextSweep() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        relay = new NotificationOutboxRelay(outboxMessageRepository, messageTrackingService, restTemplate,
+                meterRegistry, 2, 3, 10, 60000, 100, 20, false, 50, 20, 5, 30000, 1);
+        ReflectionTestUtils.setField(relay, "amazonServiceUrl", URL);
+        ReflectionTestUtils.setField(relay, "bulkheadWaitMillis", 20L);
+        CountDownLatch release = new CountDownLatch(1);
+        // Both endpoints are slow, so whichever send gets the permit first keeps it and the other is turned away
+        when(restTemplate.postForEntity(anyString(), any(HttpEntity.class), eq(Object.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return ResponseEntity.ok().build();
+        });
+        stored(1001L, STATUS);
+        stored(1002L, DELIVERED);
+
+        relay.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (meterRegistry.get("amazon.notification.bulkhead.rejected").counter().count() < 1) {
+            assertTrue(System.currentTimeMillis() < deadline, "No send was turned away");
+            Thread.sleep(5);
+        }
+        assertEquals(1, meterRegistry.get("amazon.notification.in-flight").gauge().value());
+        assertEquals(2, undelivered());
+
+        // Once the slow POST is done a later sweep sends the other row, with no attempt counted
+        release.countDown();
+        deadline = System.currentTimeMillis() + 2000;
+        while (undelivered() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Outbox never drained");
+            Thread.sleep(5);
+        }
+        verify(outboxMessageRepository, never()).markFailed(anyLong(), any(), anyString());
+    }
+
+    private long undelivered() {
+        synchronized (outbox) {
+            return outbox.stream().filter(row -> row.getDeliveredAt() == null).count();
+        }
+    }
+
+    private void waitForCircuit(CircuitBreaker.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (relay.getCircuitStates().get(STATUS) != state) {
+            assertTrue(System.currentTimeMillis() < deadline, "Circuit never became " + state);
+            Thread.sleep(5);
+        }
+    }
+
+    private NotificationOutboxRelay batchRelay() {
+        NotificationOutboxRelay relay = new NotificationOutboxRelay(outboxMessageRepository, messageTrackingService,
+                restTemplate, new SimpleMeterRegistry(), 2, 3, 10, 60000, 100, 60000, true, 50, 100, 5, 30000, 8);
+        ReflectionTestUtils.setField(relay, "amazonServiceUrl", URL);
+        return relay;
+    }
+
+    private NotificationOutboxRelay relay(int maxAttempts, long retryDelayMillis, int batchSize, long sweepMillis) {
+        NotificationOutboxRelay relay = new NotificationOutboxRelay(outboxMessageRepository, messageTrackingService,
+                restTemplate, new SimpleMeterRegistry(), 2, maxAttempts, retryDelayMillis, 60000, batchSize, sweepMillis);
+        ReflectionTestUtils.setField(relay, "amazonServiceUrl", URL);
+        return relay;
+    }
+
+    private void stored(long seqNum, String endpoint) {
+        outboxMessageRepository.save(new OutboxMessage(seqNum, "UpdateShipmentStatus", endpoint,
+                "{\"seq_num\":" + seqNum + "}", Instant.now()));
+    }
+
+    private static org.mockito.ArgumentMatcher<HttpEntity<?>> body(String seqNum) {
+        return entity -> String.valueOf(entity.getBody()).contains(seqNum);
+    }
+
+    // The relay gets detached copies, as it would from the database
+    private static OutboxMessage copy(OutboxMessage row) {
+        OutboxMessage copy = new OutboxMessage(row.getSeqNum(), row.getMessageType(), row.getEndpoint(),
+                row.getPayload(), row.getCreatedAt());
+        copy.setId(row.getId());
+        copy.setAttempts(row.getAttempts());
+        copy.setNextAttemptAt(row.getNextAttemptAt());
+        copy.setDeliveredAt(row.getDeliveredAt());
+        copy.setDeadAt(row.getDeadAt());
+        return copy;
+    }
+}
@@ -0,0 +1,79 @@
+package com.ups.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class RetentionServiceTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testMessageLogsAreDeletedInChunksUntilOneComesBackShort() {
+        RetentionService retentionService = new RetentionService(jdbcTemplate, meterRegistry, 7, 86400000, 7, 1000);
+        when(jdbcTemplate.update(startsWith("DELETE FROM message_logs"), any(OffsetDateTime.class), anyInt()))
+                .thenReturn(1000, 1000, 250);
+        Instant cutoff = Instant.parse("2026-01-01T00:00:00Z");
+
+        long deleted = retentionService.purgeMessageLogs(cutoff);
+
+        assertEquals(2250, deleted);
+        // Nothing is loaded: each chunk is one DELETE bounded by the cutoff and the chunk size
+        verify(jdbcTemplate, times(3)).update(startsWith("DELETE FROM message_logs"),
+                eq(OffsetDateTime.ofInstant(cutoff, ZoneOffset.UTC)), eq(1000));
+        verify(jdbcTemplate, never()).queryForList(anyString(), any(Object[].class));
+        assertEquals(2250, meterRegistry.get("amazon.retention.deleted").tag("table", "message_logs").counter().count());
+        assertEquals(3, meterRegistry.get("amazon.retention.chunks").tag("table", "message_logs").counter().count());
+        assertEquals(1, meterRegistry.get("amazon.retention.duration").tag("table", "message_logs").timer().count());
+    }
+
+    @Test
+    void testAFailedChunkDoesNotStopTheOtherTables() {
+        RetentionService retentionService = new RetentionService(jdbcTemplate, meterRegistry, 7, 86400000, 7, 1000);
+        when(jdbcTemplate.update(startsWith("DELETE FROM message_logs"), any(OffsetDateTime.class), anyInt()))
+                .thenReturn(1000)
+                .thenThrow(new QueryTimeoutException("Lock timeout"));
+        when(jdbcTemplate.update(startsWith("DELETE FROM idempotent_responses"), any(OffsetDateTime.class), anyInt()))
+                .thenReturn(12);
+        when(jdbcTemplate.update(startsWith("DELETE FROM notification_outbox"), any(OffsetDateTime.class), anyInt()))
+                .thenReturn(5);
+
+        retentionService.purgeExpired();
+
+        assertEquals(1000, meterRegistry.get("amazon.retention.deleted").tag("table", "message_logs").counter().count());
+        assertEquals(12, meterRegistry.get("amazon.retention.deleted").tag("table", "idempotent_responses").counter().count());
+        assertEquals(5, meterRegistry.get("amazon.retention.deleted").tag("table", "notification_outbox").counter().count());
+    }
+
+    @Test
+    void testOnlyDeliveredOutboxRowsPastTheCutoffAreDeleted() {
+        RetentionService retentionService = new RetentionService(jdbcTemplate, meterRegistry, 7, 86400000, 7, 1000);
+        when(jdbcTemplate.update(startsWith("DELETE FROM notification_outbox"), any(OffsetDateTime.class), anyInt()))
+                .thenReturn(1000, 40);
+        Instant cutoff = Instant.parse("2026-01-01T00:00:00Z");
+
+        assertEquals(1040, retentionService.purgeDeliveredOutbox(cutoff));
+
+        verify(jdbcTemplate, times(2)).update(contains("WHERE COALESCE(delivered_at, dead_at) < ?"),
+                eq(OffsetDateTime.ofInstant(cutoff, ZoneOffset.UTC)), eq(1000));
+    }
+}
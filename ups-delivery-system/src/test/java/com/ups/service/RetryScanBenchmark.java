@@ -0,0 +1,122 @@
+package com.ups.service;
+
+import com.ups.UpsApplication;
+import com.ups.model.MessageLog;
+import com.ups.repository.MessageLogRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Compares the old unacknowledged-message retry scan (every unacknowledged ID, then findBySeqNum and an
+ * age check per row) against the paged query filtered by the age window in SQL, with and without the
+ * (direction, acknowledged, timestamp) index, over 1M message_logs rows on an in-memory H2 database.
+ * Not run by the test suite; run the main method directly.
+ */
+public class RetryScanBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    // One row in this many is left unacknowledged
+    private static final int UNACKED_EVERY = 100;
+    private static final int DAYS = 8;
+    private static final int PAGE_SIZE = 500;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(UpsApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:retrybench",
+                "--spring.jpa.show-sql=false",
+                "--ups.world.port=1",
+                "--ups.world.reconnect.enabled=false",
+                "--logging.level.root=WARN");
+        try {
+            // Stop the scheduled jobs so nothing else touches message_logs while it is measured
+            context.getBean(ThreadPoolTaskScheduler.class).shutdown();
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            MessageLogRepository repository = context.getBean(MessageLogRepository.class);
+
+            long start = System.nanoTime();
+            // Spread over the last DAYS days, half outgoing; seq_num = id so the old scan finds its rows
+            jdbcTemplate.update("INSERT INTO message_logs (seq_num, message_type, direction, timestamp, acknowledged) "
+                    + "SELECT x, 'UpdateShipmentStatus', CASE WHEN MOD(x, 2) = 0 THEN 'OUTGOING' ELSE 'INCOMING' END, "
+                    + "DATEADD('SECOND', -CAST(x * ? / ? AS BIGINT), CURRENT_TIMESTAMP), "
+                    + "CASE WHEN MOD(x, ?) = 0 THEN NULL ELSE CURRENT_TIMESTAMP END "
+                    + "FROM SYSTEM_RANGE(1, ?)", DAYS * 86400L, ROWS, UNACKED_EVERY, ROWS);
+            System.out.printf("Loaded %d message_logs rows in %.1fs%n", ROWS, (System.nanoTime() - start) / 1e9);
+
+            measure("Old: IDs + findBySeqNum each", () -> oldScan(jdbcTemplate, repository));
+            jdbcTemplate.execute("DROP INDEX idx_message_log_unacked");
+            measure("Paged query, no index", () -> pagedScan(repository));
+            jdbcTemplate.execute("CREATE INDEX idx_message_log_unacked ON message_logs (direction, acknowledged, timestamp)");
+            measure("Paged query, composite index", () -> pagedScan(repository));
+
+            System.out.println(jdbcTemplate.queryForObject("EXPLAIN SELECT id FROM message_logs "
+                    + "WHERE direction = 'OUTGOING' AND acknowledged IS NULL AND timestamp < CURRENT_TIMESTAMP "
+                    + "ORDER BY timestamp, id LIMIT 500", String.class));
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * A scan that returns [messages due for retry, queries issued]
+     */
+    private interface Scan {
+        long[] run();
+    }
+
+    private static void measure(String name, Scan scan) {
+        scan.run(); // Warm up
+        long[] result = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            result = scan.run();
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / RUNS;
+        System.out.printf("%-32s %9.1f ms per scan  %6d queries  %5d due for retry%n", name, millis, result[1], result[0]);
+    }
+
+    private static long[] oldScan(JdbcTemplate jdbcTemplate, MessageLogRepository repository) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM message_logs WHERE acknowledged IS NULL AND direction = 'OUTGOING'", Long.class);
+        Instant now = Instant.now();
+        long due = 0;
+        for (Long id : ids) {
+            MessageLog message = repository.findBySeqNum(id);
+            long ageInMinutes = Duration.between(message.getTimestamp(), now).toMinutes();
+            if (ageInMinutes >= 1 && ageInMinutes <= 24 * 60) {
+                due++;
+            }
+        }
+        return new long[] {due, ids.size() + 1};
+    }
+
+    private static long[] pagedScan(MessageLogRepository repository) {
+        Instant now = Instant.now();
+        Instant before = now.minus(Duration.ofMinutes(1));
+        Instant afterTimestamp = now.minus(Duration.ofHours(24));
+        long afterId = 0;
+        long due = 0;
+        long queries = 0;
+        List<MessageLog> page;
+        do {
+            page = repository.findUnacknowledgedPage("OUTGOING", afterTimestamp, afterId, before,
+                    PageRequest.of(0, PAGE_SIZE));
+            queries++;
+            due += page.size();
+            if (!page.isEmpty()) {
+                afterTimestamp = page.get(page.size() - 1).getTimestamp();
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == PAGE_SIZE);
+        return new long[] {due, queries};
+    }
+}
@@ -0,0 +1,152 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Package;
+import com.ups.model.entity.PackageStatus;
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.PackageRepository;
+import com.ups.repository.TruckRepository;
+import com.ups.service.world.Ups;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class DeliveryPlannerTest {
+
+    @Mock
+    private PackageRepository packageRepository;
+
+    @Mock
+    private TruckRepository truckRepository;
+
+    @Mock
+    private Ups ups;
+
+    private Truck truck;
+    private FleetState fleetState;
+    private DeliveryPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        truck = new Truck(0, 0);
+        truck.setId(1);
+        truck.setStatus(TruckStatus.LOADING);
+        fleetState = new FleetState(truckRepository, null, new SimpleMeterRegistry(), 60000, 16);
+        fleetState.load(List.of(truck));
+        when(truckRepository.findById(1)).thenReturn(Optional.of(truck));
+        planner = new DeliveryPlanner(packageRepository, truckRepository, fleetState, ups, null,
+                new SimpleMeterRegistry(), 20, 60000, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        planner.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testTruckLeavesOnceWithEveryLoadedPackageInRouteOrder() throws Exception {
+        Package far = pkg(1L, 30, 0, PackageStatus.LOADED);
+        Package near = pkg(2L, 10, 0, PackageStatus.LOADED);
+        Package last = pkg(3L, 20, 0, PackageStatus.PICKUP_READY);
+        when(packageRepository.findByTruck(truck)).thenReturn(List.of(far, near, last));
+
+        planner.packageLoaded(1);
+        planner.packageLoaded(1);
+        Thread.sleep(100);
+        verifyNoInteractions(ups);
+
+        // The last package goes on board; the next check sends the truck out
+        last.setStatus(PackageStatus.LOADED);
+        planner.packageLoaded(1);
+
+        ArgumentCaptor<List<Package>> route = ArgumentCaptor.forClass(List.class);
+        verify(ups, timeout(2000)).sendTruckToDeliver(eq(1), route.capture());
+        assertEquals(List.of(near, last, far), route.getValue());
+        Thread.sleep(100);
+        verify(ups, times(1)).sendTruckToDeliver(anyInt(), anyList());
+    }
+
+    @Test
+    void testTruckAlreadyDeliveringIsNotSentAgain() throws Exception {
+        fleetState.update(1, 0, 0, TruckStatus.DELIVERING);
+
+        planner.packageLoaded(1);
+        Thread.sleep(100);
+
+        verifyNoInteractions(ups);
+        verify(packageRepository, never()).findByTruck(any());
+    }
+
+    @Test
+    void testPackageLoadedWhileTheTruckIsOutLeavesWhenItIsBack() throws Exception {
+        fleetState.update(1, 0, 0, TruckStatus.DELIVERING);
+        Package late = pkg(4L, 10, 0, PackageStatus.LOADED);
+        when(packageRepository.findByTruck(truck)).thenReturn(List.of(late));
+
+        planner.packageLoaded(1);
+        Thread.sleep(100);
+        verifyNoInteractions(ups);
+
+        // Back from its trip, it takes the package it missed
+        fleetState.update(1, 0, 0, TruckStatus.IDLE);
+        verify(ups, timeout(2000)).sendTruckToDeliver(1, List.of(late));
+    }
+
+    @Test
+    void testCheckWaitsForTheLoadToCommit() throws Exception {
+        Package pkg = pkg(5L, 10, 0, PackageStatus.LOADED);
+        when(packageRepository.findByTruck(truck)).thenReturn(List.of(pkg));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            planner.packageLoaded(1);
+            Thread.sleep(100);
+            verify(packageRepository, never()).findByTruck(any());
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(ups, timeout(2000)).sendTruckToDeliver(1, List.of(pkg));
+    }
+
+    @Test
+    void testTruckWithNothingLoadedYetStaysPending() throws Exception {
+        Package pkg = pkg(6L, 10, 0, PackageStatus.LOADED);
+        // The first checks do not see the package yet
+        when(packageRepository.findByTruck(truck)).thenReturn(List.of(), List.of(), List.of(pkg));
+
+        planner.packageLoaded(1);
+
+        verify(ups, timeout(2000)).sendTruckToDeliver(1, List.of(pkg));
+        verify(packageRepository, atLeast(3)).findByTruck(truck);
+    }
+
+    private static Package pkg(long id, int x, int y, PackageStatus status) {
+        Package pkg = new Package();
+        pkg.setId(id);
+        pkg.setDestinationX(x);
+        pkg.setDestinationY(y);
+        pkg.setStatus(status);
+        return pkg;
+    }
+}
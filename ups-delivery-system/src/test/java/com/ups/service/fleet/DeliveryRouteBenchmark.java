@@ -0,0 +1,68 @@
+package com.ups.service.fleet;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the route a truck drives when its stops are visited in load order (what one UGoDeliver per
+ * package amounts to), in nearest-neighbour order, and after 2-opt, on random synthetic trips.
+ * Not run by the test suite; run the main method directly.
+ */
+public class DeliveryRouteBenchmark {
+
+    private static final int[] STOPS = {5, 10, 25, 50, 100, 200};
+    private static final int TRIPS = 500;
+    private static final int WORLD = 1000;
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    public static void main(String[] args) {
+        Random random = new Random(3);
+        System.out.printf("%5s  %10s  %10s  %10s  %10s  %10s  %10s%n",
+                "stops", "load order", "nn", "nn+2opt", "nn us", "2opt us", "2opt p99");
+
+        for (int stops : STOPS) {
+            double loadOrder = 0;
+            double greedy = 0;
+            double improved = 0;
+            long[] greedyNanos = new long[TRIPS];
+            long[] improvedNanos = new long[TRIPS];
+
+            for (int trip = -TRIPS / 5; trip < TRIPS; trip++) {
+                int startX = random.nextInt(WORLD);
+                int startY = random.nextInt(WORLD);
+                int[] xs = new int[stops];
+                int[] ys = new int[stops];
+                int[] inLoadOrder = new int[stops];
+                for (int i = 0; i < stops; i++) {
+                    xs[i] = random.nextInt(WORLD);
+                    ys[i] = random.nextInt(WORLD);
+                    inLoadOrder[i] = i;
+                }
+
+                long start = System.nanoTime();
+                int[] nn = RoutePlanner.plan(startX, startY, xs, ys, 0);
+                long mid = System.nanoTime();
+                int[] opt = RoutePlanner.plan(startX, startY, xs, ys, BUDGET_NANOS);
+                long end = System.nanoTime();
+
+                // Negative trips are warm-up
+                if (trip < 0) {
+                    continue;
+                }
+                greedyNanos[trip] = mid - start;
+                improvedNanos[trip] = end - mid;
+                loadOrder += RoutePlanner.length(startX, startY, xs, ys, inLoadOrder);
+                greedy += RoutePlanner.length(startX, startY, xs, ys, nn);
+                improved += RoutePlanner.length(startX, startY, xs, ys, opt);
+            }
+
+            Arrays.sort(improvedNanos);
+            System.out.printf("%5d  %10.0f  %10.0f  %10.0f  %10.1f  %10.1f  %10.1f%n", stops,
+                    loadOrder / TRIPS, greedy / TRIPS, improved / TRIPS,
+                    Arrays.stream(greedyNanos).average().orElse(0) / 1000.0,
+                    Arrays.stream(improvedNanos).average().orElse(0) / 1000.0,
+                    improvedNanos[(int) (TRIPS * 0.99)] / 1000.0);
+        }
+    }
+}
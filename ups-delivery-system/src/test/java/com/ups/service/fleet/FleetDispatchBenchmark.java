@@ -0,0 +1,108 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Random;
+
+/**
+ * Measures nearest-idle-truck selection over a 10k truck fleet, against a linear scan
+ * over every idle truck, and reports the extra distance the old first-idle-truck pick travels.
+ * Not run by the test suite; run the main method directly.
+ */
+public class FleetDispatchBenchmark {
+
+    private static final int TRUCKS = 10_000;
+    private static final int QUERIES = 200_000;
+    private static final int WORLD = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(7);
+        List<Truck> trucks = new ArrayList<>(TRUCKS);
+        for (int id = 1; id <= TRUCKS; id++) {
+            Truck truck = new Truck(random.nextInt(WORLD) - WORLD / 2, random.nextInt(WORLD) - WORLD / 2);
+            truck.setId(id);
+            // Roughly a third of the fleet is busy at any time
+            truck.setStatus(random.nextInt(3) == 0 ? TruckStatus.DELIVERING : TruckStatus.IDLE);
+            trucks.add(truck);
+        }
+
+        FleetState fleet = new FleetState(null, null, new SimpleMeterRegistry(), 60_000, 16);
+        fleet.load(trucks);
+        System.out.printf("%d trucks, %d idle, %d queries%n", TRUCKS, fleet.getIdleCount(), QUERIES);
+
+        int[][] warehouses = new int[QUERIES][2];
+        for (int[] warehouse : warehouses) {
+            warehouse[0] = random.nextInt(WORLD) - WORLD / 2;
+            warehouse[1] = random.nextInt(WORLD) - WORLD / 2;
+        }
+
+        // Warm up, then measure claim + release so the fleet stays the same size
+        run(fleet, warehouses, QUERIES / 4, null);
+        long[] latencies = new long[QUERIES];
+        run(fleet, warehouses, QUERIES, latencies);
+        report("Spatial grid claim", latencies);
+
+        List<Truck> idle = trucks.stream().filter(t -> t.getStatus() == TruckStatus.IDLE).toList();
+        long[] scanLatencies = new long[QUERIES / 10];
+        for (int q = 0; q < scanLatencies.length; q++) {
+            long start = System.nanoTime();
+            linearNearest(idle, warehouses[q][0], warehouses[q][1]);
+            scanLatencies[q] = System.nanoTime() - start;
+        }
+        report("Linear scan of idle trucks", scanLatencies);
+
+        double nearestDistance = 0;
+        double firstIdleDistance = 0;
+        Truck firstIdle = idle.get(0);
+        for (int q = 0; q < 10_000; q++) {
+            Truck nearest = linearNearest(idle, warehouses[q][0], warehouses[q][1]);
+            nearestDistance += distance(nearest, warehouses[q]);
+            firstIdleDistance += distance(firstIdle, warehouses[q]);
+        }
+        System.out.printf("Mean distance to warehouse: nearest %.1f, first idle %.1f%n",
+                nearestDistance / 10_000, firstIdleDistance / 10_000);
+    }
+
+    private static void run(FleetState fleet, int[][] warehouses, int queries, long[] latencies) throws Exception {
+        for (int q = 0; q < queries; q++) {
+            long start = System.nanoTime();
+            OptionalInt truckId = fleet.claimNearestIdleTruck(warehouses[q][0], warehouses[q][1], 0);
+            if (latencies != null) {
+                latencies[q] = System.nanoTime() - start;
+            }
+            fleet.releaseTruck(truckId.orElseThrow());
+        }
+    }
+
+    private static Truck linearNearest(List<Truck> idle, int x, int y) {
+        Truck best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (Truck truck : idle) {
+            double distance = Math.hypot(truck.getX() - x, truck.getY() - y);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = truck;
+            }
+        }
+        return best;
+    }
+
+    private static double distance(Truck truck, int[] point) {
+        return Math.hypot(truck.getX() - point[0], truck.getY() - point[1]);
+    }
+
+    private static void report(String name, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-28s mean %7.2f us  p50 %7.2f us  p99 %7.2f us%n", name,
+                Arrays.stream(sorted).average().orElse(0) / 1000.0,
+                sorted[sorted.length / 2] / 1000.0,
+                sorted[(int) (sorted.length * 0.99)] / 1000.0);
+    }
+}
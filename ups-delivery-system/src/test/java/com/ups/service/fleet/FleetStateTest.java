@@ -0,0 +1,240 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.TruckRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FleetStateTest {
+
+    @Mock
+    private TruckRepository truckRepository;
+
+    private FleetState fleetState;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // Write-behind on a long delay so the test drives flush() itself
+        fleetState = new FleetState(truckRepository, null, meterRegistry, 60000, 16);
+    }
+
+    @Test
+    void testLoadsLazilyFromRepository() {
+        when(truckRepository.findAll()).thenReturn(List.of(truck(1, TruckStatus.IDLE), truck(2, TruckStatus.DELIVERING)));
+
+        FleetState.TruckView view = fleetState.get(2);
+
+        assertNotNull(view);
+        assertEquals(TruckStatus.DELIVERING, view.getStatus());
+        assertNull(fleetState.get(3));
+        assertEquals(2, fleetState.getTruckCount());
+        assertEquals(1, fleetState.getIdleCount());
+        assertEquals(List.of(2), fleetState.getActiveTruckIds());
+        verify(truckRepository, times(1)).findAll();
+    }
+
+    @Test
+    void testUpdateReportsOnlyRealChanges() {
+        fleetState.load(List.of(truck(1, TruckStatus.TRAVELING)));
+        long version = fleetState.get(1).getVersion();
+
+        assertFalse(fleetState.update(1, 0, 0, TruckStatus.TRAVELING));
+        assertEquals(version, fleetState.get(1).getVersion());
+        assertEquals(0, fleetState.getDirtyCount());
+
+        assertTrue(fleetState.update(1, 5, 6, TruckStatus.TRAVELING));
+        assertTrue(fleetState.get(1).getVersion() > version);
+        assertEquals(1, fleetState.getDirtyCount());
+
+        assertFalse(fleetState.update(99, 5, 6, TruckStatus.IDLE), "Untracked trucks are not updated");
+    }
+
+    @Test
+    void testConcurrentClaimsNeverShareATruck() throws Exception {
+        List<Truck> trucks = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            trucks.add(truck(i, TruckStatus.IDLE));
+        }
+        fleetState.load(trucks);
+
+        Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 80; i++) {
+            pool.submit(() -> fleetState.claimIdleTruck().ifPresent(id -> assertTrue(claimed.add(id))));
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(50, claimed.size());
+        assertEquals(0, fleetState.getIdleCount());
+        assertEquals(OptionalInt.empty(), fleetState.claimIdleTruck());
+
+        fleetState.releaseTruck(7);
+        assertEquals(OptionalInt.of(7), fleetState.claimIdleTruck());
+    }
+
+    @Test
+    void testClaimsNearestIdleTruck() throws Exception {
+        Truck far = truck(1, TruckStatus.IDLE);
+        Truck near = truck(2, TruckStatus.IDLE);
+        Truck busy = truck(3, TruckStatus.DELIVERING);
+        far.setX(100);
+        near.setX(40);
+        busy.setX(50);
+        fleetState.load(List.of(far, near, busy));
+
+        assertEquals(OptionalInt.of(2), fleetState.claimNearestIdleTruck(50, 0, 0));
+
+        // A status update moves the truck in the index
+        fleetState.update(1, 52, 1, TruckStatus.IDLE);
+        fleetState.update(3, 50, 0, TruckStatus.IDLE);
+        assertEquals(OptionalInt.of(3), fleetState.claimNearestIdleTruck(50, 0, 0));
+        assertEquals(OptionalInt.of(1), fleetState.claimNearestIdleTruck(50, 0, 0));
+        assertEquals(OptionalInt.empty(), fleetState.claimNearestIdleTruck(50, 0, 0));
+    }
+
+    @Test
+    void testClaimWaitsForATruckToBecomeIdle() throws Exception {
+        fleetState.load(List.of(truck(1, TruckStatus.DELIVERING)));
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            var claim = pool.submit(() -> fleetState.claimNearestIdleTruck(0, 0, 5000));
+            Thread.sleep(100);
+            assertFalse(claim.isDone());
+
+            fleetState.update(1, 3, 4, TruckStatus.IDLE);
+            assertEquals(OptionalInt.of(1), claim.get(2, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushWritesOnlyChangedTrucks() {
+        Truck one = truck(1, TruckStatus.IDLE);
+        Truck two = truck(2, TruckStatus.IDLE);
+        fleetState.load(List.of(one, two));
+        fleetState.update(1, 8, 9, TruckStatus.TRAVELING);
+        when(truckRepository.findAllById(anyIterable())).thenReturn(List.of(one));
+
+        assertEquals(1, fleetState.flush());
+
+        ArgumentCaptor<Iterable<Integer>> ids = ArgumentCaptor.forClass(Iterable.class);
+        verify(truckRepository).findAllById(ids.capture());
+        assertEquals(List.of(1), toList(ids.getValue()));
+        assertEquals(8, one.getX());
+        assertEquals(TruckStatus.TRAVELING, one.getStatus());
+        verify(truckRepository).saveAll(List.of(one));
+        assertEquals(0, fleetState.getDirtyCount());
+        assertEquals(0, fleetState.flush(), "Nothing left to write");
+    }
+
+    @Test
+    void testFailedFlushKeepsChangesPending() {
+        fleetState.load(List.of(truck(1, TruckStatus.IDLE)));
+        fleetState.update(1, 3, 3, TruckStatus.TRAVELING);
+        when(truckRepository.findAllById(anyIterable())).thenThrow(new IllegalStateException("database down"));
+
+        assertThrows(IllegalStateException.class, fleetState::flush);
+
+        assertEquals(1, fleetState.getDirtyCount());
+    }
+
+    @Test
+    void testFlushLosingToANewerSaveStaysPending() {
+        fleetState.load(List.of(truck(1, TruckStatus.IDLE)));
+        fleetState.update(1, 3, 3, TruckStatus.TRAVELING);
+        when(truckRepository.findAllById(anyIterable())).thenReturn(List.of(truck(1, TruckStatus.IDLE)));
+        when(truckRepository.saveAll(anyList())).thenThrow(new ObjectOptimisticLockingFailureException(Truck.class, 1));
+
+        fleetState.stop();
+
+        assertEquals(1, meterRegistry.get("ups.fleet.write-behind.conflicts").counter().count());
+        assertEquals(1, fleetState.getDirtyCount(), "Retried on the next flush");
+    }
+
+    @Test
+    void testIdleListenersRunOutsideTheLock() {
+        fleetState.load(List.of(truck(1, TruckStatus.TRAVELING), truck(2, TruckStatus.TRAVELING)));
+        List<Integer> idleCounts = new ArrayList<>();
+        // Another thread reading the fleet would block if the listener ran under the write lock
+        fleetState.addIdleListener(truckId -> idleCounts.add(
+                CompletableFuture.supplyAsync(fleetState::getIdleCount).orTimeout(2, TimeUnit.SECONDS).join()));
+
+        fleetState.update(1, 5, 5, TruckStatus.IDLE);
+        fleetState.releaseTruck(2);
+
+        assertEquals(List.of(1, 2), idleCounts);
+    }
+
+    @Test
+    void testTrackAfterCommitWaitsForTheCommit() {
+        fleetState.load(List.of(truck(1, TruckStatus.IDLE), truck(2, TruckStatus.IDLE)));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fleetState.trackAfterCommit(truck(1, TruckStatus.TRAVELING));
+            assertEquals(TruckStatus.IDLE, fleetState.get(1).getStatus());
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            assertEquals(TruckStatus.TRAVELING, fleetState.get(1).getStatus());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        // A rolled-back save never reaches the fleet
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            fleetState.trackAfterCommit(truck(2, TruckStatus.DELIVERING));
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(TruckStatus.IDLE, fleetState.get(2).getStatus());
+        assertEquals(1, fleetState.getIdleCount());
+    }
+
+    private static Truck truck(int id, TruckStatus status) {
+        Truck truck = new Truck(0, 0);
+        truck.setId(id);
+        truck.setStatus(status);
+        return truck;
+    }
+
+    private static List<Integer> toList(Iterable<Integer> values) {
+        List<Integer> list = new ArrayList<>();
+        values.forEach(list::add);
+        return list;
+    }
+}
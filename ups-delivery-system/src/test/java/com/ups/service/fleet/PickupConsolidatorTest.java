@@ -0,0 +1,153 @@
+package com.ups.service.fleet;
+
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.TruckRepository;
+import com.ups.service.world.Ups;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PickupConsolidatorTest {
+
+    @Mock
+    private TruckRepository truckRepository;
+
+    @Mock
+    private Ups ups;
+
+    private FleetState fleetState;
+    private PickupConsolidator consolidator;
+
+    @BeforeEach
+    void setUp() {
+        fleetState = new FleetState(truckRepository, null, new SimpleMeterRegistry(), 60000, 16);
+        List<Truck> trucks = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            Truck truck = new Truck(id * 10, 0);
+            truck.setId(id);
+            trucks.add(truck);
+        }
+        fleetState.load(trucks);
+        consolidator = new PickupConsolidator(fleetState, ups, new SimpleMeterRegistry(), 200, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        consolidator.stop();
+    }
+
+    @Test
+    void testPackagesForOneWarehouseShareATripUpToCapacity() throws Exception {
+        PickupConsolidator.Assignment first = consolidator.assign(7, 0, 0, 0);
+        PickupConsolidator.Assignment second = consolidator.assign(7, 0, 0, 0);
+        PickupConsolidator.Assignment third = consolidator.assign(7, 0, 0, 0);
+        PickupConsolidator.Assignment fourth = consolidator.assign(7, 0, 0, 0);
+
+        assertEquals(1, first.getTruckId(), "Nearest idle truck opens the trip");
+        assertTrue(first.isNewTrip());
+        assertEquals(1, second.getTruckId());
+        assertFalse(second.isNewTrip());
+        assertEquals(1, third.getTruckId());
+        assertEquals(2, fourth.getTruckId(), "A full truck makes the next package start a new trip");
+        assertTrue(fourth.isNewTrip());
+
+        // One pickup per trip, once the window closes
+        verify(ups, timeout(2000)).sendTruckToPickup(1, 7);
+        verify(ups, timeout(2000)).sendTruckToPickup(2, 7);
+        verifyNoMoreInteractions(ups);
+    }
+
+    @Test
+    void testTruckAtWarehouseIsAskedToPickUpAgain() throws Exception {
+        consolidator.assign(7, 0, 0, 0);
+        verify(ups, timeout(2000)).sendTruckToPickup(1, 7);
+
+        fleetState.update(1, 0, 0, TruckStatus.ARRIVE_WAREHOUSE);
+        PickupConsolidator.Assignment late = consolidator.assign(7, 0, 0, 0);
+
+        assertEquals(1, late.getTruckId());
+        verify(ups, timeout(2000).times(2)).sendTruckToPickup(1, 7);
+    }
+
+    @Test
+    void testTruckThatLeftClosesTheBatch() throws Exception {
+        consolidator.assign(7, 0, 0, 0);
+        fleetState.update(1, 0, 0, TruckStatus.DELIVERING);
+
+        PickupConsolidator.Assignment next = consolidator.assign(7, 0, 0, 0);
+
+        assertEquals(2, next.getTruckId());
+        assertTrue(next.isNewTrip());
+    }
+
+    @Test
+    void testReleasingTheOnlyPackageCancelsTheTrip() throws Exception {
+        PickupConsolidator.Assignment assignment = consolidator.assign(7, 0, 0, 0);
+
+        consolidator.release(assignment);
+
+        assertEquals(0, consolidator.getBatchSize(7));
+        assertEquals(TruckStatus.IDLE, fleetState.get(1).getStatus());
+        Thread.sleep(400);
+        verifyNoInteractions(ups);
+    }
+
+    @Test
+    void testPickupWaitsForTheShipmentToCommit() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            consolidator.assign(7, 0, 0, 0);
+            consolidator.assign(7, 0, 0, 0);
+
+            // The window has passed, but the packages are not visible to anyone yet
+            Thread.sleep(400);
+            verifyNoInteractions(ups);
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(ups, timeout(2000)).sendTruckToPickup(1, 7);
+        Thread.sleep(400);
+        verifyNoMoreInteractions(ups);
+        assertEquals(2, consolidator.getBatchSize(7));
+    }
+
+    @Test
+    void testRolledBackShipmentGivesTheTruckBack() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            PickupConsolidator.Assignment first = consolidator.assign(7, 0, 0, 0);
+            consolidator.assign(7, 0, 0, 0);
+            // The service already gave the first one back when its insert failed; that must not count twice
+            consolidator.release(first);
+            assertEquals(1, consolidator.getBatchSize(7));
+
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(0, consolidator.getBatchSize(7));
+        assertEquals(TruckStatus.IDLE, fleetState.get(1).getStatus());
+        Thread.sleep(400);
+        verifyNoInteractions(ups);
+    }
+}
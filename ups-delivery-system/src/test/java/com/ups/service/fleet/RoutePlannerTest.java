@@ -0,0 +1,63 @@
+package com.ups.service.fleet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoutePlannerTest {
+
+    @Test
+    public void testStopsOnALineAreVisitedInOrder() {
+        int[] xs = {30, 10, 50, 20, 40};
+        int[] ys = {0, 0, 0, 0, 0};
+
+        int[] route = RoutePlanner.plan(0, 0, xs, ys, TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertArrayEquals(new int[]{1, 3, 0, 4, 2}, route);
+        assertEquals(50.0, RoutePlanner.length(0, 0, xs, ys, route), 1e-9);
+    }
+
+    @Test
+    public void testTwoOptNeverLengthensAndVisitsEveryStop() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 1 + random.nextInt(60);
+            int[] xs = new int[n];
+            int[] ys = new int[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = random.nextInt(401) - 200;
+                ys[i] = random.nextInt(401) - 200;
+            }
+
+            int[] greedy = RoutePlanner.plan(0, 0, xs, ys, 0);
+            int[] improved = RoutePlanner.plan(0, 0, xs, ys, TimeUnit.MILLISECONDS.toNanos(50));
+
+            assertTrue(RoutePlanner.length(0, 0, xs, ys, improved)
+                    <= RoutePlanner.length(0, 0, xs, ys, greedy) + 1e-9);
+            int[] sorted = improved.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, sorted[i], "Every stop appears exactly once");
+            }
+        }
+    }
+
+    @Test
+    public void testTwoOptUncrossesARoute() {
+        // Nearest neighbour from the origin goes to 1, back past the start to -2, then all the way out to 5
+        int[] xs = {1, -2, 5};
+        int[] ys = {0, 0, 0};
+
+        int[] greedy = RoutePlanner.plan(0, 0, xs, ys, 0);
+        int[] improved = RoutePlanner.plan(0, 0, xs, ys, TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(11.0, RoutePlanner.length(0, 0, xs, ys, greedy), 1e-9);
+        assertArrayEquals(new int[]{1, 0, 2}, improved);
+        assertEquals(9.0, RoutePlanner.length(0, 0, xs, ys, improved), 1e-9);
+        assertEquals(0, RoutePlanner.plan(0, 0, new int[0], new int[0], 1000).length);
+    }
+}
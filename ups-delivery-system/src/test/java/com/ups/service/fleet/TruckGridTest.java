@@ -0,0 +1,87 @@
+package com.ups.service.fleet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TruckGridTest {
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        Random random = new Random(42);
+        int trucks = 2000;
+        int[] xs = new int[trucks];
+        int[] ys = new int[trucks];
+        boolean[] indexed = new boolean[trucks];
+        TruckGrid grid = new TruckGrid(8);
+
+        for (int slot = 0; slot < trucks; slot++) {
+            xs[slot] = random.nextInt(1001) - 500;
+            ys[slot] = random.nextInt(1001) - 500;
+            if (random.nextBoolean()) {
+                grid.put(slot, xs[slot], ys[slot]);
+                indexed[slot] = true;
+            }
+        }
+
+        for (int query = 0; query < 500; query++) {
+            // Move or drop a few trucks between queries, like status updates do
+            int slot = random.nextInt(trucks);
+            if (random.nextBoolean()) {
+                xs[slot] = random.nextInt(1001) - 500;
+                ys[slot] = random.nextInt(1001) - 500;
+                grid.put(slot, xs[slot], ys[slot]);
+                indexed[slot] = true;
+            } else {
+                grid.remove(slot);
+                indexed[slot] = false;
+            }
+
+            int x = random.nextInt(1201) - 600;
+            int y = random.nextInt(1201) - 600;
+            int expected = bruteForceNearest(x, y, xs, ys, indexed);
+            assertEquals(expected, grid.nearest(x, y, xs, ys), "Query at (" + x + "," + y + ")");
+        }
+    }
+
+    @Test
+    public void testEmptyAndFarAwayTrucks() {
+        int[] xs = {1_000_000, -3};
+        int[] ys = {1_000_000, -4};
+        TruckGrid grid = new TruckGrid(16);
+
+        assertEquals(-1, grid.nearest(0, 0, xs, ys));
+
+        grid.put(0, xs[0], ys[0]);
+        assertEquals(0, grid.nearest(0, 0, xs, ys), "A lone truck far away is still found");
+
+        grid.put(1, xs[1], ys[1]);
+        assertEquals(1, grid.nearest(0, 0, xs, ys));
+        assertEquals(2, grid.size());
+
+        grid.remove(1);
+        grid.remove(1);
+        assertEquals(1, grid.size());
+        assertEquals(0, grid.nearest(0, 0, xs, ys));
+    }
+
+    private static int bruteForceNearest(int x, int y, int[] xs, int[] ys, boolean[] indexed) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int slot = 0; slot < xs.length; slot++) {
+            if (!indexed[slot]) {
+                continue;
+            }
+            long dx = xs[slot] - (long) x;
+            long dy = ys[slot] - (long) y;
+            long distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = slot;
+            }
+        }
+        return best;
+    }
+}
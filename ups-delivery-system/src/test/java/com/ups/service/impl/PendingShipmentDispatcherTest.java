@@ -0,0 +1,136 @@
+package com.ups.service.impl;
+
+import com.ups.model.entity.PendingShipment;
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.PendingShipmentRepository;
+import com.ups.repository.TruckRepository;
+import com.ups.service.ShipmentService;
+import com.ups.service.fleet.FleetState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PendingShipmentDispatcherTest {
+
+    @Mock
+    private PendingShipmentRepository pendingShipmentRepository;
+
+    @Mock
+    private ShipmentService shipmentService;
+
+    @Mock
+    private TruckRepository truckRepository;
+
+    private final List<PendingShipment> queue = new ArrayList<>();
+    private FleetState fleetState;
+    private PendingShipmentDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        Truck truck = new Truck(0, 0);
+        truck.setId(1);
+        truck.setStatus(TruckStatus.DELIVERING);
+        fleetState = new FleetState(truckRepository, null, new SimpleMeterRegistry(), 60000, 16);
+        fleetState.load(List.of(truck));
+
+        // A queue backed by a list, ordered by ID like the table
+        when(pendingShipmentRepository.findFirstByOrderByIdAsc()).thenAnswer(invocation ->
+                queue.stream().min(Comparator.comparing(PendingShipment::getId)));
+        when(pendingShipmentRepository.findByWarehouseIdOrderByIdAsc(anyInt())).thenAnswer(invocation ->
+                queue.stream().filter(p -> p.getWarehouseId().equals(invocation.getArgument(0))).toList());
+
+        dispatcher = new PendingShipmentDispatcher(pendingShipmentRepository, shipmentService, fleetState,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    void testIdleTruckTakesOldestShipmentAndItsWarehouseMates() {
+        // The start-up pass finds an empty queue
+        dispatcher.start();
+        verify(pendingShipmentRepository, timeout(2000)).findFirstByOrderByIdAsc();
+
+        PendingShipment oldest = queued(1L, 7);
+        PendingShipment otherWarehouse = queued(2L, 8);
+        PendingShipment sameWarehouse = queued(3L, 7);
+        // One truck: the oldest claims it, the later one for warehouse 7 joins, warehouse 8 keeps waiting
+        when(shipmentService.dispatchQueued(any(), anyBoolean())).thenAnswer(invocation -> {
+            PendingShipment pending = invocation.getArgument(0);
+            boolean joinOnly = invocation.getArgument(1);
+            if (pending.getWarehouseId() != 7 && !joinOnly) {
+                return false;
+            }
+            queue.remove(pending);
+            return true;
+        });
+
+        // Nothing happens until a truck goes idle
+        verifyNoInteractions(shipmentService);
+        fleetState.update(1, 0, 0, TruckStatus.IDLE);
+
+        InOrder order = inOrder(shipmentService);
+        order.verify(shipmentService, timeout(2000)).dispatchQueued(oldest, false);
+        order.verify(shipmentService, timeout(2000)).dispatchQueued(sameWarehouse, true);
+        order.verify(shipmentService, timeout(2000)).dispatchQueued(otherWarehouse, false);
+        verify(shipmentService, after(200).times(3)).dispatchQueued(any(), anyBoolean());
+    }
+
+    @Test
+    void testShipmentThatAlwaysFailsIsRejectedAndDrainingContinues() {
+        PendingShipment unreadable = queued(1L, 7);
+        PendingShipment next = queued(2L, 8);
+        when(shipmentService.dispatchQueued(any(), anyBoolean())).thenAnswer(invocation -> {
+            PendingShipment pending = invocation.getArgument(0);
+            if (pending == unreadable) {
+                throw new IllegalStateException("Unreadable queued shipment for package 1001");
+            }
+            queue.remove(pending);
+            return true;
+        });
+        doAnswer(invocation -> queue.remove(invocation.<PendingShipment>getArgument(0)))
+                .when(shipmentService).rejectQueued(any(), anyString());
+
+        fleetState.update(1, 0, 0, TruckStatus.IDLE);
+        dispatcher.start();
+
+        verify(shipmentService, timeout(2000)).rejectQueued(eq(unreadable), contains("Unreadable"));
+        verify(shipmentService, timeout(2000)).dispatchQueued(next, false);
+        verify(shipmentService, after(200).times(1)).dispatchQueued(unreadable, false);
+    }
+
+    @Test
+    void testQueuedShipmentWithNoIdleTruckDoesNotDrain() {
+        dispatcher.shipmentQueued(queued(1L, 7));
+
+        verify(pendingShipmentRepository, after(200).never()).findFirstByOrderByIdAsc();
+    }
+
+    private PendingShipment queued(long id, int warehouseId) {
+        PendingShipment pending = new PendingShipment(1000 + id, warehouseId, "{}", Instant.now());
+        pending.setId(id);
+        queue.add(pending);
+        return pending;
+    }
+}
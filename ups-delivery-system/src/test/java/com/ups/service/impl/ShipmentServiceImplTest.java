@@ -0,0 +1,149 @@
+package com.ups.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ups.model.amazon.CreateShipmentRequest;
+import com.ups.model.amazon.CreateShipmentResponse;
+import com.ups.model.entity.Package;
+import com.ups.model.entity.PendingShipment;
+import com.ups.model.entity.Warehouse;
+import com.ups.repository.PackageItemRepository;
+import com.ups.repository.PackageRepository;
+import com.ups.repository.PendingShipmentRepository;
+import com.ups.repository.TruckRepository;
+import com.ups.repository.UserRepository;
+import com.ups.repository.WarehouseRepository;
+import com.ups.service.AmazonNotificationService;
+import com.ups.service.fleet.PickupConsolidator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ShipmentServiceImplTest {
+
+    @Mock private PackageRepository packageRepository;
+    @Mock private PackageItemRepository packageItemRepository;
+    @Mock private UserRepository userRepository;
+    @Mock private TruckRepository truckRepository;
+    @Mock private WarehouseRepository warehouseRepository;
+    @Mock private PickupConsolidator pickupConsolidator;
+    @Mock private PendingShipmentRepository pendingShipmentRepository;
+    @Mock private ApplicationEventPublisher eventPublisher;
+    @Mock private AmazonNotificationService amazonNotificationService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private ShipmentServiceImpl shipmentService;
+
+    @BeforeEach
+    void setUp() {
+        shipmentService = new ShipmentServiceImpl(packageRepository, packageItemRepository, userRepository,
+                truckRepository, warehouseRepository, pickupConsolidator, pendingShipmentRepository,
+                amazonNotificationService, objectMapper, eventPublisher, 0, 2);
+        when(warehouseRepository.findById(7)).thenReturn(Optional.of(new Warehouse(7, 5, 5)));
+        when(pendingShipmentRepository.findByPackageId(anyLong())).thenReturn(Optional.empty());
+        when(pendingShipmentRepository.save(any(PendingShipment.class))).thenAnswer(invocation -> {
+            PendingShipment pending = invocation.getArgument(0);
+            pending.setId(42L);
+            return pending;
+        });
+    }
+
+    @Test
+    void testShipmentIsQueuedWithItsPositionWhenNoTruckIsFree() throws Exception {
+        when(pickupConsolidator.assign(eq(7), eq(5), eq(5), anyLong())).thenReturn(null);
+        when(pendingShipmentRepository.countByIdLessThan(42L)).thenReturn(0L);
+
+        CreateShipmentResponse response = shipmentService.processShipmentRequest(request(1001L));
+
+        assertEquals("QUEUED", response.getStatus());
+        assertEquals(1L, response.getQueuePosition());
+        assertNull(response.getError());
+        ArgumentCaptor<PendingShipment> saved = ArgumentCaptor.forClass(PendingShipment.class);
+        verify(pendingShipmentRepository).save(saved.capture());
+        assertEquals(1001L, saved.getValue().getPackageId());
+        assertEquals(7, saved.getValue().getWarehouseId());
+        verify(eventPublisher).publishEvent(saved.getValue());
+        verify(packageRepository, never()).save(any());
+    }
+
+    @Test
+    void testNewShipmentWaitsBehindTheQueueUnlessItCanJoinATrip() throws Exception {
+        when(pendingShipmentRepository.count()).thenReturn(1L);
+        when(pickupConsolidator.join(7)).thenReturn(null);
+        when(pendingShipmentRepository.countByIdLessThan(42L)).thenReturn(1L);
+
+        CreateShipmentResponse response = shipmentService.processShipmentRequest(request(1002L));
+
+        assertEquals("QUEUED", response.getStatus());
+        assertEquals(2L, response.getQueuePosition());
+        verify(pickupConsolidator, never()).assign(anyInt(), any(), any(), anyLong());
+    }
+
+    @Test
+    void testQueuedShipmentIsCreatedAndRemovedOnceATruckIsFree() throws Exception {
+        PickupConsolidator.Assignment assignment = mock(PickupConsolidator.Assignment.class);
+        when(assignment.getTruckId()).thenReturn(3);
+        when(pickupConsolidator.assign(eq(7), eq(5), eq(5), eq(0L))).thenReturn(assignment);
+        PendingShipment pending = new PendingShipment(1003L, 7,
+                objectMapper.writeValueAsString(request(1003L)), Instant.now());
+
+        assertTrue(shipmentService.dispatchQueued(pending, false));
+
+        ArgumentCaptor<Package> pkg = ArgumentCaptor.forClass(Package.class);
+        verify(packageRepository).save(pkg.capture());
+        assertEquals(1003L, pkg.getValue().getId());
+        verify(truckRepository).getReferenceById(3);
+        verify(pendingShipmentRepository).delete(pending);
+    }
+
+    @Test
+    void testQueueFullRejects() throws Exception {
+        when(pendingShipmentRepository.count()).thenReturn(2L);
+
+        CreateShipmentResponse response = shipmentService.processShipmentRequest(request(1004L));
+
+        assertEquals("REJECTED", response.getStatus());
+        verify(pendingShipmentRepository, never()).save(any());
+    }
+
+    @Test
+    void testUnreadableQueuedShipmentIsRejectedToAmazon() {
+        PendingShipment pending = new PendingShipment(1005L, 7, "{not json", Instant.now());
+
+        assertThrows(IllegalStateException.class, () -> shipmentService.dispatchQueued(pending, false));
+        shipmentService.rejectQueued(pending, "Unreadable queued shipment");
+
+        verify(pendingShipmentRepository).delete(pending);
+        verify(amazonNotificationService).sendStatusUpdate(
+                argThat(pkg -> pkg.getId() == 1005L), isNull(), eq("REJECTED"), contains("Unreadable"));
+    }
+
+    private static CreateShipmentRequest request(long packageId) {
+        CreateShipmentRequest.Destination destination = new CreateShipmentRequest.Destination();
+        destination.setX(20);
+        destination.setY(30);
+        CreateShipmentRequest.ShipmentInfo info = new CreateShipmentRequest.ShipmentInfo();
+        info.setPackageId(packageId);
+        info.setWarehouseId(7);
+        info.setDestination(destination);
+        CreateShipmentRequest request = new CreateShipmentRequest();
+        request.setMessageType("CreateShipmentRequest");
+        request.setSeqNum(packageId);
+        request.setShipmentInfo(info);
+        return request;
+    }
+}
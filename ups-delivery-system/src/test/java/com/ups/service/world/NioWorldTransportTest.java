@@ -0,0 +1,143 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class NioWorldTransportTest {
+
+    private ServerSocket server;
+    private NioWorldTransport transport;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+        transport = new NioWorldTransport();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void testHandshakeThenResponsesReachListener() throws Exception {
+        WorldResponseListener listener = mock(WorldResponseListener.class);
+        transport.connect("localhost", server.getLocalPort());
+
+        try (Socket world = server.accept()) {
+            transport.send(WorldUpsProto.UConnect.newBuilder().setIsAmazon(false).build());
+            assertFalse(WorldUpsProto.UConnect.parseDelimitedFrom(world.getInputStream()).getIsAmazon());
+
+            // The first response arrives in the same write as UConnected
+            OutputStream out = world.getOutputStream();
+            out.write(connectedThenResponse());
+            out.flush();
+
+            assertEquals(42L, transport.receive(WorldUpsProto.UConnected.parser()).getWorldid());
+            transport.startReading(listener, null);
+
+            // And more arrive once the selector owns the channel
+            WorldFrameReaderTest.response(2).writeDelimitedTo(out);
+            out.flush();
+
+            verify(listener, timeout(2000)).handleResponse(argThat(r -> r.getCompletions(0).getSeqnum() == 1));
+            verify(listener, timeout(2000)).handleResponse(argThat(r -> r.getCompletions(0).getSeqnum() == 2));
+        }
+    }
+
+    @Test
+    public void testQueuedWritesArriveInOrder() throws Exception {
+        transport.connect("localhost", server.getLocalPort());
+
+        try (Socket world = server.accept()) {
+            transport.startReading(mock(WorldResponseListener.class), null);
+
+            // More messages than one gather so several flushes are needed
+            int count = NioWorldTransport.MAX_GATHER * 3 + 5;
+            for (int i = 0; i < count; i++) {
+                transport.send(query(i));
+            }
+
+            InputStream in = world.getInputStream();
+            for (int i = 0; i < count; i++) {
+                WorldUpsProto.UCommands commands = WorldUpsProto.UCommands.parseDelimitedFrom(in);
+                assertEquals(i, commands.getQueries(0).getSeqnum());
+            }
+        }
+    }
+
+    @Test
+    public void testSendCompletesOnlyOnceWritten() throws Exception {
+        transport.connect("localhost", server.getLocalPort());
+
+        try (Socket world = server.accept()) {
+            transport.startReading(mock(WorldResponseListener.class), null);
+
+            // The world reads nothing yet, so the socket buffers fill and the later frames wait in the queue
+            WorldUpsProto.UCommands.Builder big = WorldUpsProto.UCommands.newBuilder();
+            for (int i = 0; i < 10000; i++) {
+                big.addQueries(WorldUpsProto.UQuery.newBuilder().setTruckid(i).setSeqnum(i));
+            }
+            int frames = 200;
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < frames; i++) {
+                futures.add(transport.send(big.build()));
+            }
+            Thread.sleep(100);
+            assertFalse(futures.get(frames - 1).isDone(), "Completed before its bytes were written");
+
+            InputStream in = world.getInputStream();
+            for (int i = 0; i < frames; i++) {
+                assertEquals(10000, WorldUpsProto.UCommands.parseDelimitedFrom(in).getQueriesCount());
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(2, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testCloseFlushesQueuedWrites() throws Exception {
+        transport.connect("localhost", server.getLocalPort());
+
+        try (Socket world = server.accept()) {
+            transport.startReading(mock(WorldResponseListener.class), null);
+            transport.send(query(7));
+            transport.send(WorldUpsProto.UCommands.newBuilder().setDisconnect(true).build());
+            transport.close();
+
+            InputStream in = world.getInputStream();
+            assertEquals(7L, WorldUpsProto.UCommands.parseDelimitedFrom(in).getQueries(0).getSeqnum());
+            assertTrue(WorldUpsProto.UCommands.parseDelimitedFrom(in).getDisconnect());
+            assertFalse(transport.isConnected());
+        }
+    }
+
+    private byte[] connectedThenResponse() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WorldUpsProto.UConnected.newBuilder().setWorldid(42).setResult("connected!").build().writeDelimitedTo(out);
+        WorldFrameReaderTest.response(1).writeDelimitedTo(out);
+        return out.toByteArray();
+    }
+
+    private WorldUpsProto.UCommands query(long seqNum) {
+        return WorldUpsProto.UCommands.newBuilder()
+                .addQueries(WorldUpsProto.UQuery.newBuilder().setTruckid(1).setSeqnum(seqNum))
+                .build();
+    }
+}
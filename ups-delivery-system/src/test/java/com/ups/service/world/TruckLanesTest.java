@@ -0,0 +1,89 @@
+package com.ups.service.world;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TruckLanesTest {
+
+    private TruckLanes lanes;
+
+    @AfterEach
+    public void tearDown() {
+        if (lanes != null) {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    public void testEventsForOneTruckStayInOrder() throws Exception {
+        Map<Integer, List<Integer>> seen = new ConcurrentHashMap<>();
+        lanes = new TruckLanes(4, 8, events -> {
+            for (TruckLanes.Event event : events) {
+                seen.computeIfAbsent(event.getTruckId(), id -> new CopyOnWriteArrayList<>())
+                        .add((Integer) event.getPayload());
+            }
+        }, new SimpleMeterRegistry());
+        lanes.start();
+
+        for (int i = 0; i < 1000; i++) {
+            lanes.submit(i % 10, i);
+        }
+        assertTrue(lanes.awaitIdle(5, TimeUnit.SECONDS));
+
+        assertEquals(10, seen.size());
+        for (List<Integer> events : seen.values()) {
+            assertEquals(100, events.size());
+            for (int i = 1; i < events.size(); i++) {
+                assertTrue(events.get(i - 1) < events.get(i), "Events for a truck must not be reordered");
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentLanesRunInParallel() throws Exception {
+        // Trucks 0 and 1 land in different lanes; each waits for the other to start
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        lanes = new TruckLanes(2, 8, events -> {
+            bothStarted.countDown();
+            try {
+                bothStarted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, new SimpleMeterRegistry());
+        lanes.start();
+
+        assertNotEquals(lanes.laneFor(0), lanes.laneFor(1));
+        lanes.submit(0, "a");
+        lanes.submit(1, "b");
+
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS), "Lanes should process concurrently");
+    }
+
+    @Test
+    public void testDepthAndLatencyArePublished() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        lanes = new TruckLanes(2, 8, events -> { }, meterRegistry);
+
+        // Not started yet, so events wait in their lane
+        lanes.submit(3, "x");
+        lanes.submit(5, "y");
+        assertEquals(2, lanes.getDepth(lanes.laneFor(3)));
+        assertEquals(2.0, meterRegistry.get("ups.world.lane.depth").tag("lane", "1").gauge().value());
+
+        lanes.start();
+        assertTrue(lanes.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(2, meterRegistry.get("ups.world.lane.latency").tag("lane", "1").timer().count());
+        assertEquals(0.0, meterRegistry.get("ups.world.lane.depth").tag("lane", "1").gauge().value());
+    }
+}
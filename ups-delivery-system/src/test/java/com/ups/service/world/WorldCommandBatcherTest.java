@@ -0,0 +1,135 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldCommandBatcherTest {
+
+    private WorldCommandBatcher batcher;
+
+    @AfterEach
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void testBurstIsMergedIntoOneFrame() throws Exception {
+        List<WorldUpsProto.UCommands> written = new CopyOnWriteArrayList<>();
+        batcher = new WorldCommandBatcher(100, 50);
+        batcher.start(commands -> {
+            written.add(commands);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // Queue a burst of mixed commands within one linger window
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(batcher.submit(pickup(1, 1, 10)));
+        futures.add(batcher.submit(pickup(2, 1, 11)));
+        futures.add(batcher.submit(query(3, 12)));
+        futures.add(batcher.submitAck(99));
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(2, TimeUnit.SECONDS);
+
+        // Verify everything went out in a single UCommands
+        assertEquals(1, written.size());
+        WorldUpsProto.UCommands commands = written.get(0);
+        assertEquals(2, commands.getPickupsCount());
+        assertEquals(1, commands.getQueriesCount());
+        assertEquals(1, commands.getAcksCount());
+        assertEquals(99L, commands.getAcks(0));
+    }
+
+    @Test
+    public void testMaxBatchSizeSplitsFrames() throws Exception {
+        List<WorldUpsProto.UCommands> written = new CopyOnWriteArrayList<>();
+        batcher = new WorldCommandBatcher(2, 50);
+        batcher.start(commands -> {
+            written.add(commands);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(batcher.submit(query(i, i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(2, TimeUnit.SECONDS);
+
+        // Five commands with a cap of two per frame need three frames
+        assertEquals(3, written.size());
+        int total = 0;
+        for (WorldUpsProto.UCommands commands : written) {
+            assertTrue(commands.getQueriesCount() <= 2);
+            total += commands.getQueriesCount();
+        }
+        assertEquals(5, total);
+    }
+
+    @Test
+    public void testWriteFailureCompletesFutureExceptionally() throws Exception {
+        batcher = new WorldCommandBatcher(10, 0);
+        batcher.start(commands -> {
+            throw new IOException("Broken pipe");
+        });
+
+        CompletableFuture<Void> future = batcher.submit(pickup(1, 1, 1));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testFuturesCompleteWhenTheFrameIsWritten() throws Exception {
+        CompletableFuture<Void> onWire = new CompletableFuture<>();
+        batcher = new WorldCommandBatcher(10, 0);
+        batcher.start(commands -> onWire);
+
+        CompletableFuture<Void> first = batcher.submit(query(1, 1));
+        CompletableFuture<Void> second = batcher.submit(query(2, 2));
+        Thread.sleep(50);
+
+        // Handed to the transport but not yet written
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        onWire.complete(null);
+        first.get(2, TimeUnit.SECONDS);
+        second.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSubmitBeforeStartFails() {
+        batcher = new WorldCommandBatcher();
+
+        CompletableFuture<Void> future = batcher.submit(query(1, 1));
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    private WorldCommand pickup(int truckId, int warehouseId, long seqNum) {
+        return WorldCommand.pickup(WorldUpsProto.UGoPickup.newBuilder()
+                .setTruckid(truckId)
+                .setWhid(warehouseId)
+                .setSeqnum(seqNum)
+                .build());
+    }
+
+    private WorldCommand query(int truckId, long seqNum) {
+        return WorldCommand.query(WorldUpsProto.UQuery.newBuilder()
+                .setTruckid(truckId)
+                .setSeqnum(seqNum)
+                .build());
+    }
+}
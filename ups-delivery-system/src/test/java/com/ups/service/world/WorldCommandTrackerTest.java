@@ -0,0 +1,108 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldCommandTrackerTest {
+
+    private WorldCommandBatcher batcher;
+    private WorldCommandTracker tracker;
+    private SimpleMeterRegistry meterRegistry;
+    private final List<WorldUpsProto.UCommands> written = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        batcher = new WorldCommandBatcher(100, 0);
+        batcher.start(commands -> {
+            written.add(commands);
+            return CompletableFuture.completedFuture(null);
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        // Resend after 50ms, backing off to at most 200ms, on a 10ms wheel
+        tracker = new WorldCommandTracker(batcher, meterRegistry, 1024, 50, 200, 10);
+        tracker.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        tracker.stop();
+        batcher.stop();
+    }
+
+    @Test
+    public void testUnackedCommandIsResent() throws Exception {
+        WorldCommand command = query(1, 7);
+        tracker.track(command);
+
+        // Wait for at least one resend
+        long deadline = System.currentTimeMillis() + 2000;
+        while (written.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(written.isEmpty(), "Unacked command should have been resent");
+        assertEquals(7L, written.get(0).getQueries(0).getSeqnum());
+        assertEquals(1, tracker.getInFlightCount());
+        assertTrue(meterRegistry.get("ups.world.resends").counter().count() >= 1);
+    }
+
+    @Test
+    public void testAckStopsResend() throws Exception {
+        tracker.track(query(1, 8));
+
+        // The world acks before the resend timeout
+        WorldUpsProto.UResponses response = WorldUpsProto.UResponses.newBuilder().addAcks(8L).build();
+        tracker.acknowledge(response);
+
+        Thread.sleep(200);
+
+        assertEquals(0, tracker.getInFlightCount());
+        assertTrue(written.isEmpty(), "Acked command should not be resent");
+        assertEquals(1, meterRegistry.get("ups.world.ack.latency").timer().count());
+        assertEquals(0.0, meterRegistry.get("ups.world.inflight").gauge().value());
+    }
+
+    @Test
+    public void testUnknownAckIsIgnored() {
+        tracker.track(query(1, 9));
+
+        assertFalse(tracker.acknowledge(10L));
+        assertEquals(1, tracker.getInFlightCount());
+    }
+
+    @Test
+    public void testTableHandlesWrapAroundAndRemoval() {
+        InFlightCommandTable table = new InFlightCommandTable(4);
+
+        // Seqnums 1 and 5 share a home slot in a four-slot table
+        for (long seq = 1; seq <= 4; seq++) {
+            assertTrue(table.put(new InFlightCommandTable.Entry(seq, query(1, seq), 0L)));
+        }
+        assertFalse(table.put(new InFlightCommandTable.Entry(5, query(1, 5), 0L)), "Table should be full");
+
+        assertNotNull(table.remove(1));
+        assertTrue(table.put(new InFlightCommandTable.Entry(5, query(1, 5), 0L)));
+
+        assertNull(table.get(1));
+        assertEquals(5L, table.get(5).getSeqNum());
+        assertEquals(2L, table.remove(2).getSeqNum());
+        assertNull(table.remove(2));
+        assertEquals(3, table.size());
+    }
+
+    private WorldCommand query(int truckId, long seqNum) {
+        return WorldCommand.query(WorldUpsProto.UQuery.newBuilder()
+                .setTruckid(truckId)
+                .setSeqnum(seqNum)
+                .build());
+    }
+}
@@ -0,0 +1,230 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import com.ups.model.entity.Truck;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class WorldConnectionSupervisorTest {
+
+    private static final long WORLD_ID = 7L;
+
+    private ServerSocket server;
+    private WorldCommandBatcher batcher;
+    private WorldCommandTracker tracker;
+    private WorldConnector connector;
+    private WorldConnectionSupervisor supervisor;
+    private SimpleMeterRegistry meterRegistry;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (supervisor != null) {
+            supervisor.stop();
+        }
+        if (connector != null) {
+            connector.disconnect();
+        }
+        if (tracker != null) {
+            tracker.stop();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"socket", "nio"})
+    public void testResumesWorldAndReplaysUnackedCommands(String transportType) throws Exception {
+        server = new ServerSocket(0);
+        WorldResponseHandler handler = mock(WorldResponseHandler.class);
+        meterRegistry = new SimpleMeterRegistry();
+        batcher = new WorldCommandBatcher(100, 0);
+        // Long resend timeout so only the reconnect replay can resend the command
+        tracker = new WorldCommandTracker(batcher, meterRegistry, 1024, 60000, 60000, 10);
+        tracker.start();
+        WorldResponseListener listener = new WorldResponseListener(handler, tracker, batcher, 1024);
+        connector = new WorldConnector(listener, batcher, tracker, transportType);
+        supervisor = new WorldConnectionSupervisor(connector, meterRegistry, true, 20, 200);
+        supervisor.start();
+
+        CompletableFuture<Long> fakeWorld = CompletableFuture.supplyAsync(this::runFakeWorld);
+
+        connector.connect("localhost", server.getLocalPort(), List.of(truck(1)), true, null);
+        assertEquals(WORLD_ID, connector.getWorldId());
+        connector.pickup(1, 3);
+
+        // The world drops the first connection after seeing the pickup, then checks the replay
+        long replayedSeqNum = fakeWorld.get(10, TimeUnit.SECONDS);
+        assertEquals(1L, replayedSeqNum);
+
+        // Responses on the new connection reach the handler and clear the replayed command
+        verify(handler, timeout(5000)).queueResponse(argThat(r -> r.getCompletionsCount() == 1));
+        assertEquals(0, tracker.getInFlightCount());
+        assertTrue(connector.isConnected());
+        assertFalse(connector.isReconnecting());
+        assertEquals(1.0, meterRegistry.get("ups.world.reconnects").counter().count());
+    }
+
+    @Test
+    public void testCommandsAcceptedWhileReconnecting() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        batcher = new WorldCommandBatcher(100, 0);
+        tracker = new WorldCommandTracker(batcher, meterRegistry, 1024, 60000, 60000, 10);
+        connector = new WorldConnector(null, batcher, tracker, "socket");
+
+        // Nothing is listening on this port, so the session stays in reconnecting state
+        try (ServerSocket unused = new ServerSocket(0)) {
+            int port = unused.getLocalPort();
+            unused.close();
+            assertThrows(IOException.class, () -> connector.connect("localhost", port, List.of(), true, null));
+        }
+        connector.connectionLost(new IOException("connection refused"));
+
+        assertTrue(connector.isSessionActive());
+        connector.queryTruckStatus(1);
+        assertEquals(1, tracker.getInFlightCount(), "Command should be held for replay");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"socket", "nio"})
+    public void testReconnectAfterFailedFirstConnectSendsCommands(String transportType) throws Exception {
+        server = new ServerSocket(0);
+        meterRegistry = new SimpleMeterRegistry();
+        batcher = new WorldCommandBatcher(100, 0);
+        tracker = new WorldCommandTracker(batcher, meterRegistry, 1024, 60000, 60000, 10);
+        tracker.start();
+        WorldResponseListener listener = new WorldResponseListener(mock(WorldResponseHandler.class), tracker, batcher, 1024);
+        connector = new WorldConnector(listener, batcher, tracker, transportType);
+
+        CompletableFuture<Long> fakeWorld = CompletableFuture.supplyAsync(() -> {
+            try {
+                // The first connection is dropped before UConnected, so connect() fails
+                server.accept().close();
+
+                Socket second = server.accept();
+                WorldUpsProto.UConnect connect = WorldUpsProto.UConnect.parseDelimitedFrom(second.getInputStream());
+                assertFalse(connect.hasWorldid());
+                connected(second.getOutputStream());
+                return awaitQuery(second.getInputStream());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertThrows(IOException.class,
+                () -> connector.connect("localhost", server.getLocalPort(), List.of(truck(1)), true, null));
+        supervisor = new WorldConnectionSupervisor(connector, meterRegistry, true, 20, 200);
+        supervisor.start();
+        connector.connectionLost(new IOException("first connect failed"));
+        connector.queryTruckStatus(1);
+
+        // Held while reconnecting, then sent by the batcher on the new connection
+        assertEquals(1L, fakeWorld.get(10, TimeUnit.SECONDS));
+        assertTrue(connector.isConnected());
+    }
+
+    @Test
+    public void testBackoffDoublesUpToCap() {
+        supervisor = new WorldConnectionSupervisor(mock(WorldConnector.class), new SimpleMeterRegistry(), true, 100, 1000);
+
+        assertTrue(supervisor.backoffMillis(1) <= 100 && supervisor.backoffMillis(1) >= 80);
+        assertTrue(supervisor.backoffMillis(3) <= 400 && supervisor.backoffMillis(3) >= 320);
+        assertTrue(supervisor.backoffMillis(10) <= 1000 && supervisor.backoffMillis(10) >= 800);
+        assertTrue(supervisor.backoffMillis(100) <= 1000);
+    }
+
+    /**
+     * Serve two connections: accept the world, drop the socket mid-frame once a pickup arrives,
+     * then expect a resume of the same world and the pickup to be replayed
+     * @return The seqnum of the replayed pickup
+     */
+    private Long runFakeWorld() {
+        try {
+            long pickupSeqNum;
+            try (Socket first = server.accept()) {
+                WorldUpsProto.UConnect connect = WorldUpsProto.UConnect.parseDelimitedFrom(first.getInputStream());
+                assertFalse(connect.hasWorldid());
+                assertEquals(1, connect.getTrucksCount());
+                connected(first.getOutputStream());
+
+                pickupSeqNum = awaitPickup(first.getInputStream());
+
+                // Half a frame, then the connection drops
+                OutputStream out = first.getOutputStream();
+                out.write(new byte[]{100, 1, 2, 3});
+                out.flush();
+            }
+
+            Socket second = server.accept();
+            WorldUpsProto.UConnect resume = WorldUpsProto.UConnect.parseDelimitedFrom(second.getInputStream());
+            assertEquals(WORLD_ID, resume.getWorldid());
+            assertEquals(0, resume.getTrucksCount());
+            connected(second.getOutputStream());
+
+            long replayed = awaitPickup(second.getInputStream());
+            WorldUpsProto.UResponses.newBuilder()
+                    .addAcks(replayed)
+                    .addCompletions(WorldUpsProto.UFinished.newBuilder()
+                            .setTruckid(1).setX(3).setY(4).setStatus("arrive warehouse").setSeqnum(900))
+                    .build()
+                    .writeDelimitedTo(second.getOutputStream());
+            second.getOutputStream().flush();
+            return replayed;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void connected(OutputStream out) throws IOException {
+        WorldUpsProto.UConnected.newBuilder().setWorldid(WORLD_ID).setResult("connected!").build().writeDelimitedTo(out);
+        out.flush();
+    }
+
+    private long awaitPickup(InputStream in) throws IOException {
+        while (true) {
+            WorldUpsProto.UCommands commands = WorldUpsProto.UCommands.parseDelimitedFrom(in);
+            if (commands == null) {
+                throw new IOException("Client closed the connection");
+            }
+            if (commands.getPickupsCount() > 0) {
+                return commands.getPickups(0).getSeqnum();
+            }
+        }
+    }
+
+    private long awaitQuery(InputStream in) throws IOException {
+        while (true) {
+            WorldUpsProto.UCommands commands = WorldUpsProto.UCommands.parseDelimitedFrom(in);
+            if (commands == null) {
+                throw new IOException("Client closed the connection");
+            }
+            if (commands.getQueriesCount() > 0) {
+                return commands.getQueries(0).getSeqnum();
+            }
+        }
+    }
+
+    private Truck truck(int id) {
+        Truck truck = new Truck();
+        truck.setId(id);
+        truck.setX(0);
+        truck.setY(0);
+        return truck;
+    }
+}
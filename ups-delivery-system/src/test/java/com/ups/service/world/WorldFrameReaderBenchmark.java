@@ -0,0 +1,111 @@
+package com.ups.service.world;
+
+import com.google.protobuf.CodedInputStream;
+import com.ups.WorldUpsProto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares bytes allocated per frame by the old per-frame CodedInputStream read
+ * against the persistent WorldFrameReader.
+ * Not run by the test suite; run the main method directly.
+ */
+public class WorldFrameReaderBenchmark {
+
+    private static final int FRAMES = 200_000;
+
+    public static void main(String[] args) throws IOException {
+        byte[] frame = WorldFrameReaderTest.frames(typicalResponse());
+        System.out.printf("Frame size: %d bytes, %d frames%n", frame.length, FRAMES);
+
+        // Warm up both paths before measuring
+        runCodedInputStream(frame, FRAMES / 10);
+        runFrameReader(frame, FRAMES / 10);
+
+        report("CodedInputStream per frame", runCodedInputStream(frame, FRAMES));
+        report("WorldFrameReader", runFrameReader(frame, FRAMES));
+    }
+
+    private static long[] runCodedInputStream(byte[] frame, int frames) throws IOException {
+        InputStream in = new RepeatingInputStream(frame, frames);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            // The old listener code: a new CodedInputStream over the socket for every frame
+            CodedInputStream codedIn = CodedInputStream.newInstance(in);
+            int size = codedIn.readRawVarint32();
+            byte[] data = codedIn.readRawBytes(size);
+            WorldUpsProto.UResponses.parseFrom(data);
+        }
+        return new long[]{allocatedBytes() - bytes, System.nanoTime() - start};
+    }
+
+    private static long[] runFrameReader(byte[] frame, int frames) throws IOException {
+        WorldFrameReader reader = new WorldFrameReader(new RepeatingInputStream(frame, frames));
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            reader.readFrame(WorldUpsProto.UResponses.parser());
+        }
+        return new long[]{allocatedBytes() - bytes, System.nanoTime() - start};
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.printf("%-28s %8.1f bytes/frame %8.1f ns/frame%n",
+                name, (double) result[0] / FRAMES, (double) result[1] / FRAMES);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static WorldUpsProto.UResponses typicalResponse() {
+        return WorldUpsProto.UResponses.newBuilder()
+                .addTruckstatus(WorldUpsProto.UTruck.newBuilder()
+                        .setTruckid(12)
+                        .setStatus("traveling")
+                        .setX(40)
+                        .setY(-17)
+                        .setSeqnum(1001))
+                .addAcks(77)
+                .build();
+    }
+
+    /**
+     * Hands out one whole frame per read, like a socket receiving one message per segment
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] frame;
+        private int remaining;
+        private int pos;
+
+        RepeatingInputStream(byte[] frame, int count) {
+            this.frame = frame;
+            this.remaining = count;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = Math.min(len, frame.length - pos);
+            System.arraycopy(frame, pos, b, off, count);
+            pos += count;
+            if (pos == frame.length) {
+                pos = 0;
+                remaining--;
+            }
+            return count;
+        }
+    }
+}
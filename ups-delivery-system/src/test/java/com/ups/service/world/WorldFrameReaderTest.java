@@ -0,0 +1,125 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldFrameReaderTest {
+
+    @Test
+    public void testBackToBackFramesInOneRead() throws Exception {
+        // Three frames arrive in a single TCP segment
+        byte[] data = frames(response(1), response(2), response(3));
+        WorldFrameReader reader = new WorldFrameReader(new ByteArrayInputStream(data));
+
+        for (long seq = 1; seq <= 3; seq++) {
+            WorldUpsProto.UResponses response = reader.readFrame(WorldUpsProto.UResponses.parser());
+            assertEquals(seq, response.getCompletions(0).getSeqnum());
+        }
+        assertEquals(0, reader.getBufferedCount());
+    }
+
+    @Test
+    public void testFramesSplitAcrossReads() throws Exception {
+        // Deliver one byte per read so varints and bodies straddle every boundary
+        byte[] data = frames(response(10), response(11));
+        WorldFrameReader reader = new WorldFrameReader(new TrickleInputStream(data, 1), 16);
+
+        assertEquals(10L, reader.readFrame(WorldUpsProto.UResponses.parser()).getCompletions(0).getSeqnum());
+        assertEquals(11L, reader.readFrame(WorldUpsProto.UResponses.parser()).getCompletions(0).getSeqnum());
+    }
+
+    @Test
+    public void testFrameLargerThanBuffer() throws Exception {
+        WorldUpsProto.UResponses.Builder builder = WorldUpsProto.UResponses.newBuilder();
+        for (long seq = 0; seq < 200; seq++) {
+            builder.addAcks(seq);
+        }
+        WorldUpsProto.UResponses large = builder.build();
+        byte[] data = frames(large, response(7));
+        WorldFrameReader reader = new WorldFrameReader(new TrickleInputStream(data, 50), 16);
+
+        assertEquals(large, reader.readFrame(WorldUpsProto.UResponses.parser()));
+        assertEquals(7L, reader.readFrame(WorldUpsProto.UResponses.parser()).getCompletions(0).getSeqnum());
+    }
+
+    @Test
+    public void testHandshakeLeavesFollowingFrameBuffered() throws Exception {
+        // The world can send its first UResponses right behind UConnected
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WorldUpsProto.UConnected.newBuilder().setWorldid(42).setResult("connected!").build().writeDelimitedTo(out);
+        response(5).writeDelimitedTo(out);
+        WorldFrameReader reader = new WorldFrameReader(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(42L, reader.readFrame(WorldUpsProto.UConnected.parser()).getWorldid());
+        assertTrue(reader.getBufferedCount() > 0);
+        assertEquals(5L, reader.readFrame(WorldUpsProto.UResponses.parser()).getCompletions(0).getSeqnum());
+    }
+
+    @Test
+    public void testTruncatedFrameThrowsEof() throws Exception {
+        byte[] data = frames(response(1));
+        byte[] truncated = Arrays.copyOf(data, data.length - 2);
+        WorldFrameReader reader = new WorldFrameReader(new ByteArrayInputStream(truncated));
+
+        assertThrows(EOFException.class, () -> reader.readFrame(WorldUpsProto.UResponses.parser()));
+    }
+
+    static WorldUpsProto.UResponses response(long seqNum) {
+        return WorldUpsProto.UResponses.newBuilder()
+                .addCompletions(WorldUpsProto.UFinished.newBuilder()
+                        .setTruckid(1)
+                        .setX(3)
+                        .setY(4)
+                        .setStatus("idle")
+                        .setSeqnum(seqNum)
+                        .build())
+                .build();
+    }
+
+    static byte[] frames(WorldUpsProto.UResponses... responses) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (WorldUpsProto.UResponses response : responses) {
+            response.writeDelimitedTo(out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns at most chunkSize bytes per read, like a slow socket
+     */
+    static class TrickleInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int pos;
+
+        TrickleInputStream(byte[] data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(len, chunkSize), data.length - pos);
+            System.arraycopy(data, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
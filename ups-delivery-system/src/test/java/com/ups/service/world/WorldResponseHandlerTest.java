@@ -9,17 +9,26 @@ import com.ups.repository.PackageRepository;
 import com.ups.repository.TruckRepository;
 import com.ups.repository.WarehouseRepository;
 import com.ups.service.AmazonNotificationService;
+import com.ups.service.fleet.FleetState;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -153,6 +162,142 @@ public class WorldResponseHandlerTest {
         verify(truckRepository, timeout(1000)).save(any(Truck.class));
     }
     
+    @Test
+    public void testLaneBatchRunsInTransaction() throws Exception {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        WorldResponseHandler transactionalHandler = new WorldResponseHandler(
+            truckRepository, packageRepository, warehouseRepository, amazonNotificationService,
+            new FleetState(truckRepository), transactionManager, new WorldResponseQueue(), new SimpleMeterRegistry(), 2, 64
+        );
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        dispatcher.submit(transactionalHandler::processResponses);
+        
+        // Trucks 2, 4 and 6 share a lane when there are two lanes
+        WorldUpsProto.UResponses.Builder responseBuilder = WorldUpsProto.UResponses.newBuilder();
+        for (int i = 0; i < 3; i++) {
+            Truck truck = new Truck();
+            truck.setId(2 + 2 * i);
+            truck.setStatus(TruckStatus.IDLE);
+            when(truckRepository.findById(2 + 2 * i)).thenReturn(Optional.of(truck));
+            responseBuilder.addTruckstatus(WorldUpsProto.UTruck.newBuilder()
+                .setTruckid(2 + 2 * i).setStatus("traveling").setX(i).setY(i).setSeqnum(10 + i));
+        }
+        transactionalHandler.queueResponse(responseBuilder.build());
+        
+        try {
+            verify(truckRepository, timeout(2000).times(3)).save(any(Truck.class));
+            verify(transactionManager, timeout(2000).atLeastOnce()).commit(any());
+            verify(transactionManager, never()).rollback(any());
+        } finally {
+            transactionalHandler.stop();
+            dispatcher.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testRolledBackBatchReplaysTruckStatusChange() {
+        Truck two = truck(2, TruckStatus.IDLE);
+        Truck four = truck(4, TruckStatus.IDLE);
+        when(truckRepository.findAll()).thenReturn(List.of(two, four));
+        when(truckRepository.findById(2)).thenReturn(Optional.of(two));
+        when(truckRepository.findById(4)).thenReturn(Optional.of(four));
+        // The first write of the batch fails, so the whole batch rolls back
+        when(truckRepository.save(any(Truck.class)))
+            .thenThrow(new IllegalStateException("Deadlock detected"))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+        FleetState fleetState = new FleetState(truckRepository);
+        WorldResponseHandler transactionalHandler = new WorldResponseHandler(
+            truckRepository, packageRepository, warehouseRepository, amazonNotificationService,
+            fleetState, new StubTransactionManager(), new WorldResponseQueue(), new SimpleMeterRegistry(), 2, 64
+        );
+        
+        transactionalHandler.processLaneEvents(List.of(
+            new TruckLanes.Event(2, truckStatus(2, 1), null),
+            new TruckLanes.Event(4, truckStatus(4, 2), null)
+        ));
+        
+        // The rolled-back transition never reached the fleet, so the replay applies it instead of skipping it as unchanged
+        verify(truckRepository, times(2)).save(two);
+        verify(truckRepository, times(1)).save(four);
+        assertEquals(TruckStatus.TRAVELING, fleetState.get(2).getStatus());
+        assertEquals(TruckStatus.TRAVELING, fleetState.get(4).getStatus());
+        transactionalHandler.stop();
+    }
+    
+    @Test
+    public void testCoalesceKeepsNewestTruckStatus() {
+        List<TruckLanes.Event> events = List.of(
+            new TruckLanes.Event(1, truckStatus(1, 1), null),
+            new TruckLanes.Event(2, truckStatus(2, 2), null),
+            new TruckLanes.Event(1, truckStatus(1, 3), null),
+            new TruckLanes.Event(2, WorldUpsProto.UFinished.newBuilder()
+                .setTruckid(2).setX(0).setY(0).setStatus("idle").setSeqnum(4).build(), null),
+            new TruckLanes.Event(2, truckStatus(2, 5), null)
+        );
+        
+        List<TruckLanes.Event> kept = responseHandler.coalesceTruckStatuses(events);
+        
+        // Truck 1's first status is superseded; truck 2's is not, because a completion sits between them
+        assertEquals(events.subList(1, 5), kept);
+    }
+    
+    @Test
+    public void testUnchangedTruckStatusSkipsWrite() throws Exception {
+        Truck truck = new Truck();
+        truck.setId(1);
+        truck.setStatus(TruckStatus.DELIVERING);
+        truck.setX(15);
+        truck.setY(25);
+        when(truckRepository.findById(1)).thenReturn(Optional.of(truck));
+        
+        WorldUpsProto.UResponses.Builder responseBuilder = WorldUpsProto.UResponses.newBuilder();
+        responseBuilder.addTruckstatus(WorldUpsProto.UTruck.newBuilder()
+            .setTruckid(1).setStatus("delivering").setX(15).setY(25).setSeqnum(1));
+        responseHandler.queueResponse(responseBuilder.build());
+        
+        verify(truckRepository, timeout(1000)).findById(1);
+        Thread.sleep(200);
+        verify(truckRepository, never()).save(any(Truck.class));
+        verifyNoInteractions(packageRepository, amazonNotificationService);
+    }
+    
+    private static Truck truck(int id, TruckStatus status) {
+        Truck truck = new Truck();
+        truck.setId(id);
+        truck.setX(0);
+        truck.setY(0);
+        truck.setStatus(status);
+        return truck;
+    }
+    
+    /**
+     * Transaction manager with real synchronization callbacks and no resource behind it
+     */
+    private static class StubTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+        
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+        
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+        
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+    
+    private static WorldUpsProto.UTruck truckStatus(int truckId, long seqnum) {
+        return WorldUpsProto.UTruck.newBuilder()
+            .setTruckid(truckId).setStatus("traveling").setX(1).setY(1).setSeqnum(seqnum).build();
+    }
+    
     @org.junit.jupiter.api.AfterEach
     public void tearDown() throws Exception {
         // Stop the response handler
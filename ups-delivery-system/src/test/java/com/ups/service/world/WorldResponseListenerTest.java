@@ -0,0 +1,119 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class WorldResponseListenerTest {
+
+    @Mock
+    private WorldResponseHandler responseHandler;
+
+    private WorldCommandBatcher commandBatcher;
+    private WorldResponseListener responseListener;
+    private final List<WorldUpsProto.UCommands> written = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        commandBatcher = new WorldCommandBatcher(100, 0);
+        commandBatcher.start(commands -> {
+            written.add(commands);
+            return CompletableFuture.completedFuture(null);
+        });
+        responseListener = new WorldResponseListener(
+                responseHandler,
+                new WorldCommandTracker(commandBatcher),
+                commandBatcher,
+                1024
+        );
+    }
+
+    @AfterEach
+    public void tearDown() {
+        commandBatcher.stop();
+    }
+
+    @Test
+    public void testIncomingSeqNumsAreAcked() throws Exception {
+        WorldUpsProto.UResponses response = WorldUpsProto.UResponses.newBuilder()
+                .addCompletions(completion(1, 11))
+                .addDelivered(WorldUpsProto.UDeliveryMade.newBuilder()
+                        .setTruckid(1).setPackageid(500L).setSeqnum(12).build())
+                .build();
+
+        responseListener.handleResponse(response);
+
+        // Both seqnums go back to the world, and the response is processed unchanged
+        assertEquals(List.of(11L, 12L), waitForAcks(2));
+        verify(responseHandler).queueResponse(response);
+    }
+
+    @Test
+    public void testDuplicatesAreAckedButNotReprocessed() throws Exception {
+        responseListener.handleResponse(WorldUpsProto.UResponses.newBuilder()
+                .addCompletions(completion(1, 21))
+                .build());
+
+        // The world resends 21 together with a new status update
+        WorldUpsProto.UResponses resend = WorldUpsProto.UResponses.newBuilder()
+                .addCompletions(completion(1, 21))
+                .addTruckstatus(WorldUpsProto.UTruck.newBuilder()
+                        .setTruckid(1).setStatus("idle").setX(0).setY(0).setSeqnum(22).build())
+                .build();
+        responseListener.handleResponse(resend);
+
+        // A pure duplicate is dropped entirely
+        responseListener.handleResponse(WorldUpsProto.UResponses.newBuilder()
+                .addCompletions(completion(1, 21))
+                .build());
+
+        assertEquals(List.of(21L, 21L, 22L, 21L), waitForAcks(4));
+
+        ArgumentCaptor<WorldUpsProto.UResponses> captor = ArgumentCaptor.forClass(WorldUpsProto.UResponses.class);
+        verify(responseHandler, times(2)).queueResponse(captor.capture());
+        WorldUpsProto.UResponses filtered = captor.getAllValues().get(1);
+        assertEquals(0, filtered.getCompletionsCount());
+        assertEquals(1, filtered.getTruckstatusCount());
+        assertEquals(22L, filtered.getTruckstatus(0).getSeqnum());
+    }
+
+    private WorldUpsProto.UFinished completion(int truckId, long seqNum) {
+        return WorldUpsProto.UFinished.newBuilder()
+                .setTruckid(truckId)
+                .setX(1)
+                .setY(2)
+                .setStatus("idle")
+                .setSeqnum(seqNum)
+                .build();
+    }
+
+    private List<Long> waitForAcks(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        List<Long> acks = new ArrayList<>();
+        while (System.currentTimeMillis() < deadline) {
+            acks.clear();
+            for (WorldUpsProto.UCommands commands : written) {
+                acks.addAll(commands.getAcksList());
+            }
+            if (acks.size() >= expected) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        return acks;
+    }
+}
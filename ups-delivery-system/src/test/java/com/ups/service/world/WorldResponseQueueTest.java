@@ -0,0 +1,115 @@
+package com.ups.service.world;
+
+import com.ups.WorldUpsProto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldResponseQueueTest {
+
+    @TempDir
+    Path spillDir;
+
+    @Test
+    public void testBlockPolicyWaitsForSpace() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WorldResponseQueue queue = new WorldResponseQueue(meterRegistry, 2, "block", spillDir.toString());
+        queue.put(truckStatus(1, 1));
+        queue.put(truckStatus(2, 2));
+
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(truckStatus(3, 3));
+                queued.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS), "Producer should block while the queue is full");
+        assertEquals(1, queue.take().getTruckstatus(0).getTruckid());
+        assertTrue(queued.await(1, TimeUnit.SECONDS));
+        assertEquals(2, queue.take().getTruckstatus(0).getTruckid());
+        assertEquals(3, queue.take().getTruckstatus(0).getTruckid());
+
+        assertEquals(2, queue.getHighWater());
+        assertEquals(3, meterRegistry.get("ups.world.response.queue.wait").timer().count());
+        assertEquals(2.0, meterRegistry.get("ups.world.response.queue.high-water").gauge().value());
+    }
+
+    @Test
+    public void testCollapsePolicyDropsSupersededTruckStatuses() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WorldResponseQueue queue = new WorldResponseQueue(meterRegistry, 3, "collapse", spillDir.toString());
+        queue.put(truckStatus(1, 10));
+        queue.put(WorldUpsProto.UResponses.newBuilder()
+                .addTruckstatus(truck(1, 20))
+                .addCompletions(WorldUpsProto.UFinished.newBuilder()
+                        .setTruckid(2).setX(0).setY(0).setStatus("IDLE").setSeqnum(5))
+                .build());
+        queue.put(truckStatus(3, 30));
+
+        // Full: the new status for truck 1 supersedes both queued ones
+        queue.put(truckStatus(1, 40));
+
+        assertEquals(3, queue.size());
+        WorldUpsProto.UResponses first = queue.take();
+        assertEquals(0, first.getTruckstatusCount());
+        assertEquals(1, first.getCompletionsCount(), "Completions are never collapsed");
+        assertEquals(3, queue.take().getTruckstatus(0).getTruckid());
+        assertEquals(40, queue.take().getTruckstatus(0).getX());
+        assertEquals(2.0, meterRegistry.get("ups.world.response.queue.collapsed").counter().count());
+    }
+
+    @Test
+    public void testSpillPolicyKeepsArrivalOrder() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WorldResponseQueue queue = new WorldResponseQueue(meterRegistry, 4, "spill", spillDir.toString());
+        for (int i = 0; i < 20; i++) {
+            queue.put(truckStatus(i, i));
+        }
+        assertEquals(20, queue.size());
+        assertEquals(1, countSpillFiles());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, queue.take().getTruckstatus(0).getTruckid());
+        }
+        // Still spilling, so new responses line up behind the spilled ones
+        queue.put(truckStatus(20, 20));
+        for (int i = 10; i <= 20; i++) {
+            assertEquals(i, queue.take().getTruckstatus(0).getTruckid());
+        }
+
+        assertEquals(0, queue.size());
+        assertEquals(0, countSpillFiles(), "Spill file is removed once drained");
+        assertEquals(17.0, meterRegistry.get("ups.world.response.queue.spilled").counter().count());
+        assertEquals(20, queue.getHighWater());
+    }
+
+    private long countSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDir)) {
+            return files.count();
+        }
+    }
+
+    private static WorldUpsProto.UResponses truckStatus(int truckId, int x) {
+        return WorldUpsProto.UResponses.newBuilder().addTruckstatus(truck(truckId, x)).build();
+    }
+
+    private static WorldUpsProto.UTruck truck(int truckId, int x) {
+        return WorldUpsProto.UTruck.newBuilder()
+                .setTruckid(truckId).setStatus("IDLE").setX(x).setY(0).setSeqnum(truckId * 100L + x)
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+package com.ups.service.world;
+
+import com.ups.UpsApplication;
+import com.ups.WorldUpsProto;
+import com.ups.model.entity.Truck;
+import com.ups.model.entity.TruckStatus;
+import com.ups.repository.PackageRepository;
+import com.ups.repository.TruckRepository;
+import com.ups.repository.WarehouseRepository;
+import com.ups.service.AmazonNotificationService;
+import com.ups.service.fleet.FleetState;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares World response processing with one auto-commit per repository call (no transaction
+ * manager, as before) against one transaction per lane micro-batch with JDBC batching.
+ * Reports commits per second and latency per event on an in-memory H2 database.
+ * Not run by the test suite; run the main method directly.
+ */
+public class WorldResponseTransactionBenchmark {
+
+    private static final int TRUCKS = 200;
+    private static final int RESPONSES = 2000;
+    private static final int STATUSES_PER_RESPONSE = 20;
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(UpsApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:txbench",
+                "--spring.jpa.show-sql=false",
+                "--spring.jpa.properties.hibernate.generate_statistics=true",
+                "--ups.world.port=1",
+                "--ups.world.reconnect.enabled=false",
+                "--logging.level.root=WARN");
+        try {
+            TruckRepository truckRepository = context.getBean(TruckRepository.class);
+            for (int i = 0; i < TRUCKS; i++) {
+                Truck truck = new Truck(0, 0);
+                truck.setStatus(TruckStatus.IDLE);
+                truckRepository.save(truck);
+            }
+            int firstTruckId = truckRepository.findAll().get(0).getId();
+            Statistics statistics = context.getBean(EntityManagerFactory.class)
+                    .unwrap(SessionFactory.class).getStatistics();
+
+            // Warm up, then measure each mode
+            run(context, null, statistics, firstTruckId, RESPONSES / 4, false);
+            run(context, null, statistics, firstTruckId, RESPONSES, true);
+            run(context, context.getBean(PlatformTransactionManager.class), statistics, firstTruckId, RESPONSES / 4, false);
+            run(context, context.getBean(PlatformTransactionManager.class), statistics, firstTruckId, RESPONSES, true);
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    private static void run(ConfigurableApplicationContext context, PlatformTransactionManager transactionManager,
+                            Statistics statistics, int firstTruckId, int responses, boolean report) throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WorldResponseHandler handler = new WorldResponseHandler(
+                context.getBean(TruckRepository.class),
+                context.getBean(PackageRepository.class),
+                context.getBean(WarehouseRepository.class),
+                context.getBean(AmazonNotificationService.class),
+                context.getBean(FleetState.class), transactionManager, new WorldResponseQueue(), meterRegistry, 8, 64);
+        Thread dispatcher = new Thread(handler::processResponses, "BenchmarkDispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        statistics.clear();
+        long start = System.nanoTime();
+        for (int r = 0; r < responses; r++) {
+            WorldUpsProto.UResponses.Builder builder = WorldUpsProto.UResponses.newBuilder();
+            for (int i = 0; i < STATUSES_PER_RESPONSE; i++) {
+                int truckId = firstTruckId + (r * STATUSES_PER_RESPONSE + i) % TRUCKS;
+                builder.addTruckstatus(WorldUpsProto.UTruck.newBuilder()
+                        .setTruckid(truckId)
+                        .setStatus(r % 2 == 0 ? "traveling" : "delivering")
+                        .setX(r)
+                        .setY(i)
+                        .setSeqnum((long) r * STATUSES_PER_RESPONSE + i));
+            }
+            handler.queueResponse(builder.build());
+        }
+        while (handler.getQueuedCount() > 0) {
+            Thread.sleep(1);
+        }
+        handler.getLanes().awaitIdle(5, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        handler.stop();
+        dispatcher.interrupt();
+
+        if (!report) {
+            return;
+        }
+        long events = (long) responses * STATUSES_PER_RESPONSE;
+        double latencyMs = meterRegistry.find("ups.world.lane.latency").timers().stream()
+                .mapToDouble(timer -> timer.mean(TimeUnit.MILLISECONDS) * timer.count())
+                .sum() / events;
+        System.out.printf("%-28s %6d responses in %6.2fs  %8.0f responses/s  %8d commits (%8.0f/s)  %6d statements  %7.2f ms queue-to-done per event%n",
+                transactionManager == null ? "Auto-commit per save" : "Transaction per micro-batch",
+                responses, seconds, responses / seconds,
+                statistics.getTransactionCount(), statistics.getTransactionCount() / seconds,
+                statistics.getPrepareStatementCount(), latencyMs);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ups.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SeqNumWindowTest {
+
+    @Test
+    public void testDuplicatesAreDetected() {
+        SeqNumWindow window = new SeqNumWindow(64);
+
+        assertTrue(window.markSeen(1));
+        assertTrue(window.markSeen(3));
+        assertFalse(window.markSeen(1));
+        assertFalse(window.markSeen(3));
+
+        // Out-of-order arrivals inside the window are still new
+        assertTrue(window.markSeen(2));
+        assertEquals(3, window.getHighest());
+    }
+
+    @Test
+    public void testWindowSlidesAndReusesBits() {
+        SeqNumWindow window = new SeqNumWindow(64);
+
+        assertTrue(window.markSeen(10));
+        // 74 maps to the same bit as 10 once the window has slid past it
+        assertTrue(window.markSeen(74));
+        assertFalse(window.markSeen(74));
+
+        // 10 is now older than the window and treated as already seen
+        assertTrue(window.isSeen(10));
+        assertFalse(window.markSeen(10));
+
+        // Seqnums skipped over by the slide are still new
+        assertFalse(window.isSeen(50));
+        assertTrue(window.markSeen(50));
+    }
+
+    @Test
+    public void testLargeJumpClearsWindow() {
+        SeqNumWindow window = new SeqNumWindow(128);
+        for (long seq = 1; seq <= 128; seq++) {
+            assertTrue(window.markSeen(seq));
+        }
+
+        assertTrue(window.markSeen(1000));
+        assertFalse(window.isSeen(999));
+        assertTrue(window.markSeen(999));
+        assertEquals(128, window.getWindowSize());
+    }
+}